@@ -0,0 +1,110 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.EmailDomainMapperConfig;
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The address of a user under several domains: one mapper instance with alias domains, emitting a
+ * multi-valued claim or attribute, against one mapper instance per domain.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar AliasDomainsBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AliasDomainsBenchmark {
+
+    private static final int USERS = 1024;
+
+    @Param({ "2", "4", "8" })
+    public int domains;
+
+    private final OIDCCustomEmailDomainMapper oidcMapper = new OIDCCustomEmailDomainMapper();
+    private final SAMLCustomEmailDomainMapper samlMapper = new SAMLCustomEmailDomainMapper();
+
+    private ProtocolMapperModel oidcAliasModel;
+    private ProtocolMapperModel samlAliasModel;
+    private ProtocolMapperModel[] oidcSeparateModels;
+    private ProtocolMapperModel[] samlSeparateModels;
+    private UserSessionModel[] userSessions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final StringBuilder aliasDomains = new StringBuilder();
+        for (int d = 1; d < domains; d++) {
+            aliasDomains.append("alias").append(d).append(".example\n");
+        }
+        oidcAliasModel = MapperFixtures.oidcCustomEmailDomainMapper("oidc-alias", "example.com", "mail_aliases");
+        oidcAliasModel.getConfig().put(EmailDomainMapperConfig.ALIAS_DOMAINS, aliasDomains.toString());
+        samlAliasModel = MapperFixtures.samlCustomEmailDomainMapper("saml-alias", "example.com", "urn:example:mail-aliases");
+        samlAliasModel.getConfig().put(EmailDomainMapperConfig.ALIAS_DOMAINS, aliasDomains.toString());
+        oidcSeparateModels = new ProtocolMapperModel[domains];
+        samlSeparateModels = new ProtocolMapperModel[domains];
+        for (int d = 0; d < domains; d++) {
+            final String domain = d == 0 ? "example.com" : "alias" + d + ".example";
+            oidcSeparateModels[d] = MapperFixtures.oidcCustomEmailDomainMapper("oidc-" + d, domain, "mail_" + d);
+            samlSeparateModels[d] = MapperFixtures.samlCustomEmailDomainMapper("saml-" + d, domain, "urn:example:mail:" + d);
+        }
+        userSessions = MapperFixtures.userSessions(USERS);
+    }
+
+    private UserSessionModel nextUserSession() {
+        next = (next + 1) & (USERS - 1);
+        return userSessions[next];
+    }
+
+    @Benchmark
+    public AccessToken oidcAliasDomains() {
+        return oidcMapper.transformAccessToken(new AccessToken(), oidcAliasModel, null, nextUserSession(), null);
+    }
+
+    @Benchmark
+    public AccessToken oidcSeparateMappers() {
+        final UserSessionModel userSession = nextUserSession();
+        AccessToken token = new AccessToken();
+        for (ProtocolMapperModel model : oidcSeparateModels) {
+            token = oidcMapper.transformAccessToken(token, model, null, userSession, null);
+        }
+        return token;
+    }
+
+    @Benchmark
+    public AttributeStatementType samlAliasDomains() {
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        samlMapper.transformAttributeStatement(attributeStatement, samlAliasModel, null, nextUserSession(), null);
+        return attributeStatement;
+    }
+
+    @Benchmark
+    public AttributeStatementType samlSeparateMappers() {
+        final UserSessionModel userSession = nextUserSession();
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        for (ProtocolMapperModel model : samlSeparateModels) {
+            samlMapper.transformAttributeStatement(attributeStatement, model, null, userSession, null);
+        }
+        return attributeStatement;
+    }
+
+}
@@ -0,0 +1,63 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.ClaimPathWriter;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Writing the claim with keycloak's OIDCAttributeMapperHelper.mapClaim, which reads the config and
+ * splits the claim name on every call, against the ClaimPathWriter compiled once per config.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ClaimWriterBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ClaimWriterBenchmark {
+
+    private static final String EMAIL = "jdoe@example.com";
+
+    @Param({ "custom_email", "mail.custom.address", "escaped\\.dot" })
+    public String claimName;
+
+    private ProtocolMapperModel mappingModel;
+    private ClaimPathWriter writer;
+
+    @Setup
+    public void setup() {
+        mappingModel = MapperFixtures.oidcCustomEmailDomainMapper("oidc-0", "example.com", claimName);
+        writer = ClaimPathWriter.compile(mappingModel.getConfig());
+    }
+
+    @Benchmark
+    public AccessToken mapClaim() {
+        final AccessToken token = new AccessToken();
+        OIDCAttributeMapperHelper.mapClaim(token, mappingModel, EMAIL);
+        return token;
+    }
+
+    @Benchmark
+    public AccessToken claimPathWriter() {
+        final AccessToken token = new AccessToken();
+        writer.write(token, mappingModel, EMAIL);
+        return token;
+    }
+
+}
@@ -0,0 +1,128 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.DomainTable;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/*
+ * Compares the heap footprint of a DomainTable with a HashMap<String, String> of the same CSV export,
+ * and the lookup time of both.
+ *
+ * Run with: java -cp benchmarks/target/benchmarks.jar de.b1_systems.benchmarks.DomainTableFootprint --users=2000000
+ */
+@CommandLine.Command(name = "DomainTableFootprint", mixinStandardHelpOptions = true,
+        description = "Reports the heap footprint of the memory-mapped domain table against a HashMap.")
+public class DomainTableFootprint implements Callable<Integer> {
+
+    @CommandLine.Option(names = "--users", description = "Entries of the synthetic export, default: ${DEFAULT-VALUE}.",
+            defaultValue = "2000000")
+    private int users;
+
+    @CommandLine.Option(names = "--domains", description = "Distinct target domains, default: ${DEFAULT-VALUE}.",
+            defaultValue = "20")
+    private int domains;
+
+    @CommandLine.Option(names = "--lookups", description = "Lookups to time per structure, default: ${DEFAULT-VALUE}.",
+            defaultValue = "5000000")
+    private int lookups;
+
+    public static void main(final String[] args) {
+        System.exit(new CommandLine(new DomainTableFootprint()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        final Path csv = Files.createTempFile("domain-table-footprint", ".csv");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < users; i++) {
+                    writer.write(email(i) + ",unit-" + (i % domains) + ".example\n");
+                }
+            }
+            System.out.printf("Export: %d users, %d domains, %d MB%n", users, domains, Files.size(csv) >> 20);
+
+            final long before = usedHeap();
+            final Map<String, String> map = loadMap(csv);
+            final long mapHeap = usedHeap() - before;
+            final long mapNanos = time(key -> map.get(key.toLowerCase(Locale.ROOT)));
+            System.out.printf("HashMap:     %6d MB heap, %4d ns per lookup%n", mapHeap >> 20, mapNanos / lookups);
+            map.clear();
+
+            final long beforeTable = usedHeap();
+            final DomainTable table = DomainTable.load(csv, UnaryOperator.identity());
+            final long tableHeap = usedHeap() - beforeTable;
+            final long tableNanos = time(table::get);
+            System.out.printf("DomainTable: %6d KB heap, %4d ns per lookup, %d MB mapped off heap%n", Math.max(tableHeap, 0) >> 10,
+                    tableNanos / lookups, table.getMappedBytes() >> 20);
+            return table.size() == users ? 0 : 1;
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    private static String email(final int i) {
+        return "user" + i + ".lastname@corp-" + (i % 13) + ".example";
+    }
+
+    /*
+     * What a straightforward implementation would do: one map entry per line, keys lowercased, the
+     * domain Strings deduplicated, so the comparison is about the entries.
+     */
+    private static Map<String, String> loadMap(final Path csv) throws Exception {
+        final Map<String, String> map = new HashMap<>();
+        final Map<String, String> domains = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int comma = line.indexOf(',');
+                final String domain = line.substring(comma + 1);
+                map.put(line.substring(0, comma).toLowerCase(Locale.ROOT), domains.computeIfAbsent(domain, d -> d));
+            }
+        }
+        return map;
+    }
+
+    private long time(final Function<String, String> lookup) {
+        final String[] keys = new String[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = email((int) ((i * 2654435761L) % users)).toUpperCase(Locale.ROOT);
+        }
+        int found = 0;
+        // Warm up, then measure
+        for (int i = 0; i < lookups; i++) {
+            found += lookup.apply(keys[i & (keys.length - 1)]) != null ? 1 : 0;
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            found += lookup.apply(keys[i & (keys.length - 1)]) != null ? 1 : 0;
+        }
+        final long nanos = System.nanoTime() - start;
+        if (found != 2 * lookups) {
+            throw new IllegalStateException("Lookups missed keys");
+        }
+        return nanos;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
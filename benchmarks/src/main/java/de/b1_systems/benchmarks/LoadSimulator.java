@@ -0,0 +1,237 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import picocli.CommandLine;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Issues tokens and assertions through several custom email domain mapper configs for many synthetic users
+ * on many threads, in process without keycloak or network, and reports latency percentiles and allocation
+ * per token. Where the JMH benchmarks measure single calls, this shows the tail latencies under contention.
+ *
+ * Run with: java -cp benchmarks/target/benchmarks.jar de.b1_systems.benchmarks.LoadSimulator --help
+ */
+@CommandLine.Command(name = "LoadSimulator", mixinStandardHelpOptions = true,
+        description = "Runs the custom email domain mappers against synthetic users in process and reports latency and allocation per token.")
+public class LoadSimulator implements Callable<Integer> {
+
+    enum Protocol { OIDC, SAML }
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @CommandLine.Option(names = "--protocols", split = ",", description = "Protocols to simulate, default: ${DEFAULT-VALUE}.",
+            defaultValue = "OIDC,SAML")
+    private List<Protocol> protocols;
+
+    @CommandLine.Option(names = "--mappers", description = "Mapper configs applied to every token, default: ${DEFAULT-VALUE}.",
+            defaultValue = "4")
+    private int mappers;
+
+    @CommandLine.Option(names = "--users", description = "Synthetic users, default: ${DEFAULT-VALUE}.", defaultValue = "100000")
+    private int users;
+
+    @CommandLine.Option(names = "--threads", description = "Threads issuing tokens, default: ${DEFAULT-VALUE}.", defaultValue = "4")
+    private int threads;
+
+    @CommandLine.Option(names = "--virtualThreads", description = "Issue tokens on virtual threads, needs Java 21.")
+    private boolean virtualThreads;
+
+    @CommandLine.Option(names = "--warmup", description = "Seconds to warm up before measuring, default: ${DEFAULT-VALUE}.",
+            defaultValue = "5")
+    private int warmupSeconds;
+
+    @CommandLine.Option(names = "--duration", description = "Seconds to measure, default: ${DEFAULT-VALUE}.", defaultValue = "10")
+    private int durationSeconds;
+
+    @CommandLine.Option(names = "--metrics", description = "Record the mapper metrics in an in-memory registry, as keycloak does with metrics enabled.")
+    private boolean metrics;
+
+    /*
+     * What one worker measured.
+     */
+    private static final class WorkerResult {
+        final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        long allocatedBytes = -1;
+    }
+
+    public static void main(final String[] args) {
+        System.exit(new CommandLine(new LoadSimulator()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if (metrics) {
+            Metrics.addRegistry(new SimpleMeterRegistry());
+        }
+        final RealmModel realm = MapperFixtures.realm("load-simulator");
+        final ClientModel client = MapperFixtures.client(realm, "load-simulator-client");
+        final UserSessionModel[] userSessions = MapperFixtures.userSessions(users, realm);
+        final ClientSessionContext[] clientSessionContexts = new ClientSessionContext[users];
+        for (int i = 0; i < users; i++) {
+            clientSessionContexts[i] = new StubClientSessionContext(MapperFixtures.clientSession(client, userSessions[i]));
+        }
+        for (Protocol protocol : protocols) {
+            final ProtocolMapperModel[] models = new ProtocolMapperModel[mappers];
+            for (int m = 0; m < mappers; m++) {
+                // Every config maps the fixture domains differently
+                final String rules = "corp-a.de -> a" + m + ".example\n*.corp-a.de -> eu" + m + ".example\nexample.com";
+                models[m] = protocol == Protocol.OIDC
+                        ? MapperFixtures.oidcCustomEmailDomainMapper("oidc-mapper-" + m, rules, "email_" + m)
+                        : MapperFixtures.samlCustomEmailDomainMapper("saml-mapper-" + m, rules, "urn:example:mail:" + m);
+            }
+            simulate(protocol, models, userSessions, clientSessionContexts);
+        }
+        return 0;
+    }
+
+    private void simulate(final Protocol protocol, final ProtocolMapperModel[] models, final UserSessionModel[] userSessions,
+                          final ClientSessionContext[] clientSessionContexts) throws Exception {
+        final ExecutorService executor = newExecutor();
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final List<Future<WorkerResult>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * (userSessions.length / threads);
+                futures.add(executor.submit(() -> run(protocol, models, userSessions, clientSessionContexts, offset, warmupEnd, end)));
+            }
+            final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+            long allocatedBytes = 0;
+            boolean allocationKnown = true;
+            for (Future<WorkerResult> future : futures) {
+                final WorkerResult result = future.get();
+                latencies.add(result.latencies);
+                allocationKnown &= result.allocatedBytes >= 0;
+                allocatedBytes += result.allocatedBytes;
+            }
+            report(protocol, latencies, allocationKnown ? allocatedBytes : -1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private WorkerResult run(final Protocol protocol, final ProtocolMapperModel[] models, final UserSessionModel[] userSessions,
+                             final ClientSessionContext[] clientSessionContexts, final int offset, final long warmupEnd, final long end) {
+        final OIDCCustomEmailDomainMapper oidcMapper = new OIDCCustomEmailDomainMapper();
+        final SAMLCustomEmailDomainMapper samlMapper = new SAMLCustomEmailDomainMapper();
+        final WorkerResult result = new WorkerResult();
+        int next = offset;
+        long allocatedBefore = -1;
+        boolean measuring = false;
+        long sink = 0;
+        while (true) {
+            final long start = System.nanoTime();
+            if (!measuring && start >= warmupEnd) {
+                measuring = true;
+                allocatedBefore = allocatedBytes();
+            }
+            if (start >= end) {
+                break;
+            }
+            next = next + 1 < userSessions.length ? next + 1 : 0;
+            final UserSessionModel userSession = userSessions[next];
+            if (protocol == Protocol.OIDC) {
+                AccessToken token = new AccessToken();
+                for (ProtocolMapperModel model : models) {
+                    token = oidcMapper.transformAccessToken(token, model, null, userSession, clientSessionContexts[next]);
+                }
+                sink += token.getOtherClaims().size();
+            } else {
+                final AuthenticatedClientSessionModel clientSession = clientSessionContexts[next].getClientSession();
+                final AttributeStatementType attributeStatement = new AttributeStatementType();
+                for (ProtocolMapperModel model : models) {
+                    samlMapper.transformAttributeStatement(attributeStatement, model, null, userSession, clientSession);
+                }
+                sink += attributeStatement.getAttributes().size();
+            }
+            if (measuring) {
+                result.latencies.recordValue(Math.min(System.nanoTime() - start, HIGHEST_TRACKABLE_NANOS));
+            }
+        }
+        final long allocatedAfter = allocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            result.allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+        if (sink < 0) {
+            throw new IllegalStateException("unreachable, keeps the tokens alive");
+        }
+        return result;
+    }
+
+    private void report(final Protocol protocol, final Histogram latencies, final long allocatedBytes) {
+        final long tokens = latencies.getTotalCount();
+        System.out.printf("%s: %d mapper configs, %d users, %d %s threads, %d s%n", protocol, mappers, users, threads,
+                virtualThreads && isVirtualThreadsAvailable() ? "virtual" : "platform", durationSeconds);
+        System.out.printf("  tokens        %d (%.0f/s)%n", tokens, tokens / (double) durationSeconds);
+        System.out.printf("  latency (us)  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  p99.99 %.2f  max %.2f%n",
+                micros(latencies.getValueAtPercentile(50)), micros(latencies.getValueAtPercentile(90)),
+                micros(latencies.getValueAtPercentile(99)), micros(latencies.getValueAtPercentile(99.9)),
+                micros(latencies.getValueAtPercentile(99.99)), micros(latencies.getMaxValue()));
+        if (allocatedBytes >= 0 && tokens > 0) {
+            System.out.printf("  allocation    %d B/token%n", allocatedBytes / tokens);
+        } else {
+            System.out.println("  allocation    n/a (not measurable on these threads)");
+        }
+    }
+
+    private static double micros(final long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private ExecutorService newExecutor() {
+        if (virtualThreads) {
+            if (isVirtualThreadsAvailable()) {
+                try {
+                    // Looked up reflectively, the benchmarks are built for Java 11
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot create virtual threads", e);
+                }
+            }
+            System.out.println("Virtual threads need Java 21, running on " + threads + " platform threads");
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    private static boolean isVirtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Bytes allocated by the current thread so far, -1 if the JVM can't tell, e.g. for virtual threads.
+     */
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
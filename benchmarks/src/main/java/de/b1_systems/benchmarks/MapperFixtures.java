@@ -0,0 +1,122 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.oidc.mappers.FullNameMapper;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.protocol.oidc.mappers.UserAttributeMapper;
+import org.keycloak.protocol.saml.mappers.UserAttributeStatementMapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Mapper configs and users shared by the benchmarks.
+ */
+public final class MapperFixtures {
+
+    public static final String DEPARTMENT_ATTRIBUTE = "department";
+    public static final String URI_NAMEFORMAT = "urn:oasis:names:tc:SAML:2.0:attrname-format:uri";
+
+    private static final String[] SOURCE_DOMAINS = { "corp-a.de", "eu.corp-a.de", "corp-b.com", "subsidiary.example.org" };
+
+    private MapperFixtures() {
+    }
+
+    /*
+     * Returns the given number of user sessions with distinct users, spread over a few email domains.
+     */
+    public static UserSessionModel[] userSessions(final int count) {
+        return userSessions(count, null);
+    }
+
+    /*
+     * Same as userSessions(int), with sessions in the given realm.
+     */
+    public static UserSessionModel[] userSessions(final int count, final RealmModel realm) {
+        final UserSessionModel[] sessions = new UserSessionModel[count];
+        for (int i = 0; i < count; i++) {
+            final StubUserModel user = new StubUserModel("user-" + i, "user" + i, "Max" + i, "Mustermann" + i,
+                    "max.mustermann" + i + "@" + SOURCE_DOMAINS[i % SOURCE_DOMAINS.length]);
+            user.setSingleAttribute(DEPARTMENT_ATTRIBUTE, "department-" + (i % 16));
+            sessions[i] = new StubUserSessionModel("session-" + i, realm, user);
+        }
+        return sessions;
+    }
+
+    public static RealmModel realm(final String name) {
+        return StubModels.stub(RealmModel.class, Map.of("getId", name, "getName", name));
+    }
+
+    public static ClientModel client(final RealmModel realm, final String clientId) {
+        return StubModels.stub(ClientModel.class, Map.of("getId", clientId, "getClientId", clientId, "getRealm", realm));
+    }
+
+    public static AuthenticatedClientSessionModel clientSession(final ClientModel client, final UserSessionModel userSession) {
+        return StubModels.stub(AuthenticatedClientSessionModel.class, Map.of(
+                "getClient", client, "getRealm", client.getRealm(), "getUserSession", userSession));
+    }
+
+    public static ProtocolMapperModel oidcCustomEmailDomainMapper(final String id, final String emailDomain) {
+        return oidcCustomEmailDomainMapper(id, emailDomain, "email");
+    }
+
+    public static ProtocolMapperModel oidcCustomEmailDomainMapper(final String id, final String emailDomain, final String claimName) {
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setId(id);
+        model.setName("Custom Email Domain Mapper");
+        model.setProtocol("openid-connect");
+        model.setProtocolMapper(OIDCCustomEmailDomainMapper.PROVIDER_ID);
+        final Map<String, String> config = new HashMap<>();
+        config.put(OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, emailDomain);
+        config.put(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, claimName);
+        config.put(OIDCAttributeMapperHelper.INCLUDE_IN_ACCESS_TOKEN, "true");
+        config.put(OIDCAttributeMapperHelper.INCLUDE_IN_ID_TOKEN, "true");
+        model.setConfig(config);
+        return model;
+    }
+
+    public static ProtocolMapperModel samlCustomEmailDomainMapper(final String id, final String emailDomain) {
+        return samlCustomEmailDomainMapper(id, emailDomain, SAMLCustomEmailDomainMapper.DEFAULT_SAML_ATTRIBUTE_NAME);
+    }
+
+    public static ProtocolMapperModel samlCustomEmailDomainMapper(final String id, final String emailDomain, final String attributeName) {
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setId(id);
+        model.setName("Custom Email Domain Mapper");
+        model.setProtocol("saml");
+        model.setProtocolMapper(SAMLCustomEmailDomainMapper.PROVIDER_ID);
+        final Map<String, String> config = new HashMap<>();
+        config.put(SAMLCustomEmailDomainMapper.EMAIL_DOMAIN, emailDomain);
+        config.put(SAMLCustomEmailDomainMapper.SAML_ATTRIBUTE_NAME, attributeName);
+        config.put(SAMLCustomEmailDomainMapper.SAML_ATTRIBUTE_NAMEFORMAT, URI_NAMEFORMAT);
+        model.setConfig(config);
+        return model;
+    }
+
+    public static ProtocolMapperModel oidcFullNameMapper() {
+        final ProtocolMapperModel model = FullNameMapper.create("full name", true, true, true);
+        model.setId("full-name-mapper");
+        return model;
+    }
+
+    public static ProtocolMapperModel oidcUserAttributeMapper() {
+        final ProtocolMapperModel model = UserAttributeMapper.createClaimMapper("department", DEPARTMENT_ATTRIBUTE, DEPARTMENT_ATTRIBUTE,
+                "String", true, true, false);
+        model.setId("user-attribute-mapper");
+        return model;
+    }
+
+    public static ProtocolMapperModel samlUserAttributeMapper() {
+        final ProtocolMapperModel model = UserAttributeStatementMapper.createAttributeMapper("department", DEPARTMENT_ATTRIBUTE,
+                DEPARTMENT_ATTRIBUTE, URI_NAMEFORMAT, "Department");
+        model.setId("saml-user-attribute-mapper");
+        return model;
+    }
+
+}
@@ -0,0 +1,82 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.oidc.mappers.FullNameMapper;
+import org.keycloak.protocol.oidc.mappers.UserAttributeMapper;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the OIDC custom email domain mapper per token, next to two built-in mappers as baselines.
+ * Every operation maps one claim into a fresh token of the next user.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar OIDCMapperBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OIDCMapperBenchmark {
+
+    private static final int USERS = 1024;
+
+    private final OIDCCustomEmailDomainMapper customEmailDomainMapper = new OIDCCustomEmailDomainMapper();
+    private final FullNameMapper fullNameMapper = new FullNameMapper();
+    private final UserAttributeMapper userAttributeMapper = new UserAttributeMapper();
+
+    private ProtocolMapperModel customEmailDomainModel;
+    private ProtocolMapperModel fullNameModel;
+    private ProtocolMapperModel userAttributeModel;
+    private UserSessionModel[] userSessions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        customEmailDomainModel = MapperFixtures.oidcCustomEmailDomainMapper("oidc-custom-email-domain", "example.com");
+        fullNameModel = MapperFixtures.oidcFullNameMapper();
+        userAttributeModel = MapperFixtures.oidcUserAttributeMapper();
+        userSessions = MapperFixtures.userSessions(USERS);
+    }
+
+    private UserSessionModel nextUserSession() {
+        next = (next + 1) & (USERS - 1);
+        return userSessions[next];
+    }
+
+    @Benchmark
+    public AccessToken customEmailDomainAccessToken() {
+        return customEmailDomainMapper.transformAccessToken(new AccessToken(), customEmailDomainModel, null, nextUserSession(), null);
+    }
+
+    @Benchmark
+    public IDToken customEmailDomainIDToken() {
+        return customEmailDomainMapper.transformIDToken(new IDToken(), customEmailDomainModel, null, nextUserSession(), null);
+    }
+
+    @Benchmark
+    public AccessToken baselineFullNameAccessToken() {
+        return fullNameMapper.transformAccessToken(new AccessToken(), fullNameModel, null, nextUserSession(), null);
+    }
+
+    @Benchmark
+    public AccessToken baselineUserAttributeAccessToken() {
+        return userAttributeMapper.transformAccessToken(new AccessToken(), userAttributeModel, null, nextUserSession(), null);
+    }
+
+}
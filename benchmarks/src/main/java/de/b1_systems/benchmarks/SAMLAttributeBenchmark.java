@@ -0,0 +1,88 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.saml.mappers.UserAttributeStatementMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the SAML attributes of several custom email domain mapper instances per assertion, as an SP
+ * receiving the mapped address under several names would, next to as many built-in user attribute
+ * mappers as baseline. Each attribute is a fresh AttributeType either way, as later mappers may change
+ * it, so the difference is the work of mapping the address.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar SAMLAttributeBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SAMLAttributeBenchmark {
+
+    private static final int USERS = 1024;
+
+    @Param({ "1", "4", "8" })
+    public int mappers;
+
+    private final SAMLCustomEmailDomainMapper customEmailDomainMapper = new SAMLCustomEmailDomainMapper();
+    private final UserAttributeStatementMapper userAttributeMapper = new UserAttributeStatementMapper();
+
+    private ProtocolMapperModel[] models;
+    private ProtocolMapperModel[] userAttributeModels;
+    private UserSessionModel[] userSessions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        models = new ProtocolMapperModel[mappers];
+        userAttributeModels = new ProtocolMapperModel[mappers];
+        for (int i = 0; i < mappers; i++) {
+            final String attributeName = "urn:example:mail:" + i;
+            models[i] = MapperFixtures.samlCustomEmailDomainMapper("saml-custom-email-domain-" + i, "example.com", attributeName);
+            userAttributeModels[i] = MapperFixtures.samlUserAttributeMapper();
+        }
+        userSessions = MapperFixtures.userSessions(USERS);
+    }
+
+    private int nextUser() {
+        next = (next + 1) & (USERS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public AttributeStatementType customEmailDomainMappers() {
+        final UserSessionModel userSession = userSessions[nextUser()];
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        for (ProtocolMapperModel model : models) {
+            customEmailDomainMapper.transformAttributeStatement(attributeStatement, model, null, userSession, null);
+        }
+        return attributeStatement;
+    }
+
+    @Benchmark
+    public AttributeStatementType baselineUserAttributeMappers() {
+        final UserSessionModel userSession = userSessions[nextUser()];
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        for (ProtocolMapperModel model : userAttributeModels) {
+            userAttributeMapper.transformAttributeStatement(attributeStatement, model, null, userSession, null);
+        }
+        return attributeStatement;
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.b1_systems.benchmarks;
+
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.protocol.saml.mappers.UserAttributeStatementMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the SAML custom email domain mapper per assertion, next to the built-in user attribute
+ * mapper as baseline. Every operation maps one attribute into a fresh attribute statement of the next user.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar SAMLMapperBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SAMLMapperBenchmark {
+
+    private static final int USERS = 1024;
+
+    private final SAMLCustomEmailDomainMapper customEmailDomainMapper = new SAMLCustomEmailDomainMapper();
+    private final UserAttributeStatementMapper userAttributeMapper = new UserAttributeStatementMapper();
+
+    private ProtocolMapperModel customEmailDomainModel;
+    private ProtocolMapperModel userAttributeModel;
+    private UserSessionModel[] userSessions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        customEmailDomainModel = MapperFixtures.samlCustomEmailDomainMapper("saml-custom-email-domain", "example.com");
+        userAttributeModel = MapperFixtures.samlUserAttributeMapper();
+        userSessions = MapperFixtures.userSessions(USERS);
+    }
+
+    private UserSessionModel nextUserSession() {
+        next = (next + 1) & (USERS - 1);
+        return userSessions[next];
+    }
+
+    @Benchmark
+    public AttributeStatementType customEmailDomainAttributeStatement() {
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        customEmailDomainMapper.transformAttributeStatement(attributeStatement, customEmailDomainModel, null, nextUserSession(), null);
+        return attributeStatement;
+    }
+
+    @Benchmark
+    public AttributeStatementType baselineUserAttributeStatement() {
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        userAttributeMapper.transformAttributeStatement(attributeStatement, userAttributeModel, null, nextUserSession(), null);
+        return attributeStatement;
+    }
+
+}
@@ -0,0 +1,73 @@
+package de.b1_systems.benchmarks;
+
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.rar.AuthorizationRequestContext;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/*
+ * A client session context without scopes or roles, as the custom email domain mappers don't look at them.
+ */
+public class StubClientSessionContext implements ClientSessionContext {
+
+    private final AuthenticatedClientSessionModel clientSession;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    public StubClientSessionContext(final AuthenticatedClientSessionModel clientSession) {
+        this.clientSession = clientSession;
+    }
+
+    @Override
+    public AuthenticatedClientSessionModel getClientSession() {
+        return clientSession;
+    }
+
+    @Override
+    public Set<String> getClientScopeIds() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Stream<ClientScopeModel> getClientScopesStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public Stream<RoleModel> getRolesStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public Stream<ProtocolMapperModel> getProtocolMappersStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public String getScopeString() {
+        return "openid";
+    }
+
+    @Override
+    public void setAttribute(final String name, final Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public <T> T getAttribute(final String attribute, final Class<T> clazz) {
+        return clazz.cast(attributes.get(attribute));
+    }
+
+    @Override
+    public AuthorizationRequestContext getAuthorizationRequestContext() {
+        return null;
+    }
+
+}
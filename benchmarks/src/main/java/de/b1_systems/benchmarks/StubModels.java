@@ -0,0 +1,53 @@
+package de.b1_systems.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * Stand-ins for the big keycloak model interfaces the mappers barely touch, like RealmModel or ClientModel.
+ */
+public final class StubModels {
+
+    private StubModels() {
+    }
+
+    /*
+     * Returns an instance of the given interface which answers the named getters with the given values
+     * and every other method with null, false, zero or an empty stream.
+     */
+    public static <T> T stub(final Class<T> type, final Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(StubModels.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (answers.containsKey(method.getName())) {
+                return answers.get(method.getName());
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + answers;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == Stream.class) {
+            return Stream.empty();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,236 @@
+package de.b1_systems.benchmarks;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.SubjectCredentialManager;
+import org.keycloak.models.UserModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * A plain in-memory user. Unlike a Mockito mock it neither records invocations nor allocates on
+ * getter calls, so it doesn't distort throughput and allocation numbers.
+ */
+public class StubUserModel implements UserModel {
+
+    private final String id;
+    private String username;
+    private String firstName;
+    private String lastName;
+    private String email;
+    private boolean emailVerified;
+    private boolean enabled = true;
+    private Long createdTimestamp;
+    private String federationLink;
+    private String serviceAccountClientLink;
+    private final Map<String, List<String>> attributes = new HashMap<>();
+    private final List<GroupModel> groups = new ArrayList<>();
+
+    public StubUserModel(final String id, final String username, final String firstName, final String lastName, final String email) {
+        this.id = id;
+        this.username = username;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    @Override
+    public Long getCreatedTimestamp() {
+        return createdTimestamp;
+    }
+
+    @Override
+    public void setCreatedTimestamp(final Long timestamp) {
+        this.createdTimestamp = timestamp;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void setSingleAttribute(final String name, final String value) {
+        attributes.put(name, Collections.singletonList(value));
+    }
+
+    @Override
+    public void setAttribute(final String name, final List<String> values) {
+        attributes.put(name, values);
+    }
+
+    @Override
+    public void removeAttribute(final String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getFirstAttribute(final String name) {
+        final List<String> values = attributes.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Stream<String> getAttributeStream(final String name) {
+        final List<String> values = attributes.get(name);
+        return values == null ? Stream.empty() : values.stream();
+    }
+
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Stream<String> getRequiredActionsStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public void addRequiredAction(final String action) {
+    }
+
+    @Override
+    public void removeRequiredAction(final String action) {
+    }
+
+    @Override
+    public String getFirstName() {
+        return firstName;
+    }
+
+    @Override
+    public void setFirstName(final String firstName) {
+        this.firstName = firstName;
+    }
+
+    @Override
+    public String getLastName() {
+        return lastName;
+    }
+
+    @Override
+    public void setLastName(final String lastName) {
+        this.lastName = lastName;
+    }
+
+    @Override
+    public String getEmail() {
+        return email;
+    }
+
+    @Override
+    public void setEmail(final String email) {
+        this.email = email;
+    }
+
+    @Override
+    public boolean isEmailVerified() {
+        return emailVerified;
+    }
+
+    @Override
+    public void setEmailVerified(final boolean verified) {
+        this.emailVerified = verified;
+    }
+
+    @Override
+    public Stream<GroupModel> getGroupsStream() {
+        return groups.stream();
+    }
+
+    @Override
+    public void joinGroup(final GroupModel group) {
+        groups.add(group);
+    }
+
+    @Override
+    public void leaveGroup(final GroupModel group) {
+        groups.remove(group);
+    }
+
+    @Override
+    public boolean isMemberOf(final GroupModel group) {
+        return groups.contains(group);
+    }
+
+    @Override
+    public String getFederationLink() {
+        return federationLink;
+    }
+
+    @Override
+    public void setFederationLink(final String link) {
+        this.federationLink = link;
+    }
+
+    @Override
+    public String getServiceAccountClientLink() {
+        return serviceAccountClientLink;
+    }
+
+    @Override
+    public void setServiceAccountClientLink(final String clientInternalId) {
+        this.serviceAccountClientLink = clientInternalId;
+    }
+
+    @Override
+    public SubjectCredentialManager credentialManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Stream<RoleModel> getRealmRoleMappingsStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public Stream<RoleModel> getClientRoleMappingsStream(final ClientModel app) {
+        return Stream.empty();
+    }
+
+    @Override
+    public boolean hasRole(final RoleModel role) {
+        return false;
+    }
+
+    @Override
+    public void grantRole(final RoleModel role) {
+    }
+
+    @Override
+    public Stream<RoleModel> getRoleMappingsStream() {
+        return Stream.empty();
+    }
+
+    @Override
+    public void deleteRoleMapping(final RoleModel role) {
+    }
+
+}
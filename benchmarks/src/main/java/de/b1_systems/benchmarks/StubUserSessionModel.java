@@ -0,0 +1,150 @@
+package de.b1_systems.benchmarks;
+
+import org.keycloak.models.AuthenticatedClientSessionModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * A plain in-memory user session of a single user.
+ */
+public class StubUserSessionModel implements UserSessionModel {
+
+    private final String id;
+    private final RealmModel realm;
+    private UserModel user;
+    private final Map<String, String> notes = new ConcurrentHashMap<>();
+    private final Map<String, AuthenticatedClientSessionModel> clientSessions = new HashMap<>();
+    private final int started = (int) (System.currentTimeMillis() / 1000);
+    private int lastSessionRefresh = started;
+    private State state = State.LOGGED_IN;
+
+    public StubUserSessionModel(final String id, final RealmModel realm, final UserModel user) {
+        this.id = id;
+        this.realm = realm;
+        this.user = user;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public RealmModel getRealm() {
+        return realm;
+    }
+
+    @Override
+    public String getBrokerSessionId() {
+        return null;
+    }
+
+    @Override
+    public String getBrokerUserId() {
+        return null;
+    }
+
+    @Override
+    public UserModel getUser() {
+        return user;
+    }
+
+    @Override
+    public String getLoginUsername() {
+        return user.getUsername();
+    }
+
+    @Override
+    public String getIpAddress() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getAuthMethod() {
+        return "openid-connect";
+    }
+
+    @Override
+    public boolean isRememberMe() {
+        return false;
+    }
+
+    @Override
+    public int getStarted() {
+        return started;
+    }
+
+    @Override
+    public int getLastSessionRefresh() {
+        return lastSessionRefresh;
+    }
+
+    @Override
+    public void setLastSessionRefresh(final int seconds) {
+        this.lastSessionRefresh = seconds;
+    }
+
+    @Override
+    public boolean isOffline() {
+        return false;
+    }
+
+    @Override
+    public Map<String, AuthenticatedClientSessionModel> getAuthenticatedClientSessions() {
+        return clientSessions;
+    }
+
+    @Override
+    public void removeAuthenticatedClientSessions(final Collection<String> removedClientUUIDS) {
+        removedClientUUIDS.forEach(clientSessions::remove);
+    }
+
+    @Override
+    public String getNote(final String name) {
+        return notes.get(name);
+    }
+
+    @Override
+    public void setNote(final String name, final String value) {
+        if (value == null) {
+            notes.remove(name);
+        } else {
+            notes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeNote(final String name) {
+        notes.remove(name);
+    }
+
+    @Override
+    public Map<String, String> getNotes() {
+        return notes;
+    }
+
+    @Override
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(final State state) {
+        this.state = state;
+    }
+
+    @Override
+    public void restartSession(final RealmModel realm, final UserModel user, final String loginUsername, final String ipAddress,
+                               final String authMethod, final boolean rememberMe, final String brokerSessionId, final String brokerUserId) {
+        this.user = user;
+        this.notes.clear();
+        this.clientSessions.clear();
+    }
+
+}
@@ -0,0 +1,131 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import de.b1_systems.SAMLCustomEmailDomainMapper;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.protocol.saml.SamlProtocol;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.ProtocolMapperRepresentation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clients and their custom email domain mappers as declared in a YAML or JSON file, e.g.
+ *
+ * <pre>
+ * realm: example-realm
+ * clients:
+ *   - clientId: app-1
+ *     protocol: openid-connect
+ *     mappers:
+ *       - name: Custom Email Domain Mapper
+ *         emailDomain: "*.corp-a.de -> group.example"
+ *         claimName: email
+ *   - clientId: https://sp.example.org/saml
+ *     protocol: saml
+ *     mappers:
+ *       - name: Custom Email Domain Mapper
+ *         emailDomain: group.example
+ *         samlAttributeStatement: urn:oid:0.9.2342.19200300.100.1.3
+ *         samlAttributeFormat: urn:oasis:names:tc:SAML:2.0:attrname-format:uri
+ * </pre>
+ */
+public class ClientProvisioningSpec {
+
+    public String realm = RealmSetup.REALM;
+    public List<ClientSpec> clients = new ArrayList<>();
+
+    public static class ClientSpec {
+        public String clientId;
+        public String protocol = OIDCLoginProtocol.LOGIN_PROTOCOL;
+        public boolean publicClient = true;
+        public List<MapperSpec> mappers = new ArrayList<>();
+
+        /**
+         * The client to create if it doesn't exist yet, with all its mappers.
+         */
+        public ClientRepresentation toRepresentation() {
+            final ClientRepresentation client = new ClientRepresentation();
+            client.setClientId(clientId);
+            client.setName(clientId);
+            client.setProtocol(protocol);
+            client.setEnabled(true);
+            client.setPublicClient(publicClient);
+            final List<ProtocolMapperRepresentation> protocolMappers = new ArrayList<>();
+            for (MapperSpec mapper : mappers) {
+                protocolMappers.add(mapper.toRepresentation(protocol));
+            }
+            client.setProtocolMappers(protocolMappers);
+            return client;
+        }
+    }
+
+    public static class MapperSpec {
+        public String name = "Custom Email Domain Mapper";
+        public String emailDomain;
+        /** OIDC only */
+        public String claimName = "email";
+        /** SAML only */
+        public String samlAttributeStatement;
+        /** SAML only */
+        public String samlAttributeFormat;
+        /** Further config entries, e.g. "id.token.claim" or "cacheInUserSession" */
+        public Map<String, String> config = new HashMap<>();
+
+        public ProtocolMapperRepresentation toRepresentation(final String protocol) {
+            final ProtocolMapperRepresentation mapper = new ProtocolMapperRepresentation();
+            mapper.setName(name);
+            mapper.setProtocol(protocol);
+            final Map<String, String> mapperConfig = new LinkedHashMap<>();
+            if (SamlProtocol.LOGIN_PROTOCOL.equals(protocol)) {
+                mapper.setProtocolMapper(SAMLCustomEmailDomainMapper.PROVIDER_ID);
+                putIfSet(mapperConfig, SAMLCustomEmailDomainMapper.SAML_ATTRIBUTE_NAME, samlAttributeStatement);
+                putIfSet(mapperConfig, SAMLCustomEmailDomainMapper.SAML_ATTRIBUTE_NAMEFORMAT, samlAttributeFormat);
+            } else {
+                mapper.setProtocolMapper(OIDCCustomEmailDomainMapper.PROVIDER_ID);
+                OIDCClientMapperSetup.putAccessTokenClaim(mapperConfig);
+                putIfSet(mapperConfig, OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, claimName);
+            }
+            putIfSet(mapperConfig, OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, emailDomain);
+            mapperConfig.putAll(config);
+            mapper.setConfig(mapperConfig);
+            return mapper;
+        }
+
+        private static void putIfSet(final Map<String, String> config, final String key, final String value) {
+            if (value != null) {
+                config.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Reads a spec from a .json file or else from YAML.
+     */
+    public static ClientProvisioningSpec read(final Path file) {
+        final ObjectMapper objectMapper = file.getFileName().toString().endsWith(".json") ? new ObjectMapper() : new ObjectMapper(new YAMLFactory());
+        objectMapper.enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        try {
+            final ClientProvisioningSpec spec = objectMapper.readValue(file.toFile(), ClientProvisioningSpec.class);
+            for (ClientSpec client : spec.clients) {
+                if (client.clientId == null || client.clientId.isEmpty()) {
+                    throw new IllegalArgumentException("Client without clientId in " + file);
+                }
+            }
+            return spec;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read client provisioning spec " + file, e);
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package de.b1_systems.datasetup.bootstrap;
 
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.keycloak.admin.client.ClientBuilderWrapper;
+import org.keycloak.admin.client.JacksonProvider;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
 import picocli.CommandLine;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.concurrent.Callable;
 
 @CommandLine.Command(description = "Does an initial testdata setup for an keycloak database, if the databse already contains data, "
     + "nothing is done",
-    name = "initialSetup", mixinStandardHelpOptions = true, version = "1.0")
+    name = "initialSetup", mixinStandardHelpOptions = true, version = "1.0",
+    subcommands = { GenerateUsersCommand.class, ProvisionClientsCommand.class, MigrateEmailsCommand.class })
 public class DataSetupMain implements Callable<Integer> {
 
     @CommandLine.Option(names = { "--restApiBaseUrl" }, description = "BaseUrl for the rest api which is used to set up the data.",
@@ -22,25 +28,54 @@ public class DataSetupMain implements Callable<Integer> {
         "password")
     private String password;
 
+    @CommandLine.Option(names = { "--readinessUrl" }, description = "Url which returns status 200 once keycloak is ready, "
+        + "defaults to the master realm below the rest api base url.")
+    private String readinessUrl;
+
+    @CommandLine.Option(names = { "--readinessTimeout" }, description = "Seconds to wait for keycloak to become ready, 0 to not wait.",
+        defaultValue = "300")
+    private int readinessTimeout;
+
     @Override
-    public Integer call() {
+    public Integer call() throws InterruptedException {
+        awaitKeycloak();
         System.out.println("Start to setup keycloak with rest api base url " + restApiBaseUrl);
-        PopulateTestdataCompletedRealmSetup.forTestSystem(createKeycloakClient())
-            .executeTestdataPopulationOnlyOnce(keycloakClient -> {
-                new RealmSetup(keycloakClient).execute();
-                new UserSetup(keycloakClient).execute();
-                new OIDCClientMapperSetup(keycloakClient).execute();
-                new SAMLClientMapperSetup(keycloakClient).execute();
-            });
-        return 0;
+        // Users and mappers only need the realm, so up to three steps send requests at once
+        final Keycloak keycloakClient = createKeycloakClient(3);
+        final SetupJournal journal = SetupJournal.forTestSystem(keycloakClient);
+        final SetupScheduler scheduler = new SetupScheduler()
+            .step("RealmSetup", () -> journal.runStep("RealmSetup", new RealmSetup(keycloakClient)::execute))
+            .step("UserSetup", () -> journal.runStep("UserSetup", new UserSetup(keycloakClient)::execute), "RealmSetup")
+            .step("OIDCClientMapperSetup",
+                () -> journal.runStep("OIDCClientMapperSetup", new OIDCClientMapperSetup(keycloakClient)::execute), "RealmSetup")
+            .step("SAMLClientMapperSetup",
+                () -> journal.runStep("SAMLClientMapperSetup", new SAMLClientMapperSetup(keycloakClient)::execute), "RealmSetup");
+        return scheduler.run() ? 0 : 1;
     }
 
     public static void main(final String[] args) {
-        CommandLine.call(new DataSetupMain(), args);
+        System.exit(new CommandLine(new DataSetupMain()).execute(args));
+    }
+
+    /**
+     * Waits until keycloak is ready, so the setup can start right when the container is up.
+     */
+    void awaitKeycloak() throws InterruptedException {
+        if (readinessTimeout <= 0) {
+            return;
+        }
+        final String url = readinessUrl != null ? readinessUrl : restApiBaseUrl + "/auth/realms/master";
+        new KeycloakReadiness(URI.create(url), Duration.ofSeconds(readinessTimeout)).await();
     }
 
-    private Keycloak createKeycloakClient() {
+    /**
+     * Creates a client which can send the given number of requests concurrently, set up like the default one otherwise.
+     */
+    Keycloak createKeycloakClient(int connections) {
+        final ResteasyClientBuilder clientBuilder = (ResteasyClientBuilder) ClientBuilderWrapper.create(null, false);
+        clientBuilder.connectionPoolSize(connections).maxPooledPerRoute(connections).register(JacksonProvider.class, 100);
         return KeycloakBuilder.builder()
+            .resteasyClient(clientBuilder.build())
             .serverUrl(restApiBaseUrl + "/auth")
             .realm("master")
             .username(username)
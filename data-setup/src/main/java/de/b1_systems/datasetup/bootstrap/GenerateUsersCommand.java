@@ -0,0 +1,162 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import picocli.CommandLine;
+
+import javax.ws.rs.core.Response;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@CommandLine.Command(description = "Generates synthetic users to load test the mappers. Resumes an interrupted run from its checkpoint.",
+    name = "generateUsers", mixinStandardHelpOptions = true)
+public class GenerateUsersCommand implements Callable<Integer> {
+
+    enum Mode {
+        /** One create request per user */
+        CREATE,
+        /** One partial import request per batch */
+        PARTIAL_IMPORT
+    }
+
+    @CommandLine.ParentCommand
+    private DataSetupMain parent;
+
+    @CommandLine.Option(names = { "--realm" }, description = "Realm to add the users to.", defaultValue = RealmSetup.REALM)
+    private String realm;
+
+    @CommandLine.Option(names = { "--count" }, description = "Number of users to generate, numbered from 0.", defaultValue = "100000")
+    private long count;
+
+    @CommandLine.Option(names = { "--domains" }, description = "Email domains with their weights, e.g. corp-a.de=70,sub.corp-a.de=20,example.com=10",
+        defaultValue = "example.com=1")
+    private String domains;
+
+    @CommandLine.Option(names = { "--usernamePrefix" }, description = "Prefix of the generated usernames.", defaultValue = "loadtest-")
+    private String usernamePrefix;
+
+    @CommandLine.Option(names = { "--withPassword" }, description = "Give the users a password, which makes provisioning much slower.")
+    private boolean withPassword;
+
+    @CommandLine.Option(names = { "--mode" }, description = "CREATE or PARTIAL_IMPORT.", defaultValue = "PARTIAL_IMPORT")
+    private Mode mode;
+
+    @CommandLine.Option(names = { "--batchSize" }, description = "Users per batch, the unit of work and of the checkpoint.", defaultValue = "500")
+    private int batchSize;
+
+    @CommandLine.Option(names = { "--parallelism" }, description = "Batches sent concurrently.", defaultValue = "8")
+    private int parallelism;
+
+    @CommandLine.Option(names = { "--checkpoint" }, description = "File remembering the progress.", defaultValue = "generate-users.checkpoint")
+    private Path checkpointFile;
+
+    @CommandLine.Option(names = { "--progressInterval" }, description = "Seconds between progress reports.", defaultValue = "5")
+    private int progressInterval;
+
+    private final AtomicLong provisioned = new AtomicLong();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    @Override
+    public Integer call() throws InterruptedException {
+        final UserGenerator generator = UserGenerator.create(usernamePrefix, domains, withPassword);
+        final ProvisioningCheckpoint checkpoint = ProvisioningCheckpoint.open(checkpointFile, realm, usernamePrefix, count, batchSize);
+        final long remaining = count - checkpoint.getStart();
+        if (remaining <= 0) {
+            System.out.println("All " + count + " users have already been provisioned according to " + checkpointFile);
+            return 0;
+        }
+        parent.awaitKeycloak();
+        System.out.println("Provisioning users " + checkpoint.getStart() + " to " + (count - 1) + " into realm " + realm + " via " + mode
+            + " with " + parallelism + " concurrent batches of " + batchSize);
+
+        final Keycloak keycloak = parent.createKeycloakClient(parallelism);
+        final RealmResource realmResource = keycloak.realm(realm);
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        // Bounds the batches in memory, the workers would otherwise queue all of them
+        final Semaphore inFlight = new Semaphore(parallelism * 2);
+        final long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> reportProgress(remaining, startNanos), progressInterval, progressInterval, TimeUnit.SECONDS);
+        try {
+            for (int batch = 0; batch < checkpoint.getBatchCount() && failure.get() == null; batch++) {
+                inFlight.acquire();
+                final int current = batch;
+                workers.execute(() -> {
+                    try {
+                        final List<UserRepresentation> users = generator.users(checkpoint.batchFrom(current), checkpoint.batchTo(current));
+                        if (mode == Mode.PARTIAL_IMPORT) {
+                            importUsers(realmResource, users);
+                        } else {
+                            createUsers(realmResource, users);
+                        }
+                        checkpoint.complete(current);
+                        provisioned.addAndGet(users.size());
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+            keycloak.close();
+        }
+        reportProgress(remaining, startNanos);
+        if (failure.get() != null) {
+            System.out.println("Provisioning failed, run again to resume from " + checkpointFile + ": " + failure.get());
+            return 1;
+        }
+        System.out.println("Provisioned " + remaining + " users");
+        return 0;
+    }
+
+    private void importUsers(RealmResource realmResource, List<UserRepresentation> users) {
+        final PartialImportRepresentation partialImport = new PartialImportRepresentation();
+        partialImport.setUsers(users);
+        // Users of a batch sent again on resume already exist
+        partialImport.setIfResourceExists(PartialImportRepresentation.Policy.SKIP.name());
+        try (Response response = realmResource.partialImport(partialImport)) {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new IllegalStateException("Partial import failed with status " + response.getStatus());
+            }
+        }
+    }
+
+    private void createUsers(RealmResource realmResource, List<UserRepresentation> users) {
+        for (UserRepresentation user : users) {
+            try (Response response = realmResource.users().create(user)) {
+                // Users of a batch sent again on resume already exist
+                if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL
+                    && response.getStatus() != Response.Status.CONFLICT.getStatusCode()) {
+                    throw new IllegalStateException("Creating user " + user.getUsername() + " failed with status " + response.getStatus());
+                }
+            }
+        }
+    }
+
+    private void reportProgress(long total, long startNanos) {
+        final long done = provisioned.get();
+        final double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+        final double rate = done / seconds;
+        final String eta = rate > 0 ? formatDuration((long) ((total - done) / rate)) : "unknown";
+        System.out.printf("Provisioned %d/%d users (%.1f%%), %.0f users/s, ETA %s%n", done, total, 100.0 * done / total, rate, eta);
+    }
+
+    static String formatDuration(long seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
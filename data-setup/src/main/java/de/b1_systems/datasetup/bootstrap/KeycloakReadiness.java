@@ -0,0 +1,77 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Waits until keycloak answers, polling with exponential backoff and jitter until an overall deadline.
+ */
+public class KeycloakReadiness {
+
+    private static final Duration INITIAL_BACKOFF = Duration.ofMillis(250);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+        .connectTimeout(REQUEST_TIMEOUT)
+        .build();
+    private final URI readinessUri;
+    private final Duration timeout;
+
+    public KeycloakReadiness(URI readinessUri, Duration timeout) {
+        this.readinessUri = readinessUri;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Blocks until the readiness url returns status 200. Returns the time waited.
+     *
+     * @throws IllegalStateException if keycloak isn't ready before the deadline
+     */
+    public Duration await() throws InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + timeout.toNanos();
+        long backoffMillis = INITIAL_BACKOFF.toMillis();
+        int attempts = 0;
+        String lastResult = "no attempt";
+        while (true) {
+            attempts++;
+            lastResult = probe();
+            if (lastResult == null) {
+                final Duration waited = Duration.ofNanos(System.nanoTime() - start);
+                System.out.println("Keycloak is ready at " + readinessUri + " after " + waited.toMillis() + " ms and " + attempts + " attempts");
+                return waited;
+            }
+            final long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+            if (remainingMillis <= 0) {
+                throw new IllegalStateException("Keycloak not ready at " + readinessUri + " after " + timeout.getSeconds()
+                    + " s and " + attempts + " attempts, last result: " + lastResult);
+            }
+            // Sleep between half and all of the backoff, so concurrent starts don't poll in lockstep
+            final long sleepMillis = Math.min(remainingMillis, backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+            Thread.sleep(sleepMillis);
+            backoffMillis = Math.min(MAX_BACKOFF.toMillis(), backoffMillis * 2);
+        }
+    }
+
+    /**
+     * Returns null if keycloak is ready, otherwise why not.
+     */
+    private String probe() throws InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(readinessUri)
+            .timeout(REQUEST_TIMEOUT)
+            .GET()
+            .build();
+        try {
+            final HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200 ? null : "status " + response.statusCode();
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import de.b1_systems.EmailDomainMapperConfig;
+import de.b1_systems.ReloadingDomainTable;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.ProtocolMapperRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import picocli.CommandLine;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rewrites the stored emails of the users of a realm the way a custom email domain mapper maps them, for migrating the domains for
+ * real. Users are paged in the order of the admin API, by username, which rewriting emails doesn't change, so the checkpointed
+ * offset stays valid between runs. Users created after the run started are not migrated.
+ * <p>
+ * Group domains are not applied, they would need a request per user. Domain tables are read from the directory given with
+ * {@code --domainTableDirectory}, which has to hold the same files as the domain table directory of keycloak.
+ */
+@CommandLine.Command(description = "Rewrites the stored emails of all users of a realm like a custom email domain mapper maps them. "
+    + "Resumes an interrupted run from its checkpoint.",
+    name = "migrateEmails", mixinStandardHelpOptions = true)
+public class MigrateEmailsCommand implements Callable<Integer> {
+
+    private static final String CONFIG_FINGERPRINT = "configFingerprint";
+    private static final int DRY_RUN_EXAMPLES = 10;
+
+    @CommandLine.ParentCommand
+    private DataSetupMain parent;
+
+    @CommandLine.Option(names = { "--realm" }, description = "Realm whose users to migrate.", defaultValue = RealmSetup.REALM)
+    private String realm;
+
+    @CommandLine.Option(names = { "--clientId" }, description = "Client whose custom email domain mapper config to apply.")
+    private String clientId;
+
+    @CommandLine.Option(names = { "--mapperName" }, description = "Name of the mapper of the client.", defaultValue = "Custom Email Domain Mapper")
+    private String mapperName;
+
+    @CommandLine.Option(names = { "--config" }, description = "Mapper config to apply, e.g. --config emailDomain='*.corp-a.de -> group.example', "
+        + "overrides the config of the client's mapper.")
+    private Map<String, String> config = new HashMap<>();
+
+    @CommandLine.Option(names = { "--domainTableDirectory" }, description = "Directory holding the domain table of the config, "
+        + "like the SPI option of the mappers.")
+    private Path domainTableDirectory;
+
+    @CommandLine.Option(names = { "--batchSize" }, description = "Users per page, the unit of work and of the checkpoint.", defaultValue = "500")
+    private int batchSize;
+
+    @CommandLine.Option(names = { "--parallelism" }, description = "Pages migrated concurrently.", defaultValue = "4")
+    private int parallelism;
+
+    @CommandLine.Option(names = { "--rateLimit" }, description = "Updates per second across all pages, 0 for no limit.", defaultValue = "50")
+    private double rateLimit;
+
+    @CommandLine.Option(names = { "--checkpoint" }, description = "File remembering the progress.", defaultValue = "migrate-emails.checkpoint")
+    private Path checkpointFile;
+
+    @CommandLine.Option(names = { "--dryRun" }, description = "Only count and show what would be changed, leaving the checkpoint as it is.")
+    private boolean dryRun;
+
+    @CommandLine.Option(names = { "--progressInterval" }, description = "Seconds between progress reports.", defaultValue = "5")
+    private int progressInterval;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicInteger examples = new AtomicInteger();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    @Override
+    public Integer call() throws InterruptedException {
+        parent.awaitKeycloak();
+        final Keycloak keycloak = parent.createKeycloakClient(parallelism);
+        try {
+            final RealmResource realmResource = keycloak.realm(realm);
+            final Map<String, String> mapperConfig = mapperConfig(realmResource);
+            final EmailDomainMapperConfig compiled = EmailDomainMapperConfig.compile(mapperConfig);
+            final long count = realmResource.users().count();
+            // A dry run starts where a real run would, but doesn't advance the checkpoint
+            final ProvisioningCheckpoint checkpoint = ProvisioningCheckpoint.open(checkpointFile, realm, CONFIG_FINGERPRINT,
+                fingerprint(mapperConfig), "Users migrated by data-setup migrateEmails", count, batchSize);
+            final long remaining = count - checkpoint.getStart();
+            if (remaining <= 0) {
+                System.out.println("All " + count + " users have already been migrated according to " + checkpointFile);
+                return 0;
+            }
+            System.out.println((dryRun ? "Dry run of migrating" : "Migrating") + " users " + checkpoint.getStart() + " to " + (count - 1)
+                + " of realm " + realm + " with " + parallelism + " concurrent pages of " + batchSize + ", "
+                + (rateLimit > 0 ? rateLimit + " updates/s" : "no rate limit"));
+            return migrate(realmResource, compiled, checkpoint, remaining);
+        } finally {
+            keycloak.close();
+        }
+    }
+
+    private int migrate(RealmResource realmResource, EmailDomainMapperConfig compiled, ProvisioningCheckpoint checkpoint, long remaining)
+        throws InterruptedException {
+        final RateLimiter rateLimiter = new RateLimiter(rateLimit);
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        // Bounds the pages in memory, the workers would otherwise queue all of them
+        final Semaphore inFlight = new Semaphore(parallelism * 2);
+        final long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> reportProgress(remaining, startNanos), progressInterval, progressInterval, TimeUnit.SECONDS);
+        try {
+            for (int batch = 0; batch < checkpoint.getBatchCount() && failure.get() == null; batch++) {
+                inFlight.acquire();
+                final int current = batch;
+                workers.execute(() -> {
+                    try {
+                        final long from = checkpoint.batchFrom(current);
+                        final List<UserRepresentation> users = realmResource.users().list((int) from,
+                            (int) (checkpoint.batchTo(current) - from));
+                        for (UserRepresentation user : users) {
+                            migrate(realmResource, compiled, rateLimiter, user);
+                        }
+                        if (!dryRun) {
+                            checkpoint.complete(current);
+                        }
+                        processed.addAndGet(users.size());
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+        }
+        reportProgress(remaining, startNanos);
+        if (failure.get() != null) {
+            System.out.println("Migration failed, run again to resume from " + checkpointFile + ": " + failure.get());
+            return 1;
+        }
+        System.out.println((dryRun ? "Would change " : "Changed ") + changed + " of " + processed + " emails, " + conflicts
+            + " skipped because the mapped email belongs to another user");
+        return 0;
+    }
+
+    private void migrate(RealmResource realmResource, EmailDomainMapperConfig compiled, RateLimiter rateLimiter, UserRepresentation user)
+        throws InterruptedException {
+        final String email = user.getEmail();
+        if (email == null) {
+            return;
+        }
+        final String mappedEmail = compiled.mapEmail(user.getId(), user.getUsername(), email);
+        if (mappedEmail.equals(email)) {
+            return;
+        }
+        if (dryRun) {
+            changed.incrementAndGet();
+            if (examples.getAndIncrement() < DRY_RUN_EXAMPLES) {
+                System.out.println(user.getUsername() + ": " + email + " -> " + mappedEmail);
+            }
+            return;
+        }
+        rateLimiter.acquire();
+        // Send the whole representation back, so nothing but the email changes
+        user.setEmail(mappedEmail);
+        try {
+            realmResource.users().get(user.getId()).update(user);
+            changed.incrementAndGet();
+        } catch (ClientErrorException e) {
+            if (e.getResponse().getStatus() != Response.Status.CONFLICT.getStatusCode()) {
+                throw e;
+            }
+            conflicts.incrementAndGet();
+            System.out.println("Skipped " + user.getUsername() + ": " + mappedEmail + " belongs to another user");
+        }
+    }
+
+    /**
+     * The config of the client's mapper, if one is given, overridden by the config given on the command line. Sets the domain table
+     * directory if the config has a domain table.
+     */
+    private Map<String, String> mapperConfig(RealmResource realmResource) {
+        final Map<String, String> mapperConfig = new HashMap<>();
+        if (clientId != null) {
+            final List<ClientRepresentation> clients = realmResource.clients().findByClientId(clientId);
+            if (clients.isEmpty()) {
+                throw new IllegalArgumentException("No client " + clientId + " in realm " + realm);
+            }
+            final ProtocolMapperRepresentation mapper = realmResource.clients().get(clients.get(0).getId()).getProtocolMappers()
+                .getMappers().stream()
+                .filter(candidate -> mapperName.equals(candidate.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No mapper " + mapperName + " in client " + clientId));
+            mapperConfig.putAll(mapper.getConfig());
+        }
+        mapperConfig.putAll(config);
+        if (mapperConfig.isEmpty()) {
+            throw new IllegalArgumentException("Give the mapper to apply with --clientId or its config with --config");
+        }
+        if (mapperConfig.get(EmailDomainMapperConfig.DOMAIN_TABLE) != null) {
+            if (domainTableDirectory == null) {
+                throw new IllegalArgumentException("The config has a domain table, give the directory holding "
+                    + mapperConfig.get(EmailDomainMapperConfig.DOMAIN_TABLE) + " with --domainTableDirectory");
+            }
+            ReloadingDomainTable.setDirectory(domainTableDirectory.toString());
+        }
+        if (mapperConfig.get(EmailDomainMapperConfig.GROUP_DOMAINS) != null) {
+            System.out.println("Group domains are not applied by the migration");
+        }
+        return mapperConfig;
+    }
+
+    /**
+     * Identifies the config in the checkpoint, so a run with a changed config doesn't resume the previous one.
+     */
+    private static String fingerprint(Map<String, String> mapperConfig) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(new TreeMap<>(mapperConfig).toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void reportProgress(long total, long startNanos) {
+        final long done = processed.get();
+        final double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+        final double rate = done / seconds;
+        final String eta = rate > 0 ? GenerateUsersCommand.formatDuration((long) ((total - done) / rate)) : "unknown";
+        System.out.printf("Processed %d/%d users (%.1f%%), %d %s, %.0f users/s, ETA %s%n", done, total, 100.0 * done / total, changed.get(),
+            dryRun ? "to change" : "changed", rate, eta);
+    }
+}
@@ -8,6 +8,8 @@ import org.keycloak.representations.idm.ProtocolMapperRepresentation;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class OIDCClientMapperSetup {
 
@@ -18,10 +20,25 @@ public class OIDCClientMapperSetup {
         this.keycloak = keycloak;
     }
 
-    public void execute() {
+    /**
+     * Adds the mappers the client doesn't have yet. Returns true once it has all of them.
+     */
+    public boolean execute() {
         final ClientResource client = this.keycloak.realm(RealmSetup.REALM).clients().get(RealmSetup.CLIENT_OIDC);
-        client.getProtocolMappers().createMapper(createGroupMapper());
-        client.getProtocolMappers().createMapper(createCustomEmailDomainMapper());
+        final Set<String> existingMappers = client.getProtocolMappers().getMappers().stream()
+            .map(ProtocolMapperRepresentation::getName)
+            .collect(Collectors.toSet());
+        createMapperIfMissing(client, existingMappers, createGroupMapper());
+        createMapperIfMissing(client, existingMappers, createCustomEmailDomainMapper());
+        return true;
+    }
+
+    static void createMapperIfMissing(ClientResource client, Set<String> existingMappers, ProtocolMapperRepresentation mapper) {
+        if (existingMappers.contains(mapper.getName())) {
+            System.out.println("Mapper " + mapper.getName() + " already exists");
+            return;
+        }
+        client.getProtocolMappers().createMapper(mapper).close();
     }
 
     private ProtocolMapperRepresentation createGroupMapper() {
@@ -0,0 +1,228 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.ClientsResource;
+import org.keycloak.admin.client.resource.ProtocolMappersResource;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.ProtocolMapperRepresentation;
+import picocli.CommandLine;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@CommandLine.Command(description = "Creates the clients and custom email domain mappers declared in a YAML or JSON file, "
+    + "changing only what differs from the realm.",
+    name = "provisionClients", mixinStandardHelpOptions = true)
+public class ProvisionClientsCommand implements Callable<Integer> {
+
+    /**
+     * Up to this many declared clients are looked up one by one, more are compared against a listing of all clients.
+     */
+    private static final int TARGETED_LOOKUP_LIMIT = 50;
+    private static final int LISTING_PAGE_SIZE = 500;
+
+    @CommandLine.ParentCommand
+    private DataSetupMain parent;
+
+    @CommandLine.Option(names = { "--file" }, description = "YAML or JSON file declaring the clients and their mappers.", required = true)
+    private Path file;
+
+    @CommandLine.Option(names = { "--batchSize" }, description = "Clients created per partial import request.", defaultValue = "200")
+    private int batchSize;
+
+    @CommandLine.Option(names = { "--parallelism" }, description = "Requests sent concurrently.", defaultValue = "4")
+    private int parallelism;
+
+    @CommandLine.Option(names = { "--dryRun" }, description = "Only print what would be changed.")
+    private boolean dryRun;
+
+    private final AtomicInteger createdClients = new AtomicInteger();
+    private final AtomicInteger addedMappers = new AtomicInteger();
+    private final AtomicInteger updatedMappers = new AtomicInteger();
+
+    @Override
+    public Integer call() throws Exception {
+        final ClientProvisioningSpec spec = ClientProvisioningSpec.read(file);
+        parent.awaitKeycloak();
+        final Keycloak keycloak = parent.createKeycloakClient(parallelism);
+        try {
+            final RealmResource realm = keycloak.realm(spec.realm);
+            final Map<String, ClientRepresentation> existing = existingClients(realm.clients(), spec);
+
+            // Diff the declared state against the realm
+            final List<ClientRepresentation> clientsToCreate = new ArrayList<>();
+            final List<Callable<Void>> mapperChanges = new ArrayList<>();
+            int unchanged = 0;
+            for (ClientProvisioningSpec.ClientSpec clientSpec : spec.clients) {
+                final ClientRepresentation client = existing.get(clientSpec.clientId);
+                if (client == null) {
+                    clientsToCreate.add(clientSpec.toRepresentation());
+                    continue;
+                }
+                final Callable<Void> change = mapperChange(realm, clientSpec, client);
+                if (change == null) {
+                    unchanged++;
+                } else {
+                    mapperChanges.add(change);
+                }
+            }
+            System.out.println("Clients in " + file + ": " + spec.clients.size() + ", to create: " + clientsToCreate.size()
+                + ", with mapper changes: " + mapperChanges.size() + ", unchanged: " + unchanged);
+            if (dryRun) {
+                return 0;
+            }
+
+            // New clients come with their mappers in few partial imports, existing ones get their mappers added or updated
+            final List<Callable<Void>> requests = new ArrayList<>();
+            for (int from = 0; from < clientsToCreate.size(); from += batchSize) {
+                final List<ClientRepresentation> batch = clientsToCreate.subList(from, Math.min(clientsToCreate.size(), from + batchSize));
+                requests.add(() -> importClients(realm, batch));
+            }
+            requests.addAll(mapperChanges);
+            final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                for (Future<Void> future : executor.invokeAll(requests)) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            keycloak.close();
+        }
+        System.out.println("Created " + createdClients + " clients, added " + addedMappers + " and updated " + updatedMappers + " mappers");
+        return 0;
+    }
+
+    /**
+     * The existing clients among the declared ones by client id, looked up one by one for a few declared clients and
+     * otherwise listed page by page.
+     */
+    private static Map<String, ClientRepresentation> existingClients(ClientsResource clients, ClientProvisioningSpec spec) {
+        final Map<String, ClientRepresentation> existing = new HashMap<>();
+        if (spec.clients.size() <= TARGETED_LOOKUP_LIMIT) {
+            for (ClientProvisioningSpec.ClientSpec clientSpec : spec.clients) {
+                clients.findByClientId(clientSpec.clientId).forEach(client -> existing.put(client.getClientId(), client));
+            }
+            return existing;
+        }
+        for (int first = 0; ; first += LISTING_PAGE_SIZE) {
+            final List<ClientRepresentation> page = clients.findAll(null, false, false, first, LISTING_PAGE_SIZE);
+            page.forEach(client -> existing.put(client.getClientId(), client));
+            if (page.size() < LISTING_PAGE_SIZE) {
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * The mappers to add to and to update on an existing client so it matches its spec.
+     */
+    static final class MapperDiff {
+        final List<ProtocolMapperRepresentation> toAdd = new ArrayList<>();
+        final List<ProtocolMapperRepresentation> toUpdate = new ArrayList<>();
+
+        boolean isEmpty() {
+            return toAdd.isEmpty() && toUpdate.isEmpty();
+        }
+    }
+
+    /**
+     * Compares the mappers of an existing client with its spec. Mappers are matched by name. A mapper matches if it has
+     * the declared type and config, further config is kept: an update carries the id and the existing config overlaid
+     * with the declared one.
+     */
+    static MapperDiff diffMappers(ClientProvisioningSpec.ClientSpec clientSpec, ClientRepresentation client) {
+        final Map<String, ProtocolMapperRepresentation> existingMappers = new HashMap<>();
+        if (client.getProtocolMappers() != null) {
+            client.getProtocolMappers().forEach(mapper -> existingMappers.put(mapper.getName(), mapper));
+        }
+        final MapperDiff diff = new MapperDiff();
+        for (ClientProvisioningSpec.MapperSpec mapperSpec : clientSpec.mappers) {
+            final ProtocolMapperRepresentation declared = mapperSpec.toRepresentation(client.getProtocol());
+            final ProtocolMapperRepresentation actual = existingMappers.get(declared.getName());
+            if (actual == null) {
+                diff.toAdd.add(declared);
+            } else if (!matches(declared, actual)) {
+                final Map<String, String> config = actual.getConfig() == null ? new HashMap<>() : new HashMap<>(actual.getConfig());
+                config.putAll(declared.getConfig());
+                declared.setId(actual.getId());
+                declared.setConfig(config);
+                diff.toUpdate.add(declared);
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Returns the request bringing the mappers of an existing client in line with its spec, or null if they match.
+     */
+    private Callable<Void> mapperChange(RealmResource realm, ClientProvisioningSpec.ClientSpec clientSpec, ClientRepresentation client) {
+        final MapperDiff diff = diffMappers(clientSpec, client);
+        if (diff.isEmpty()) {
+            return null;
+        }
+        final List<ProtocolMapperRepresentation> toAdd = diff.toAdd;
+        final List<ProtocolMapperRepresentation> toUpdate = diff.toUpdate;
+        return () -> {
+            final ProtocolMappersResource mappers = realm.clients().get(client.getId()).getProtocolMappers();
+            if (!toAdd.isEmpty()) {
+                mappers.createMapper(toAdd);
+                addedMappers.addAndGet(toAdd.size());
+            }
+            for (ProtocolMapperRepresentation mapper : toUpdate) {
+                mappers.update(mapper.getId(), mapper);
+                updatedMappers.incrementAndGet();
+            }
+            return null;
+        };
+    }
+
+    static boolean matches(ProtocolMapperRepresentation declared, ProtocolMapperRepresentation actual) {
+        if (!Objects.equals(declared.getProtocolMapper(), actual.getProtocolMapper()) || actual.getConfig() == null) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : declared.getConfig().entrySet()) {
+            if (!Objects.equals(entry.getValue(), actual.getConfig().get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Void importClients(RealmResource realm, List<ClientRepresentation> clients) {
+        final PartialImportRepresentation partialImport = new PartialImportRepresentation();
+        partialImport.setClients(new ArrayList<>(clients));
+        // Clients created concurrently by someone else are left alone
+        partialImport.setIfResourceExists(PartialImportRepresentation.Policy.SKIP.name());
+        try (Response response = realm.partialImport(partialImport)) {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new IllegalStateException("Partial import of " + clients.size() + " clients failed with status " + response.getStatus());
+            }
+            // Skipped clients are not counted, the results are read as a map as PartialImportResults can't be deserialized
+            createdClients.addAndGet(added(response.readEntity(new GenericType<Map<String, Object>>() { })));
+        }
+        return null;
+    }
+
+    /**
+     * The number of resources a partial import added, from its results.
+     */
+    static int added(Map<String, Object> partialImportResults) {
+        final Object added = partialImportResults == null ? null : partialImportResults.get("added");
+        return added instanceof Number ? ((Number) added).intValue() : 0;
+    }
+}
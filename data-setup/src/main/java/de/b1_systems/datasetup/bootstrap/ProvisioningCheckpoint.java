@@ -0,0 +1,126 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Properties;
+
+/**
+ * Remembers how many users of a generation run have been provisioned, so an interrupted run resumes where it stopped.
+ * Batches complete out of order, so only the users up to the first unfinished batch count as provisioned. Batches after
+ * it which already completed are sent again on resume, which is harmless because existing users are skipped.
+ * <p>
+ * Other runs over a range of users, like the email migration, use it the same way with their own run property.
+ */
+public class ProvisioningCheckpoint {
+
+    private static final String REALM = "realm";
+    private static final String USERNAME_PREFIX = "usernamePrefix";
+    private static final String PROVISIONED = "provisioned";
+
+    private final Path file;
+    private final String realm;
+    private final String runProperty;
+    private final String run;
+    private final String comment;
+    private final long start;
+    private final long count;
+    private final int batchSize;
+
+    private final BitSet completedBatches = new BitSet();
+    private int firstOpenBatch;
+
+    private ProvisioningCheckpoint(Path file, String realm, String runProperty, String run, String comment, long start, long count,
+        int batchSize) {
+        this.file = file;
+        this.realm = realm;
+        this.runProperty = runProperty;
+        this.run = run;
+        this.comment = comment;
+        this.start = start;
+        this.count = count;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Loads the checkpoint of the given run or starts a new one if the file does not exist.
+     */
+    public static ProvisioningCheckpoint open(Path file, String realm, String usernamePrefix, long count, int batchSize) {
+        return open(file, realm, USERNAME_PREFIX, usernamePrefix, "Users provisioned by data-setup generateUsers", count, batchSize);
+    }
+
+    /**
+     * Loads the checkpoint of the run identified by the given property and value or starts a new one if the file does not exist.
+     */
+    public static ProvisioningCheckpoint open(Path file, String realm, String runProperty, String run, String comment, long count,
+        int batchSize) {
+        long start = 0;
+        if (Files.exists(file)) {
+            final Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read checkpoint " + file, e);
+            }
+            if (!realm.equals(properties.getProperty(REALM)) || !run.equals(properties.getProperty(runProperty))) {
+                throw new IllegalStateException("Checkpoint " + file + " belongs to realm " + properties.getProperty(REALM)
+                    + " and " + runProperty + " " + properties.getProperty(runProperty) + ", remove it to start over");
+            }
+            start = Math.min(count, Long.parseLong(properties.getProperty(PROVISIONED, "0")));
+        }
+        return new ProvisioningCheckpoint(file, realm, runProperty, run, comment, start, count, batchSize);
+    }
+
+    /**
+     * The index of the first user to provision in this run.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public int getBatchCount() {
+        return (int) ((count - start + batchSize - 1) / batchSize);
+    }
+
+    public long batchFrom(int batch) {
+        return start + (long) batch * batchSize;
+    }
+
+    public long batchTo(int batch) {
+        return Math.min(count, batchFrom(batch + 1));
+    }
+
+    /**
+     * Marks the given batch as completed and saves the checkpoint if the provisioned users advanced.
+     */
+    public synchronized void complete(int batch) {
+        completedBatches.set(batch);
+        final int previous = firstOpenBatch;
+        firstOpenBatch = completedBatches.nextClearBit(firstOpenBatch);
+        if (firstOpenBatch != previous) {
+            save(Math.min(count, batchFrom(firstOpenBatch)));
+        }
+    }
+
+    private void save(long provisioned) {
+        final Properties properties = new Properties();
+        properties.setProperty(REALM, realm);
+        properties.setProperty(runProperty, run);
+        properties.setProperty(PROVISIONED, Long.toString(provisioned));
+        // Write a temporary file and move it, so an interruption never leaves a truncated checkpoint
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                properties.store(writer, comment);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint " + file, e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces requests of all threads evenly, so bulk changes put a steady, bounded load on the database instead of bursts.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private long nextSlotNanos;
+
+    /**
+     * @param permitsPerSecond requests per second, 0 or less for no limit
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+        this.nextSlotNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits for the next free slot.
+     */
+    public void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        final long slot;
+        synchronized (this) {
+            // Slots left unused while idle don't add up to a burst
+            slot = Math.max(nextSlotNanos, System.nanoTime());
+            nextSlotNanos = slot + intervalNanos;
+        }
+        final long waitNanos = slot - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package de.b1_systems.datasetup.bootstrap;
 
 import org.keycloak.admin.client.Keycloak;
-//import org.keycloak.client.registration.ClientRegistration;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
 import org.keycloak.protocol.saml.SamlProtocol;
 import org.keycloak.representations.idm.ClientRepresentation;
@@ -29,18 +28,25 @@ public class RealmSetup {
         this.keycloak = keycloak;
     }
 
-    public void execute() {
+    /**
+     * Creates the realm with its clients, unless it exists. Returns true once it exists.
+     */
+    public boolean execute() {
+        if (SetupJournal.doesRealmExist(this.keycloak, REALM)) {
+            System.out.println("Realm " + REALM + " already exists");
+            return true;
+        }
         RealmRepresentation realmRepresentation = new RealmRepresentation();
         realmRepresentation.setDisplayName(REALM);
         realmRepresentation.setId(REALM);
         realmRepresentation.setClients(new ArrayList<>());
         realmRepresentation.getClients().add(createClientOIDC(CLIENT_OIDC));
-        // TODO: add SAML client creation
-        //realmRepresentation.getClients().add(createClientSAML(CLIENT_SAML));
+        realmRepresentation.getClients().add(createClientSAML(CLIENT_SAML));
         realmRepresentation.setLoginWithEmailAllowed(true);
         realmRepresentation.setEnabled(true);
         realmRepresentation.setRealm(REALM);
         this.keycloak.realms().create(realmRepresentation);
+        return true;
     }
 
     //private List<ClientRepresentation> createClientOIDC(String clientId) {
@@ -58,25 +64,19 @@ public class RealmSetup {
         return client_oidc;
     }
 
-    // TODO: add SAML client creation
-    // private ClientRepresentation createClientSAML(String clientId) {
-    //     String token = "testToken";
+    /**
+     * The SAML client the SAML mappers are set up on. Its client id is the entity id of the service provider.
+     */
+    static ClientRepresentation createClientSAML(String clientId) {
+        ClientRepresentation client_saml = new ClientRepresentation();
+        client_saml.setProtocol(SamlProtocol.LOGIN_PROTOCOL);
+        client_saml.setEnabled(true);
+        client_saml.setId(clientId);
+        client_saml.setClientId(clientId);
+        client_saml.setName(clientId);
+        client_saml.setPublicClient(Boolean.TRUE);
+        client_saml.setStandardFlowEnabled(true);
 
-    //     ClientRepresentation client_saml = new ClientRepresentation();
-    //     client_saml.setProtocol(SamlProtocol.LOGIN_PROTOCOL);
-    //     client_saml.setEnabled(true);
-    //     client_saml.setId(clientId);
-    //     client_saml.setName(clientId);
-    //     client_saml.setPublicClient(Boolean.TRUE);
-    //     client_saml.setStandardFlowEnabled(true);
-
-    //     ClientRegistration reg = ClientRegistration.create()
-    //     .url(URL, REALM)
-    //     .build(); 
-    //     reg.auth(Auth.token(token));
-    //     client_saml = reg.create(client_saml);
-    //     String registrationAccessToken = client_saml.getRegistrationAccessTplen();
-    //     
-    //     return client_saml;
-    // }
+        return client_saml;
+    }
 }
@@ -2,12 +2,16 @@ package de.b1_systems.datasetup.bootstrap;
 import de.b1_systems.SAMLCustomEmailDomainMapper;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.ClientResource;
+import org.keycloak.admin.client.resource.RealmResource;
 import org.keycloak.protocol.oidc.mappers.GroupMembershipMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
 import org.keycloak.representations.idm.ProtocolMapperRepresentation;
 
+import javax.ws.rs.NotFoundException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class SAMLClientMapperSetup {
 
@@ -18,10 +22,29 @@ public class SAMLClientMapperSetup {
         this.keycloak = keycloak;
     }
 
-    public void execute() {
-        final ClientResource client = this.keycloak.realm(RealmSetup.REALM).clients().get(RealmSetup.CLIENT_SAML);
-        client.getProtocolMappers().createMapper(createGroupMapper());
-        client.getProtocolMappers().createMapper(createCustomEmailDomainMapper());
+    /**
+     * Adds the mappers the client doesn't have yet. Creates the client in realms set up before RealmSetup created it.
+     */
+    public boolean execute() {
+        final RealmResource realm = this.keycloak.realm(RealmSetup.REALM);
+        final ClientResource client = realm.clients().get(RealmSetup.CLIENT_SAML);
+        Set<String> existingMappers;
+        try {
+            existingMappers = mapperNames(client);
+        } catch (NotFoundException e) {
+            System.out.println("Creating client " + RealmSetup.CLIENT_SAML);
+            realm.clients().create(RealmSetup.createClientSAML(RealmSetup.CLIENT_SAML)).close();
+            existingMappers = mapperNames(client);
+        }
+        OIDCClientMapperSetup.createMapperIfMissing(client, existingMappers, createGroupMapper());
+        OIDCClientMapperSetup.createMapperIfMissing(client, existingMappers, createCustomEmailDomainMapper());
+        return true;
+    }
+
+    private static Set<String> mapperNames(ClientResource client) {
+        return client.getProtocolMappers().getMappers().stream()
+            .map(ProtocolMapperRepresentation::getName)
+            .collect(Collectors.toSet());
     }
 
     private ProtocolMapperRepresentation createGroupMapper() {
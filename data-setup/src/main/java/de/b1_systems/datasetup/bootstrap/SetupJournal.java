@@ -0,0 +1,87 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.RealmRepresentation;
+
+import javax.ws.rs.NotFoundException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Records which setup steps have completed as attributes of the master realm, so a rerun skips them and an interrupted
+ * population resumes with the step that did not complete. The steps themselves skip what already exists, so a step
+ * which died halfway is simply executed again.
+ */
+public class SetupJournal {
+
+    /**
+     * Marker realm of the former all-or-nothing population. If it exists, all steps have completed.
+     */
+    public static final String POPULATE_TESTDATA_COMPLETED_REALM = "populateTestdataCompleted";
+
+    static final String JOURNAL_REALM = "master";
+    static final String STEP_ATTRIBUTE_PREFIX = "de.b1_systems.data-setup.step.";
+
+    private final Keycloak keycloak;
+    private final RealmResource journalRealm;
+    private final Map<String, String> attributes;
+    private final boolean legacyMarkerExists;
+
+    private SetupJournal(final Keycloak keycloak) {
+        this.keycloak = keycloak;
+        this.journalRealm = keycloak.realm(JOURNAL_REALM);
+        // One targeted lookup each instead of listing all realms
+        final Map<String, String> journalAttributes = journalRealm.toRepresentation().getAttributes();
+        this.attributes = journalAttributes == null ? new HashMap<>() : new HashMap<>(journalAttributes);
+        this.legacyMarkerExists = doesRealmExist(keycloak, POPULATE_TESTDATA_COMPLETED_REALM);
+    }
+
+    public static SetupJournal forTestSystem(final Keycloak keycloak) {
+        return new SetupJournal(keycloak);
+    }
+
+    static boolean doesRealmExist(final Keycloak keycloak, final String realm) {
+        try {
+            keycloak.realm(realm).toRepresentation();
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    public synchronized boolean isComplete(final String step) {
+        return legacyMarkerExists || attributes.containsKey(STEP_ATTRIBUTE_PREFIX + step);
+    }
+
+    /**
+     * Executes the given step unless the journal records it as complete. The step returns whether it completed, a step
+     * which could only do part of its work is executed again on the next run. Steps may run concurrently.
+     *
+     * @return whether the step has completed, now or on an earlier run
+     */
+    public boolean runStep(final String step, final BooleanSupplier execution) {
+        if (isComplete(step)) {
+            System.out.println("Skipping setup step " + step + ", it has already completed");
+            return true;
+        }
+        System.out.println("Executing setup step " + step);
+        if (!execution.getAsBoolean()) {
+            System.out.println("Setup step " + step + " did not complete, it will be resumed on the next run");
+            return false;
+        }
+        complete(step);
+        System.out.println("Setup step " + step + " completed");
+        return true;
+    }
+
+    private synchronized void complete(final String step) {
+        attributes.put(STEP_ATTRIBUTE_PREFIX + step, Instant.now().toString());
+        final RealmRepresentation update = new RealmRepresentation();
+        update.setAttributes(attributes);
+        journalRealm.update(update);
+    }
+
+}
@@ -0,0 +1,141 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs setup steps as soon as the steps they depend on are done, so independent steps run concurrently. A step which
+ * fails cancels the steps depending on it, directly or through other steps; a step which only did part of its work
+ * does not, as it is resumed on the next run anyway. Steps have to be added after their dependencies, which keeps the
+ * graph free of cycles.
+ */
+public class SetupScheduler {
+
+    /**
+     * What became of a step.
+     */
+    public enum Outcome {
+        COMPLETED, INCOMPLETE, FAILED, CANCELLED
+    }
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+
+    /**
+     * Adds a step which runs once all given steps are done. The step returns whether it completed.
+     *
+     * @throws IllegalArgumentException if the name is taken or a dependency has not been added before
+     */
+    public SetupScheduler step(final String name, final BooleanSupplier execution, final String... dependencies) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate setup step " + name);
+        }
+        final List<Step> dependencySteps = new ArrayList<>();
+        for (String dependency : dependencies) {
+            final Step step = steps.get(dependency);
+            if (step == null) {
+                throw new IllegalArgumentException("Setup step " + name + " depends on " + dependency
+                    + ", which has to be added before it");
+            }
+            dependencySteps.add(step);
+        }
+        steps.put(name, new Step(name, execution, dependencySteps));
+        return this;
+    }
+
+    /**
+     * Runs all steps and prints how long each of them took.
+     *
+     * @return whether no step failed or was cancelled
+     */
+    public boolean run() throws InterruptedException {
+        final ExecutorService executor = createExecutor();
+        final long start = System.nanoTime();
+        try {
+            for (Step step : steps.values()) {
+                final CompletableFuture<?>[] dependencyResults = step.dependencies.stream()
+                    .map(dependency -> dependency.result)
+                    .toArray(CompletableFuture[]::new);
+                step.result = CompletableFuture.allOf(dependencyResults).thenApplyAsync(ignored -> step.run(), executor);
+            }
+            CompletableFuture.allOf(steps.values().stream().map(step -> step.result).toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            // Step.run() catches everything a step throws
+            throw new IllegalStateException("Setup scheduler failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        printSummary(System.nanoTime() - start);
+        return steps.values().stream().allMatch(step -> step.outcome == Outcome.COMPLETED || step.outcome == Outcome.INCOMPLETE);
+    }
+
+    private void printSummary(final long elapsedNanos) {
+        long sequentialNanos = 0;
+        System.out.println("Setup steps:");
+        for (Step step : steps.values()) {
+            System.out.printf("  %-24s %-10s %8d ms  %s%n", step.name, step.outcome, step.elapsedNanos / 1_000_000,
+                step.dependencies.isEmpty() ? "" : "after " + step.dependencies.stream().map(dependency -> dependency.name)
+                    .collect(Collectors.joining(", ")));
+            sequentialNanos += step.elapsedNanos;
+        }
+        System.out.printf("  %-24s %-10s %8d ms  (%d ms one after another)%n", "total", "", elapsedNanos / 1_000_000,
+            sequentialNanos / 1_000_000);
+    }
+
+    private ExecutorService createExecutor() {
+        try {
+            // Looked up reflectively, the data setup is built for Java 11
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return Executors.newFixedThreadPool(Math.max(1, steps.size()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create virtual threads", e);
+        }
+    }
+
+    private static final class Step {
+
+        private final String name;
+        private final BooleanSupplier execution;
+        private final List<Step> dependencies;
+        private CompletableFuture<Outcome> result;
+        private volatile Outcome outcome;
+        private volatile long elapsedNanos;
+
+        private Step(final String name, final BooleanSupplier execution, final List<Step> dependencies) {
+            this.name = name;
+            this.execution = execution;
+            this.dependencies = dependencies;
+        }
+
+        private Outcome run() {
+            for (Step dependency : dependencies) {
+                if (dependency.outcome == Outcome.FAILED || dependency.outcome == Outcome.CANCELLED) {
+                    System.out.println("Cancelling setup step " + name + ", setup step " + dependency.name + " did not succeed");
+                    outcome = Outcome.CANCELLED;
+                    return outcome;
+                }
+            }
+            final long start = System.nanoTime();
+            try {
+                outcome = execution.getAsBoolean() ? Outcome.COMPLETED : Outcome.INCOMPLETE;
+            } catch (RuntimeException e) {
+                System.out.println("Setup step " + name + " failed: " + e);
+                e.printStackTrace();
+                outcome = Outcome.FAILED;
+            }
+            elapsedNanos = System.nanoTime() - start;
+            System.out.printf("Setup step %s took %d ms%n", name, elapsedNanos / 1_000_000);
+            return outcome;
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates synthetic users for load tests. The user with a given index is always the same, so an interrupted run
+ * can be resumed and a finished one repeated without creating different users.
+ */
+public class UserGenerator {
+
+    private static final String PASSWORD = "password";
+
+    private final String usernamePrefix;
+    private final String[] domains;
+    private final long[] cumulativeWeights;
+    private final boolean withPassword;
+
+    private UserGenerator(String usernamePrefix, String[] domains, long[] cumulativeWeights, boolean withPassword) {
+        this.usernamePrefix = usernamePrefix;
+        this.domains = domains;
+        this.cumulativeWeights = cumulativeWeights;
+        this.withPassword = withPassword;
+    }
+
+    /**
+     * @param distribution email domains with their weights, e.g. "corp-a.de=70,sub.corp-a.de=20,example.com=10"
+     */
+    public static UserGenerator create(String usernamePrefix, String distribution, boolean withPassword) {
+        final List<String> domains = new ArrayList<>();
+        final List<Long> weights = new ArrayList<>();
+        for (String entry : distribution.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            final int separator = entry.indexOf('=');
+            final String domain = (separator < 0 ? entry : entry.substring(0, separator)).trim();
+            final long weight = separator < 0 ? 1 : Long.parseLong(entry.substring(separator + 1).trim());
+            if (domain.isEmpty() || weight <= 0) {
+                throw new IllegalArgumentException("Invalid domain distribution entry '" + entry + "'");
+            }
+            domains.add(domain);
+            weights.add(weight);
+        }
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("Empty domain distribution");
+        }
+        final long[] cumulativeWeights = new long[weights.size()];
+        long total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+        return new UserGenerator(usernamePrefix, domains.toArray(new String[0]), cumulativeWeights, withPassword);
+    }
+
+    public String username(long index) {
+        return usernamePrefix + index;
+    }
+
+    /**
+     * Picks the domain of a user by its weight, spread by a hash of the index instead of in runs of consecutive users.
+     */
+    public String domain(long index) {
+        final long total = cumulativeWeights[cumulativeWeights.length - 1];
+        final long pick = Math.floorMod(mix(index), total);
+        int slot = Arrays.binarySearch(cumulativeWeights, pick + 1);
+        if (slot < 0) {
+            slot = -slot - 1;
+        }
+        return domains[slot];
+    }
+
+    public UserRepresentation user(long index) {
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(username(index));
+        user.setFirstName("Load");
+        user.setLastName("Test " + index);
+        user.setEmail(username(index) + "@" + domain(index));
+        user.setEmailVerified(true);
+        user.setEnabled(true);
+        if (withPassword) {
+            user.setCredentials(Arrays.asList(createPassword()));
+        }
+        return user;
+    }
+
+    public List<UserRepresentation> users(long from, long to) {
+        final List<UserRepresentation> users = new ArrayList<>((int) (to - from));
+        for (long index = from; index < to; index++) {
+            users.add(user(index));
+        }
+        return users;
+    }
+
+    private static CredentialRepresentation createPassword() {
+        CredentialRepresentation passwordCred = new CredentialRepresentation();
+        passwordCred.setTemporary(false);
+        passwordCred.setType(CredentialRepresentation.PASSWORD);
+        passwordCred.setValue(PASSWORD);
+        return passwordCred;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -18,9 +18,21 @@ public class UserSetup {
         this.users = keycloak.realm(RealmSetup.REALM).users();
     }
 
-    public void execute() {
-        createUser("mmustermann", "Max", "Mustermann", "mmustermann@example.com");
-        createUser("jdoe", "John", "Doe", "jdoe@example.com");
+    /**
+     * Creates the users which don't exist yet. Returns true once all exist.
+     */
+    public boolean execute() {
+        createUserIfMissing("mmustermann", "Max", "Mustermann", "mmustermann@example.com");
+        createUserIfMissing("jdoe", "John", "Doe", "jdoe@example.com");
+        return true;
+    }
+
+    private void createUserIfMissing(String name, String firstName, String lastName, String email) {
+        if (!users.search(name, true).isEmpty()) {
+            System.out.println("User " + name + " already exists");
+            return;
+        }
+        createUser(name, firstName, lastName, email);
     }
 
     public String createUser(String name, String firstName, String lastName, String email) {
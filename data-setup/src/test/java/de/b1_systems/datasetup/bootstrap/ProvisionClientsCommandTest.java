@@ -0,0 +1,107 @@
+package de.b1_systems.datasetup.bootstrap;
+
+import de.b1_systems.OIDCCustomEmailDomainMapper;
+import org.junit.jupiter.api.Test;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.ProtocolMapperRepresentation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProvisionClientsCommandTest {
+
+    @Test
+    public void shouldLeaveMatchingMappersAlone() {
+        final ClientProvisioningSpec.ClientSpec spec = clientSpec("group.example");
+        final ClientRepresentation client = existingClient(spec, "group.example");
+        // Config the spec doesn't declare is kept
+        client.getProtocolMappers().get(0).getConfig().put("cacheInUserSession", "true");
+
+        assertThat(ProvisionClientsCommand.diffMappers(spec, client).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldUpdateChangedMapperKeepingFurtherConfig() {
+        final ClientProvisioningSpec.ClientSpec spec = clientSpec("group.example");
+        final ClientRepresentation client = existingClient(spec, "old.example");
+        client.getProtocolMappers().get(0).getConfig().put("cacheInUserSession", "true");
+
+        final ProvisionClientsCommand.MapperDiff diff = ProvisionClientsCommand.diffMappers(spec, client);
+
+        assertThat(diff.toAdd).isEmpty();
+        assertThat(diff.toUpdate).hasSize(1);
+        final ProtocolMapperRepresentation update = diff.toUpdate.get(0);
+        assertThat(update.getId()).isEqualTo("mapper-id");
+        assertThat(update.getConfig())
+            .containsEntry(OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, "group.example")
+            .containsEntry("cacheInUserSession", "true");
+    }
+
+    @Test
+    public void shouldAddMissingMapperAndReplaceMapperOfOtherType() {
+        final ClientProvisioningSpec.ClientSpec spec = clientSpec("group.example");
+        final ClientProvisioningSpec.MapperSpec second = new ClientProvisioningSpec.MapperSpec();
+        second.name = "Second Mapper";
+        second.emailDomain = "group.example";
+        spec.mappers.add(second);
+        final ClientRepresentation client = existingClient(spec, "group.example");
+        client.getProtocolMappers().remove(1);
+        client.getProtocolMappers().get(0).setProtocolMapper("oidc-usermodel-attribute-mapper");
+
+        final ProvisionClientsCommand.MapperDiff diff = ProvisionClientsCommand.diffMappers(spec, client);
+
+        assertThat(diff.toAdd).extracting(ProtocolMapperRepresentation::getName).containsExactly("Second Mapper");
+        assertThat(diff.toUpdate).extracting(ProtocolMapperRepresentation::getProtocolMapper)
+            .containsExactly(OIDCCustomEmailDomainMapper.PROVIDER_ID);
+    }
+
+    @Test
+    public void shouldNotMatchMapperWithoutConfig() {
+        final ProtocolMapperRepresentation declared = clientSpec("group.example").mappers.get(0).toRepresentation(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        final ProtocolMapperRepresentation actual = clientSpec("group.example").mappers.get(0).toRepresentation(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        actual.setConfig(null);
+
+        assertThat(ProvisionClientsCommand.matches(declared, actual)).isFalse();
+    }
+
+    @Test
+    public void shouldCountOnlyAddedClientsOfPartialImport() {
+        assertThat(ProvisionClientsCommand.added(Map.of("added", 150, "skipped", 50, "overwritten", 0))).isEqualTo(150);
+        assertThat(ProvisionClientsCommand.added(Map.of())).isZero();
+        assertThat(ProvisionClientsCommand.added(null)).isZero();
+    }
+
+    private static ClientProvisioningSpec.ClientSpec clientSpec(final String emailDomain) {
+        final ClientProvisioningSpec.ClientSpec spec = new ClientProvisioningSpec.ClientSpec();
+        spec.clientId = "app-1";
+        final ClientProvisioningSpec.MapperSpec mapper = new ClientProvisioningSpec.MapperSpec();
+        mapper.emailDomain = emailDomain;
+        spec.mappers.add(mapper);
+        return spec;
+    }
+
+    /**
+     * The client as keycloak returns it, with the mappers of the given spec at the given email domain.
+     */
+    private static ClientRepresentation existingClient(final ClientProvisioningSpec.ClientSpec spec, final String emailDomain) {
+        final ClientRepresentation client = new ClientRepresentation();
+        client.setClientId(spec.clientId);
+        client.setProtocol(spec.protocol);
+        final List<ProtocolMapperRepresentation> mappers = new ArrayList<>();
+        for (ClientProvisioningSpec.MapperSpec mapperSpec : spec.mappers) {
+            final ProtocolMapperRepresentation mapper = mapperSpec.toRepresentation(spec.protocol);
+            final Map<String, String> config = new HashMap<>(mapper.getConfig());
+            config.put(OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, emailDomain);
+            mapper.setConfig(config);
+            mapper.setId(mappers.isEmpty() ? "mapper-id" : "mapper-id-" + mappers.size());
+            mappers.add(mapper);
+        }
+        client.setProtocolMappers(mappers);
+        return client;
+    }
+}
@@ -0,0 +1,125 @@
+// purpose: Writes the claim of the OIDC custom email domain mapper into tokens along a path parsed once.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.representations.IDToken;
+import org.keycloak.services.ServicesLogger;
+import org.keycloak.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Does what OIDCAttributeMapperHelper.mapClaim(IDToken, ProtocolMapperModel, Object) does, without
+ * reading the claim name, JSON type and multivalued flag from the config and splitting the claim name
+ * on every call: "a.b" becomes the nested claim {"a": {"b": value}}, "a\.b" the claim "a.b".
+ *
+ * Claims keycloak keeps in fields of the token (sub, aud, ...) or refuses to change (iss, exp, ...),
+ * and configs with a JSON type are still handed to the helper, so they behave exactly as before.
+ * Whether the helper would do something special is found out once, by letting it write a probe value
+ * into an empty token and checking that the value ended up at the path.
+ */
+public final class ClaimPathWriter {
+
+    private static final String PROBE = "custom-email-domain-mapper-probe";
+
+    private final String[] path;
+    private final boolean multivalued;
+
+    /*
+     * True if the helper has to write the claim.
+     */
+    private final boolean delegate;
+
+    private ClaimPathWriter(final String[] path, final boolean multivalued, final boolean delegate) {
+        this.path = path;
+        this.multivalued = multivalued;
+        this.delegate = delegate;
+    }
+
+    /*
+     * Compiles the claim name, JSON type and multivalued flag of the given mapper config.
+     */
+    public static ClaimPathWriter compile(final Map<String, String> config) {
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setName("Custom Email Domain Mapper");
+        model.setConfig(config);
+        final String claimName = config.get(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME);
+        final String[] path = claimName == null ? new String[0] : JsonUtils.splitClaimPath(claimName).toArray(new String[0]);
+        final boolean delegate = config.get(OIDCAttributeMapperHelper.JSON_TYPE) != null
+                || (path.length > 0 && !writesToPath(model, path));
+        return new ClaimPathWriter(path, OIDCAttributeMapperHelper.isMultivalued(model), delegate);
+    }
+
+    /*
+     * Maps the given value into the token like OIDCAttributeMapperHelper.mapClaim. The mapper model is
+     * only used for log messages and for configs the helper has to handle.
+     */
+    public void write(final IDToken token, final ProtocolMapperModel mappingModel, final Object value) {
+        if (delegate) {
+            OIDCAttributeMapperHelper.mapClaim(token, mappingModel, value);
+            return;
+        }
+        final Object mapped = mapValue(mappingModel, value);
+        if (mapped == null || path.length == 0) {
+            return;
+        }
+        Map<String, Object> claims = token.getOtherClaims();
+        for (int i = 0; i < path.length - 1; i++) {
+            // Fails like the helper if a claim on the way is no object
+            @SuppressWarnings("unchecked")
+            Map<String, Object> nested = (Map<String, Object>) claims.get(path[i]);
+            if (nested == null) {
+                nested = new HashMap<>();
+                claims.put(path[i], nested);
+            }
+            claims = nested;
+        }
+        claims.put(path[path.length - 1], mapped);
+    }
+
+    /*
+     * OIDCAttributeMapperHelper.mapAttributeValue without a JSON type.
+     */
+    private Object mapValue(final ProtocolMapperModel mappingModel, final Object value) {
+        if (!(value instanceof Collection)) {
+            return value;
+        }
+        final Collection<?> values = (Collection<?>) value;
+        if (values.isEmpty()) {
+            return null;
+        }
+        if (multivalued) {
+            final List<Object> mapped = new ArrayList<>(values.size());
+            for (Object element : values) {
+                mapped.add(mapValue(mappingModel, element));
+            }
+            return mapped;
+        }
+        if (values.size() > 1) {
+            ServicesLogger.LOGGER.multipleValuesForMapper(values.toString(), mappingModel.getName());
+        }
+        return values.iterator().next();
+    }
+
+    private static boolean writesToPath(final ProtocolMapperModel model, final String[] path) {
+        final IDToken probe = new IDToken();
+        OIDCAttributeMapperHelper.mapClaim(probe, model, PROBE);
+        Object claim = probe.getOtherClaims();
+        for (String component : path) {
+            if (!(claim instanceof Map)) {
+                return false;
+            }
+            claim = ((Map<?, ?>) claim).get(component);
+        }
+        return PROBE.equals(claim);
+    }
+
+}
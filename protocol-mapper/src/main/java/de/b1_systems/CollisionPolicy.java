@@ -0,0 +1,87 @@
+// purpose: What the OIDC and SAML custom email domain mappers do if users collide on a mapped address.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.RealmModel;
+
+/*
+ * Rewriting only the domain maps jdoe@corp-a.de and jdoe@corp-b.com to the same jdoe@example.com.
+ * Whether another user maps to the address of a user is looked up in the MappedEmailIndex of the
+ * realm and mapper config, the policies other than IGNORE decide what the colliding users get instead.
+ */
+public enum CollisionPolicy {
+
+    /*
+     * Map colliding users to the same address, as the mappers always did.
+     */
+    IGNORE("ignore"),
+
+    /*
+     * Keep the original address of colliding users.
+     */
+    ORIGINAL("original"),
+
+    /*
+     * Add the original domain as subaddress: jdoe+corp-a.de@example.com.
+     */
+    SUBADDRESS("subaddress");
+
+    private final String value;
+
+    CollisionPolicy(final String value) {
+        this.value = value;
+    }
+
+    /*
+     * The value of the policy in the mapper config.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /*
+     * Returns the address to use for the given user: the mapped address, unless another user of the
+     * realm maps to it as well with the given config.
+     */
+    public String resolve(final RealmModel realm, final EmailDomainMapperConfig config, final String userId, final String email,
+                          final String mappedEmail) {
+        if (this == IGNORE || realm == null || email == null) {
+            return mappedEmail;
+        }
+        return resolve(MappedEmailIndex.of(realm.getId(), config), userId, email, mappedEmail);
+    }
+
+    /*
+     * Same as resolve(RealmModel, EmailDomainMapperConfig, ...), looking collisions up in the given index.
+     */
+    String resolve(final MappedEmailIndex index, final String userId, final String email, final String mappedEmail) {
+        if (this == IGNORE || email == null || index == null || !index.hasOtherUser(mappedEmail, userId)) {
+            return mappedEmail;
+        }
+        if (this == ORIGINAL) {
+            return email;
+        }
+        final int emailSeparator = EmailDomainRewriter.indexOfDomainSeparator(email);
+        final int mappedSeparator = EmailDomainRewriter.indexOfDomainSeparator(mappedEmail);
+        if (emailSeparator < 0 || mappedSeparator < 0) {
+            return mappedEmail;
+        }
+        return mappedEmail.substring(0, mappedSeparator) + '+' + email.substring(emailSeparator + 1)
+                + mappedEmail.substring(mappedSeparator);
+    }
+
+    /*
+     * @throws IllegalArgumentException for unknown values
+     */
+    public static CollisionPolicy of(final String value) {
+        for (CollisionPolicy policy : values()) {
+            if (policy.value.equals(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown collision policy '" + value + "'");
+    }
+
+}
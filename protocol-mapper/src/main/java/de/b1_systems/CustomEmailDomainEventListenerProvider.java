@@ -0,0 +1,139 @@
+// purpose: A keycloak event listener accompanying the custom email domain mappers.
+// It keeps what the mappers cache or precompute about a user in line with changes of the user.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.stream.Stream;
+
+/*
+ * Reacts to user and admin events creating, changing or deleting a user, and to admin events
+ * changing groups or group memberships.
+ *
+ * Only changes made through keycloak's events are seen, on the node they happen on. Addresses cached
+ * in user sessions stay as they are when a domain table is reloaded or group memberships change
+ * without admin event, e.g. through an LDAP sync, until the session ends; the precomputed attribute
+ * until the user changes, and the reverse indexes until they are rebuilt.
+ */
+public class CustomEmailDomainEventListenerProvider implements EventListenerProvider {
+
+    static final String USERS_RESOURCE_PATH_PREFIX = "users/";
+    static final String GROUPS_RESOURCE_PATH_INFIX = "/groups/";
+
+    private final KeycloakSession session;
+
+    /*
+     * Null if the mapped email should not be precomputed.
+     */
+    private final PrecomputedEmail precomputedEmail;
+
+    public CustomEmailDomainEventListenerProvider(final KeycloakSession session, final PrecomputedEmail precomputedEmail) {
+        this.session = session;
+        this.precomputedEmail = precomputedEmail;
+    }
+
+    @Override
+    public void onEvent(final Event event) {
+        if (event.getError() != null || event.getUserId() == null) {
+            return;
+        }
+        if (event.getType() == EventType.REGISTER || event.getType() == EventType.UPDATE_EMAIL || event.getType() == EventType.UPDATE_PROFILE) {
+            onUserChanged(event.getRealmId(), event.getUserId());
+        } else if (event.getType() == EventType.DELETE_ACCOUNT) {
+            onUserDeleted(event.getRealmId(), event.getUserId());
+        }
+    }
+
+    @Override
+    public void onEvent(final AdminEvent event, final boolean includeRepresentation) {
+        if (event.getError() == null && event.getResourceType() == ResourceType.GROUP) {
+            // Created, moved and renamed groups change which groups the group domain rules apply to
+            GroupDomainCache.shared().invalidate(event.getRealmId());
+            return;
+        }
+        if (event.getError() == null && event.getResourceType() == ResourceType.GROUP_MEMBERSHIP) {
+            // Joining or leaving a group may change the group domain of the user
+            final String memberId = memberIdOf(event.getResourcePath());
+            if (memberId != null) {
+                onUserChanged(event.getRealmId(), memberId);
+            }
+            return;
+        }
+        if (event.getError() != null || event.getResourceType() != ResourceType.USER) {
+            return;
+        }
+        final String userId = userIdOf(event.getResourcePath());
+        if (userId != null && (event.getOperationType() == OperationType.CREATE || event.getOperationType() == OperationType.UPDATE)) {
+            onUserChanged(event.getRealmId(), userId);
+        } else if (userId != null && event.getOperationType() == OperationType.DELETE) {
+            onUserDeleted(event.getRealmId(), userId);
+        }
+    }
+
+    private void onUserChanged(final String realmId, final String userId) {
+        final RealmModel realm = session.realms().getRealm(realmId);
+        if (realm == null) {
+            return;
+        }
+        final UserModel user = session.users().getUserById(realm, userId);
+        if (user == null) {
+            return;
+        }
+        if (precomputedEmail != null) {
+            precomputedEmail.update(user);
+        }
+        // The indexes of the mapper configs, if the mappers built some
+        MappedEmailIndex.update(realm, user);
+        // The email may have changed, so forget the addresses mapped from the old one
+        Stream.concat(session.sessions().getUserSessionsStream(realm, user), session.sessions().getOfflineUserSessionsStream(realm, user))
+                .forEach(MappedEmailResolver::invalidate);
+    }
+
+    private void onUserDeleted(final String realmId, final String userId) {
+        MappedEmailIndex.removeUser(realmId, userId);
+    }
+
+    /*
+     * Returns the user id of an admin event resource path like "users/{id}", or null for other paths,
+     * e.g. those of sub resources like "users/{id}/groups/{groupId}".
+     */
+    static String userIdOf(final String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith(USERS_RESOURCE_PATH_PREFIX)) {
+            return null;
+        }
+        final String userId = resourcePath.substring(USERS_RESOURCE_PATH_PREFIX.length());
+        return userId.isEmpty() || userId.contains("/") ? null : userId;
+    }
+
+    /*
+     * Returns the user id of a group membership resource path like "users/{id}/groups/{groupId}", or null
+     * for other paths.
+     */
+    static String memberIdOf(final String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith(USERS_RESOURCE_PATH_PREFIX)) {
+            return null;
+        }
+        final int end = resourcePath.indexOf(GROUPS_RESOURCE_PATH_INFIX, USERS_RESOURCE_PATH_PREFIX.length());
+        if (end <= USERS_RESOURCE_PATH_PREFIX.length()) {
+            return null;
+        }
+        final String userId = resourcePath.substring(USERS_RESOURCE_PATH_PREFIX.length(), end);
+        return userId.contains("/") ? null : userId;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,103 @@
+// purpose: Factory of the keycloak event listener accompanying the custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.PostMigrationEvent;
+
+/*
+ * Registers the event listener under the id "custom-email-domain-mapper". It has to be added to the
+ * event listeners of a realm (Realm settings => Events) to take effect there.
+ *
+ * To precompute the mapped email address into a user attribute, configure the SPI, e.g.
+ *   --spi-events-listener-custom-email-domain-mapper-email-domain="*.corp-a.de -> group.example"
+ *   --spi-events-listener-custom-email-domain-mapper-attribute=mappedEmail
+ *   --spi-events-listener-custom-email-domain-mapper-backfill-on-startup=true
+ *   --spi-events-listener-custom-email-domain-mapper-backfill-batch-size=500
+ * and make the attribute read-only for users, so they can't pick their own address:
+ *   --spi-user-profile-declarative-user-profile-read-only-attributes=mappedEmail
+ *
+ * To keep the reverse indexes of mapped addresses the collision policy of the mappers needs, add
+ *   --spi-events-listener-custom-email-domain-mapper-reverse-index=true
+ * The mappers build an index per realm and config on first use, in batches of the backfill batch size.
+ */
+public class CustomEmailDomainEventListenerProviderFactory implements EventListenerProviderFactory {
+
+    /*
+     * The ID of the event listener. Is public, because we need this id in our data-setup project to
+     * enable the event listener in keycloak.
+     */
+    public static final String PROVIDER_ID = "custom-email-domain-mapper";
+
+    public static final String CONFIG_EMAIL_DOMAIN = "emailDomain";
+    public static final String CONFIG_ATTRIBUTE = "attribute";
+    public static final String CONFIG_BACKFILL_ON_STARTUP = "backfillOnStartup";
+    public static final String CONFIG_BACKFILL_BATCH_SIZE = "backfillBatchSize";
+    public static final String CONFIG_REVERSE_INDEX = "reverseIndex";
+
+    private static final Logger LOG = Logger.getLogger(CustomEmailDomainEventListenerProviderFactory.class);
+
+    private PrecomputedEmail precomputedEmail;
+    private boolean backfillOnStartup;
+    private int backfillBatchSize;
+    private boolean reverseIndex;
+
+    @Override
+    public EventListenerProvider create(final KeycloakSession session) {
+        return new CustomEmailDomainEventListenerProvider(session, precomputedEmail);
+    }
+
+    @Override
+    public void init(final Config.Scope config) {
+        final String emailDomain = config.get(CONFIG_EMAIL_DOMAIN);
+        if (emailDomain != null && !emailDomain.trim().isEmpty()) {
+            precomputedEmail = new PrecomputedEmail(DomainRules.compile(emailDomain),
+                    config.get(CONFIG_ATTRIBUTE, PrecomputedEmail.DEFAULT_ATTRIBUTE));
+        }
+        backfillOnStartup = config.getBoolean(CONFIG_BACKFILL_ON_STARTUP, false);
+        backfillBatchSize = config.getInt(CONFIG_BACKFILL_BATCH_SIZE, PrecomputedEmailBackfill.DEFAULT_BATCH_SIZE);
+        reverseIndex = config.getBoolean(CONFIG_REVERSE_INDEX, false);
+    }
+
+    @Override
+    public void postInit(final KeycloakSessionFactory factory) {
+        MappedEmailIndex.registerInvalidationListener(factory);
+        if (reverseIndex) {
+            MappedEmailIndex.enable(factory, backfillBatchSize);
+        }
+        if (precomputedEmail == null || !backfillOnStartup) {
+            return;
+        }
+        // Back-fill once keycloak is up, in the background so the startup isn't delayed by big realms
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                final Thread backfill = new Thread(() -> {
+                    try {
+                        new PrecomputedEmailBackfill(factory, precomputedEmail, backfillBatchSize).runForAllRealms();
+                    } catch (RuntimeException e) {
+                        LOG.error("Back-filling the precomputed email attribute failed", e);
+                    }
+                }, "custom-email-domain-mapper-backfill");
+                backfill.setDaemon(true);
+                backfill.start();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+}
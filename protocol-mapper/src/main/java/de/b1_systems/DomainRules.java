@@ -0,0 +1,151 @@
+// purpose: Compiled source-to-target domain rules of the custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/*
+ * Decides which target domain an email address is mapped to.
+ *
+ * The rules are configured in the emailDomain property, separated by newlines, ',' or ';':
+ *
+ *   corp-b.com -> group.example       exact match of the domain
+ *   *.corp-a.de -> group.example      any subdomain of corp-a.de, but not corp-a.de itself
+ *   group.example                     default for all other addresses, same as "* -> group.example"
+ *
+ * A single domain without any rule is the classic configuration: every address is mapped to it.
+ *
+ * Precedence: an exact match wins over wildcards, a longer wildcard suffix wins over a shorter one
+ * and the default applies only if nothing else matches. Without a default, addresses matching no
+ * rule keep their domain. Domains are compared ignoring ASCII case.
+ *
+ * Lookups walk the domain of the address once from the right and probe a hash index at every label
+ * boundary, so they cost O(length of the domain) regardless of the number of rules.
+ */
+public final class DomainRules {
+
+    public static final String RULE_ARROW = "->";
+    public static final String WILDCARD = "*";
+    public static final String WILDCARD_PREFIX = "*.";
+
+    private static final Pattern RULE_SEPARATOR = Pattern.compile("[,;\\r\\n]+");
+
+    private final DomainSuffixIndex exactDomains;
+    private final DomainSuffixIndex wildcardSuffixes;
+    private final String defaultTarget;
+    private final String fingerprint;
+
+    private DomainRules(final Map<String, String> exactDomains, final Map<String, String> wildcardSuffixes, final String defaultTarget) {
+        this.exactDomains = DomainSuffixIndex.of(exactDomains);
+        this.wildcardSuffixes = DomainSuffixIndex.of(wildcardSuffixes);
+        this.defaultTarget = defaultTarget;
+        this.fingerprint = EmailDomainMapperConfig.fingerprint(new TreeMap<>(exactDomains) + " " + new TreeMap<>(wildcardSuffixes)
+                + " " + defaultTarget);
+    }
+
+    /*
+     * Compiles the rules of the emailDomain property, see the class comment for the syntax.
+     *
+     * @throws IllegalArgumentException if a rule is malformed or a source domain is configured twice
+     */
+    public static DomainRules compile(final String rules) {
+        return compile(rules, UnaryOperator.identity());
+    }
+
+    /*
+     * Same as compile(String), converting every target domain once with the given function,
+     * e.g. EmailTransformation.toTargetDomain.
+     */
+    public static DomainRules compile(final String rules, final UnaryOperator<String> targetConversion) {
+        final Map<String, String> exactDomains = new HashMap<>();
+        final Map<String, String> wildcardSuffixes = new HashMap<>();
+        String defaultTarget = null;
+        for (String rule : RULE_SEPARATOR.split(rules)) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            final int arrow = rule.indexOf(RULE_ARROW);
+            final String source = arrow < 0 ? WILDCARD : rule.substring(0, arrow).trim().toLowerCase(Locale.ROOT);
+            String target = arrow < 0 ? rule : rule.substring(arrow + RULE_ARROW.length()).trim();
+            if (source.isEmpty() || target.isEmpty() || target.contains("@") || target.contains(RULE_ARROW)) {
+                throw new IllegalArgumentException("Invalid email domain rule '" + rule + "'");
+            }
+            target = targetConversion.apply(target);
+            final String previous;
+            if (WILDCARD.equals(source)) {
+                previous = defaultTarget;
+                defaultTarget = target;
+            } else if (source.startsWith(WILDCARD_PREFIX) && source.length() > WILDCARD_PREFIX.length()) {
+                previous = wildcardSuffixes.put(source.substring(WILDCARD_PREFIX.length()), target);
+            } else if (!source.contains(WILDCARD)) {
+                previous = exactDomains.put(source, target);
+            } else {
+                throw new IllegalArgumentException("Invalid email domain rule '" + rule + "'");
+            }
+            if (previous != null) {
+                throw new IllegalArgumentException("Email domain " + source + " is mapped more than once");
+            }
+        }
+        return new DomainRules(exactDomains, wildcardSuffixes, defaultTarget);
+    }
+
+    public String getDefaultTarget() {
+        return defaultTarget;
+    }
+
+    /*
+     * A short hash of the compiled rules: rules mapping all addresses alike have equal fingerprints,
+     * however they are ordered or spelled.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /*
+     * Returns the target domain of the given address, or null if the address keeps its domain.
+     */
+    public String targetFor(final String email) {
+        return targetFor(email, EmailDomainRewriter.indexOfDomainSeparator(email));
+    }
+
+    /*
+     * Same as targetFor(String), for callers that already located the '@'.
+     */
+    public String targetFor(final String email, final int separatorIndex) {
+        // Without a domain only the default can apply
+        if (separatorIndex < 0 || (exactDomains.isEmpty() && wildcardSuffixes.isEmpty())) {
+            return defaultTarget;
+        }
+        final int from = separatorIndex + 1;
+        final int to = email.length();
+        String wildcardTarget = null;
+        int hash = 0;
+        int power = 1;
+        // Walk the domain from the right. At every label boundary the hash covers a parent domain,
+        // each one longer than the one before, so the last wildcard hit is the most specific one.
+        for (int i = to - 1; i >= from; i--) {
+            hash = DomainSuffixIndex.nextHash(hash, power, email.charAt(i));
+            power *= 31;
+            if (i > from && email.charAt(i - 1) == '.') {
+                final String target = wildcardSuffixes.get(email, i, to, hash);
+                if (target != null) {
+                    wildcardTarget = target;
+                }
+            }
+        }
+        final String exactTarget = exactDomains.get(email, from, to, hash);
+        if (exactTarget != null) {
+            return exactTarget;
+        }
+        return wildcardTarget != null ? wildcardTarget : defaultTarget;
+    }
+
+}
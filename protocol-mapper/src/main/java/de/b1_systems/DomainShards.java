@@ -0,0 +1,102 @@
+// purpose: Pool of target domains the custom email domain mappers spread users across by consistent hashing.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/*
+ * Assigns each user one domain of a pool, e.g. the routing domains mx1.example, mx2.example, ... of a
+ * split mail infrastructure. The pool is configured in the shardDomains property, separated by commas
+ * or whitespace.
+ *
+ * The domain is chosen by jump consistent hashing (Lamping, Veach: "A Fast, Minimal Memory, Consistent
+ * Hash Algorithm") of the user id: every domain gets an equal share of the users, and a domain added
+ * at the end of the pool takes its share from the others while all other users keep their domain.
+ * Removing or reordering domains moves most users, so the pool should only grow at its end.
+ *
+ * Choosing a domain hashes the characters of the id and runs the jump loop, it doesn't allocate.
+ */
+public final class DomainShards {
+
+    private static final String SEPARATOR = "[,;\\s]+";
+
+    private final String[] domains;
+
+    private DomainShards(final String[] domains) {
+        this.domains = domains;
+    }
+
+    /*
+     * Compiles the pool of the shardDomains property, converting every domain once with the given function.
+     *
+     * @throws IllegalArgumentException if the pool is empty, a domain is malformed or listed twice
+     */
+    public static DomainShards compile(final String value, final UnaryOperator<String> targetConversion) {
+        final List<String> domains = new ArrayList<>();
+        for (String domain : value.trim().split(SEPARATOR)) {
+            if (domain.isEmpty()) {
+                continue;
+            }
+            if (domain.indexOf('@') >= 0) {
+                throw new IllegalArgumentException("Invalid shard domain '" + domain + "'");
+            }
+            final String targetDomain = targetConversion.apply(domain);
+            if (domains.contains(targetDomain)) {
+                throw new IllegalArgumentException("Shard domain " + targetDomain + " is listed more than once");
+            }
+            domains.add(targetDomain);
+        }
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("No shard domains");
+        }
+        return new DomainShards(domains.toArray(new String[0]));
+    }
+
+    /*
+     * Returns the domain of the user with the given id.
+     */
+    public String targetFor(final String userId) {
+        return domains[jumpHash(hash(userId), domains.length)];
+    }
+
+    public List<String> getDomains() {
+        return List.of(domains);
+    }
+
+    /*
+     * Returns the bucket in [0, buckets) of the given key. Growing the number of buckets by one moves
+     * only the keys that land in the new bucket.
+     */
+    static int jumpHash(long key, final int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    /*
+     * 64 bit FNV-1a over the characters of the given id, finished with the MurmurHash3 mixer, so ids
+     * differing in a few characters, like sequential ones, spread over the whole range.
+     */
+    static long hash(final String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
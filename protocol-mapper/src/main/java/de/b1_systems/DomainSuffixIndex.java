@@ -0,0 +1,96 @@
+// purpose: Open addressing hash index from domain names to target domains.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * Immutable hash index of (lower case) domain names. Lookups take a region of a larger string and
+ * its precomputed hash, so a domain and all of its parent domains can be looked up while scanning an
+ * email address once from the right, without creating substrings.
+ */
+final class DomainSuffixIndex {
+
+    private static final DomainSuffixIndex EMPTY = new DomainSuffixIndex(Map.of());
+
+    private final int mask;
+    private final int[] hashes;
+    private final String[] keys;
+    private final String[] values;
+
+    private DomainSuffixIndex(final Map<String, String> entries) {
+        // Keep the load factor at or below 0.5, so probe sequences stay short
+        int capacity = 2;
+        while (capacity < entries.size() * 2) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.hashes = new int[capacity];
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            final String key = entry.getKey().toLowerCase(Locale.ROOT);
+            final int hash = hash(key, 0, key.length());
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            keys[slot] = key;
+            values[slot] = entry.getValue();
+        }
+    }
+
+    static DomainSuffixIndex of(final Map<String, String> entries) {
+        return entries.isEmpty() ? EMPTY : new DomainSuffixIndex(entries);
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /*
+     * Returns the value stored for text[from, to), or null. The hash has to be computed by hash() or
+     * incrementally by nextHash() over the same region.
+     */
+    String get(final String text, final int from, final int to, final int hash) {
+        final int length = to - from;
+        int slot = hash & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (hashes[slot] == hash && key.length() == length && key.regionMatches(true, 0, text, from, length)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /*
+     * The String.hashCode() of the lower case text[from, to).
+     */
+    static int hash(final String text, final int from, final int to) {
+        int hash = 0;
+        int power = 1;
+        for (int i = to - 1; i >= from; i--) {
+            hash = nextHash(hash, power, text.charAt(i));
+            power *= 31;
+        }
+        return hash;
+    }
+
+    /*
+     * Extends the hash of a region one character to the left. The power is 31 to the length of the region.
+     */
+    static int nextHash(final int hash, final int power, final char c) {
+        return hash + lowerCase(c) * power;
+    }
+
+    private static char lowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+}
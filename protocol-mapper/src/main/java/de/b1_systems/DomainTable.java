@@ -0,0 +1,301 @@
+// purpose: Memory-mapped lookup table of target domains per user, loaded from an external CSV export.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/*
+ * Maps keys, e.g. email addresses or user ids, to target domains. Holds millions of entries without
+ * putting them on the heap: the entries live in a memory-mapped file, only the distinct domains are
+ * Strings. Instances are immutable, see ReloadingDomainTable for swapping in a new export.
+ *
+ * The CSV has one "key,domain" pair per line, ';' and tabs work as separators too. Values may be
+ * double quoted, empty lines and lines starting with '#' are ignored. Keys are compared ignoring case,
+ * if a key occurs twice its last line wins.
+ *
+ * Layout of the mapped file, all records sorted by the hash of their key:
+ *
+ *   n records of 16 bytes: hash (long), offset of the key (int), index of the domain (int)
+ *   the UTF-8 bytes of the lowercased keys in record order, so a key ends where the next one starts
+ *
+ * A lookup hashes the key without allocating, picks the range of records sharing the top bits of the
+ * hash from a small directory on the heap, binary searches the few hashes in it and compares the key
+ * bytes of the records with that hash.
+ */
+public final class DomainTable {
+
+    private static final int RECORD_SIZE = 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_DIRECTORY_BITS = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final String[] domains;
+
+    /*
+     * The first record of each range of records sharing the top bits of their hash, about four records
+     * per range. Saves the binary search the probes which would miss the cache most.
+     */
+    private final int[] directory;
+    private final int directoryShift;
+
+    private DomainTable(final MappedByteBuffer buffer, final int size, final String[] domains) {
+        this.buffer = buffer;
+        this.size = size;
+        this.domains = domains;
+        final int bits = Math.max(1, Math.min(MAX_DIRECTORY_BITS, 31 - Integer.numberOfLeadingZeros(Math.max(size, 1)) - 2));
+        this.directoryShift = 64 - bits;
+        this.directory = new int[(1 << bits) + 1];
+        int record = 0;
+        for (int range = 0; range < directory.length - 1; range++) {
+            while (record < size && (int) (buffer.getLong(record * RECORD_SIZE) >>> directoryShift) < range) {
+                record++;
+            }
+            directory[range] = record;
+        }
+        directory[directory.length - 1] = size;
+    }
+
+    /*
+     * Reads the given CSV export into a new table, converting every distinct domain once with the given
+     * function, e.g. EmailTransformation.toTargetDomain.
+     *
+     * @throws IOException if the export can't be read or the mapped file can't be written
+     * @throws IllegalArgumentException if a line has no domain or the table would exceed 2 GB
+     */
+    public static DomainTable load(final Path csv, final UnaryOperator<String> targetConversion) throws IOException {
+        final List<String> keys = new ArrayList<>();
+        long[] hashes = new long[1024];
+        int[] domainIndexes = new int[1024];
+        final Map<String, Integer> domainIndex = new HashMap<>();
+        final List<String> domains = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final int separator = indexOfSeparator(line);
+                final String key = separator < 0 ? "" : unquote(line.substring(0, separator));
+                final String domain = separator < 0 ? "" : unquote(line.substring(separator + 1));
+                if (key.isEmpty() || domain.isEmpty() || domain.indexOf('@') >= 0) {
+                    throw new IllegalArgumentException("Invalid line " + lineNumber + " in domain table " + csv);
+                }
+                if (keys.size() == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                    domainIndexes = Arrays.copyOf(domainIndexes, domainIndexes.length * 2);
+                }
+                hashes[keys.size()] = hash(key);
+                domainIndexes[keys.size()] = domainIndex.computeIfAbsent(domain, d -> {
+                    domains.add(targetConversion.apply(d));
+                    return domains.size() - 1;
+                });
+                keys.add(lowercase(key));
+            }
+        }
+        return write(keys, hashes, domainIndexes, domains.toArray(new String[0]));
+    }
+
+    /*
+     * Returns the target domain of the given key, or null if the table doesn't contain it.
+     */
+    public String get(final CharSequence key) {
+        if (key == null || size == 0) {
+            return null;
+        }
+        final long hash = hash(key);
+        final int range = (int) (hash >>> directoryShift);
+        int low = directory[range];
+        int high = directory[range + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = Long.compareUnsigned(buffer.getLong(middle * RECORD_SIZE), hash);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                // Colliding keys are neighbours, check all records with this hash
+                int first = middle;
+                while (first > 0 && buffer.getLong((first - 1) * RECORD_SIZE) == hash) {
+                    first--;
+                }
+                for (int i = first; i < size && buffer.getLong(i * RECORD_SIZE) == hash; i++) {
+                    if (keyEquals(i, key)) {
+                        return domains[buffer.getInt(i * RECORD_SIZE + 12)];
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * The size of the mapped file, which is outside of the heap.
+     */
+    public int getMappedBytes() {
+        return buffer.capacity();
+    }
+
+    private boolean keyEquals(final int record, final CharSequence key) {
+        int position = buffer.getInt(record * RECORD_SIZE + 8);
+        final int end = record + 1 < size ? buffer.getInt((record + 1) * RECORD_SIZE + 8) : buffer.capacity();
+        final int length = key.length();
+        for (int i = 0; i < length; i++) {
+            final char c = Character.toLowerCase(key.charAt(i));
+            final int codePoint;
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, key.charAt(++i));
+            } else {
+                // String.getBytes encodes lone surrogates as '?', so do we
+                codePoint = Character.isSurrogate(c) ? '?' : c;
+            }
+            // Compare the UTF-8 encoding of the code point byte by byte
+            if (codePoint < 0x80) {
+                if (position >= end || buffer.get(position++) != (byte) codePoint) {
+                    return false;
+                }
+                continue;
+            }
+            final int bytes = codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (position + bytes > end) {
+                return false;
+            }
+            final int leading = bytes == 2 ? 0xc0 : bytes == 3 ? 0xe0 : 0xf0;
+            if (buffer.get(position++) != (byte) (leading | (codePoint >> (6 * (bytes - 1))))) {
+                return false;
+            }
+            for (int shift = 6 * (bytes - 2); shift >= 0; shift -= 6) {
+                if (buffer.get(position++) != (byte) (0x80 | ((codePoint >> shift) & 0x3f))) {
+                    return false;
+                }
+            }
+        }
+        return position == end;
+    }
+
+    private static DomainTable write(final List<String> keys, final long[] hashes, final int[] domainIndexes, final String[] domains) throws IOException {
+        final Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // The sort is stable, so duplicate keys stay in file order and the last one can win
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(hashes[a], hashes[b]));
+        final boolean[] overridden = new boolean[order.length];
+        int size = 0;
+        long keyBytes = 0;
+        for (int i = 0; i < order.length; i++) {
+            for (int j = i + 1; j < order.length && hashes[order[j]] == hashes[order[i]]; j++) {
+                if (keys.get(order[j]).equals(keys.get(order[i]))) {
+                    overridden[i] = true;
+                    break;
+                }
+            }
+            if (!overridden[i]) {
+                size++;
+                keyBytes += keys.get(order[i]).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        final long capacity = (long) size * RECORD_SIZE + keyBytes;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Domain table exceeds 2 GB");
+        }
+        final Path file = Files.createTempFile("custom-email-domain-table", ".bin");
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping zero bytes fails on some platforms, an empty table maps one
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, 1));
+        } finally {
+            // The mapping outlives the file on unix, elsewhere the file goes with the JVM
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+        int record = 0;
+        int keyOffset = size * RECORD_SIZE;
+        for (int i = 0; i < order.length; i++) {
+            if (overridden[i]) {
+                continue;
+            }
+            final byte[] key = keys.get(order[i]).getBytes(StandardCharsets.UTF_8);
+            buffer.putLong(record * RECORD_SIZE, hashes[order[i]]);
+            buffer.putInt(record * RECORD_SIZE + 8, keyOffset);
+            buffer.putInt(record * RECORD_SIZE + 12, domainIndexes[order[i]]);
+            for (byte b : key) {
+                buffer.put(keyOffset++, b);
+            }
+            record++;
+        }
+        return new DomainTable(buffer, size, domains);
+    }
+
+    /*
+     * FNV-1a over the lowercased chars, so lookups hash without creating a lowercased copy, with the
+     * finalizer of MurmurHash3 spreading similar keys over the top bits the directory uses.
+     */
+    static long hash(final CharSequence key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ Character.toLowerCase(key.charAt(i))) * FNV_PRIME;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /*
+     * Lowercases char by char like hash() and keyEquals(), unlike String.toLowerCase, which may change the length.
+     */
+    private static String lowercase(final String key) {
+        final char[] chars = key.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static int indexOfSeparator(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == ',' || c == ';' || c == '\t') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(final String value) {
+        final String trimmed = value.trim();
+        if (trimmed.length() >= 2 && trimmed.charAt(0) == '"' && trimmed.charAt(trimmed.length() - 1) == '"') {
+            return trimmed.substring(1, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+}
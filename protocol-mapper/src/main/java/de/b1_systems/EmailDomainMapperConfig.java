@@ -0,0 +1,573 @@
+// purpose: Compiled, immutable configuration of the OIDC and SAML custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.protocol.ProtocolMapperUtils;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+
+/*
+ * The configuration of a custom email domain mapper instance, parsed and validated once.
+ * Instances are immutable and shared between all threads issuing tokens and assertions,
+ * see EmailDomainMapperConfigCache.
+ */
+public final class EmailDomainMapperConfig {
+
+    public static final String EMAIL_DOMAIN = "emailDomain";
+    public static final String DEFAULT_EMAIL_DOMAIN = "example.com";
+    public static final String SAML_ATTRIBUTE_NAME = "SAMLAttributeStatement";
+    public static final String DEFAULT_SAML_ATTRIBUTE_NAME = "http://schemas.xmlsoap.org/ws/2005/05/identity/claims/emailaddress";
+    public static final String SAML_ATTRIBUTE_NAMEFORMAT = "SAMLAttributeFormat";
+    public static final String CACHE_IN_USER_SESSION = "cacheInUserSession";
+    public static final String PRECOMPUTED_ATTRIBUTE = "precomputedAttribute";
+    public static final String MISSING_EMAIL_POLICY = "missingEmailPolicy";
+    public static final String MISSING_EMAIL_ATTRIBUTE = "missingEmailAttribute";
+    public static final String ALIAS_DOMAINS = "aliasDomains";
+    public static final String TRANSFORMATIONS = "transformations";
+    public static final String DOMAIN_TABLE = "domainTable";
+    public static final String DOMAIN_TABLE_KEY = "domainTableKey";
+    public static final String GROUP_DOMAINS = "groupDomains";
+    public static final String SHARD_DOMAINS = "shardDomains";
+    public static final String COLLISION_POLICY = "collisionPolicy";
+    public static final String PSEUDONYM_KEY = "pseudonymKey";
+
+    /*
+     * Prefix of the user session notes holding mapped email addresses, see MappedEmailResolver.
+     */
+    public static final String USER_SESSION_NOTE_PREFIX = "custom-email-domain-mapper.";
+
+    /*
+     * What the keys of the domain table are.
+     */
+    public enum DomainTableKey {
+        EMAIL("email"), ID("id"), USERNAME("username");
+
+        private final String value;
+
+        DomainTableKey(final String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        String of(final UserModel user, final String email) {
+            switch (this) {
+                case ID:
+                    return user.getId();
+                case USERNAME:
+                    return user.getUsername();
+                default:
+                    return email;
+            }
+        }
+
+        String of(final String id, final String username, final String email) {
+            switch (this) {
+                case ID:
+                    return id;
+                case USERNAME:
+                    return username;
+                default:
+                    return email;
+            }
+        }
+
+        /*
+         * @throws IllegalArgumentException for unknown values
+         */
+        public static DomainTableKey of(final String value) {
+            for (DomainTableKey key : values()) {
+                if (key.value.equals(value)) {
+                    return key;
+                }
+            }
+            throw new IllegalArgumentException("Unknown domain table key '" + value + "'");
+        }
+    }
+
+    /*
+     * The raw config this instance was compiled from. The reference is kept to recognize the
+     * unchanged config of a cached ProtocolMapperModel without comparing strings, the copy
+     * to recognize equal configs of freshly loaded models.
+     */
+    private final Map<String, String> sourceReference;
+    private final Map<String, String> source;
+
+    private final EmailTransformation transformation;
+    private final DomainRules domainRules;
+    private final ReloadingDomainTable domainTable;
+    private final DomainTableKey domainTableKey;
+    private final GroupDomainRules groupDomainRules;
+    private final DomainShards domainShards;
+    private final String samlAttributeName;
+    private final String samlAttributeNameFormat;
+    private final SamlAttributeTemplate samlAttributeTemplate;
+    private final boolean cacheInUserSession;
+    private final String fingerprint;
+    private final String userSessionNote;
+    private final String precomputedAttribute;
+    private final String precomputedRules;
+    private final MissingEmailPolicy missingEmailPolicy;
+    private final String missingEmailAttribute;
+    private final CollisionPolicy collisionPolicy;
+    private final Pseudonyms pseudonyms;
+    private final List<String> aliasDomains;
+    private final ProtocolMapperModel aliasMappingModel;
+    private final ClaimPathWriter claimWriter;
+    private final ClaimPathWriter aliasClaimWriter;
+
+    private EmailDomainMapperConfig(final Map<String, String> config,
+                                    final BiFunction<String, EmailTransformation, ReloadingDomainTable> domainTables) {
+        this.sourceReference = config;
+        this.source = Collections.unmodifiableMap(new HashMap<>(config));
+        this.transformation = EmailTransformation.compile(config.get(TRANSFORMATIONS));
+        this.domainRules = DomainRules.compile(valueOrDefault(config, EMAIL_DOMAIN, DEFAULT_EMAIL_DOMAIN), transformation::toTargetDomain);
+        final String domainTablePath = valueOrDefault(config, DOMAIN_TABLE, null);
+        this.domainTable = domainTablePath == null ? null : domainTables.apply(domainTablePath, transformation);
+        this.domainTableKey = DomainTableKey.of(valueOrDefault(config, DOMAIN_TABLE_KEY, DomainTableKey.EMAIL.getValue()));
+        final String groupDomains = valueOrDefault(config, GROUP_DOMAINS, null);
+        this.groupDomainRules = groupDomains == null ? null : GroupDomainRules.compile(groupDomains, transformation::toTargetDomain);
+        final String shardDomains = valueOrDefault(config, SHARD_DOMAINS, null);
+        this.domainShards = shardDomains == null ? null : DomainShards.compile(shardDomains, transformation::toTargetDomain);
+        this.samlAttributeName = valueOrDefault(config, SAML_ATTRIBUTE_NAME, DEFAULT_SAML_ATTRIBUTE_NAME);
+        this.samlAttributeNameFormat = config.get(SAML_ATTRIBUTE_NAMEFORMAT);
+        this.samlAttributeTemplate = new SamlAttributeTemplate(samlAttributeName, samlAttributeNameFormat,
+                SamlAttributeTemplate.FRIENDLY_NAME);
+        this.cacheInUserSession = Boolean.parseBoolean(config.get(CACHE_IN_USER_SESSION));
+        this.precomputedAttribute = valueOrDefault(config, PRECOMPUTED_ATTRIBUTE, null);
+        // Values precomputed by the plain rules of the event listener only match configs mapping by the same rules alone
+        this.precomputedRules = precomputedAttribute != null && transformation == EmailTransformation.NONE && domainTable == null
+                && groupDomainRules == null && domainShards == null ? domainRules.getFingerprint() : null;
+        this.missingEmailPolicy = MissingEmailPolicy.of(valueOrDefault(config, MISSING_EMAIL_POLICY, MissingEmailPolicy.FAIL.getValue()));
+        this.missingEmailAttribute = valueOrDefault(config, MISSING_EMAIL_ATTRIBUTE, null);
+        if (missingEmailPolicy == MissingEmailPolicy.ATTRIBUTE && missingEmailAttribute == null) {
+            throw new IllegalArgumentException("Missing email policy 'attribute' needs a missing email attribute");
+        }
+        this.collisionPolicy = CollisionPolicy.of(valueOrDefault(config, COLLISION_POLICY, CollisionPolicy.IGNORE.getValue()));
+        final String pseudonymKey = valueOrDefault(config, PSEUDONYM_KEY, null);
+        this.pseudonyms = pseudonymKey == null ? null : Pseudonyms.compile(pseudonymKey);
+        this.fingerprint = fingerprint(config, pseudonyms);
+        this.userSessionNote = USER_SESSION_NOTE_PREFIX + fingerprint;
+        this.aliasDomains = parseAliasDomains(config.get(ALIAS_DOMAINS), transformation);
+        this.aliasMappingModel = aliasDomains.isEmpty() ? null : multivaluedMappingModel(config);
+        this.claimWriter = ClaimPathWriter.compile(config);
+        this.aliasClaimWriter = aliasMappingModel == null ? null : ClaimPathWriter.compile(aliasMappingModel.getConfig());
+    }
+
+    /*
+     * Adds the config properties shared by the OIDC and SAML mapper to the given list.
+     */
+    public static void addConfigProperties(final List<ProviderConfigProperty> configProperties) {
+        configProperties.addAll(ProviderConfigurationBuilder.create()
+                .property()
+                .name(CACHE_IN_USER_SESSION)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Cache in User Session")
+                .helpText("Store the mapped email address in the user session, so token refreshes and logins to other clients "
+                        + "in the same session don't load the user again. Enable the 'custom-email-domain-mapper' event listener "
+                        + "in the realm, so email changes invalidate it.")
+                .defaultValue("false")
+                .add()
+                .property()
+                .name(PRECOMPUTED_ATTRIBUTE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Precomputed Attribute")
+                .helpText("Read the mapped email address from this user attribute, which the 'custom-email-domain-mapper' event "
+                        + "listener precomputes. Only used if the listener has the same email domain rules and this mapper has no "
+                        + "transformations, domain table, group or shard domains. Users without the attribute are mapped as usual. "
+                        + "Leave empty to always map.")
+                .add()
+                .property()
+                .name(ALIAS_DOMAINS)
+                .type(ProviderConfigProperty.TEXT_TYPE)
+                .label("Alias Domains")
+                .helpText("Also return the address under each of these domains, one per line. The claim or attribute then has "
+                        + "multiple values: the mapped address first, followed by one address per alias domain.")
+                .add()
+                .property()
+                .name(TRANSFORMATIONS)
+                .type(ProviderConfigProperty.TEXT_TYPE)
+                .label("Transformations")
+                .helpText("Transform the address while mapping it, one stage per line, applied in order: 'lowercase', "
+                        + "'strip-subaddress' (drops +tag), 'remove-dots gmail.com' (drops the dots of the local part, for the "
+                        + "listed source domains or all), 'replace <regex> -> <replacement>' on the local part and 'punycode' "
+                        + "for internationalized target domains.")
+                .add()
+                .property()
+                .name(DOMAIN_TABLE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Domain Table")
+                .helpText("Path of a CSV file on the keycloak nodes with one 'key,domain' line per user, e.g. an HR export, relative "
+                        + "to the domain table directory of the SPI config. Users found in it get its domain, all others the domain of "
+                        + "the rules. Changes of the file are picked up.")
+                .add()
+                .property()
+                .name(DOMAIN_TABLE_KEY)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Domain Table Key")
+                .helpText("What the keys of the domain table are: the 'email', the 'id' or the 'username' of the user.")
+                .options(DomainTableKey.EMAIL.getValue(), DomainTableKey.ID.getValue(), DomainTableKey.USERNAME.getValue())
+                .defaultValue(DomainTableKey.EMAIL.getValue())
+                .add()
+                .property()
+                .name(GROUP_DOMAINS)
+                .type(ProviderConfigProperty.TEXT_TYPE)
+                .label("Group Domains")
+                .helpText("Choose the domain by the groups of the user, one rule per line, e.g. '/subsidiaries/acme -> acme.example'. "
+                        + "A rule applies to the members of the group and of its subgroups, the rule of the nearest group wins. "
+                        + "Users in no such group get the domain of the table or the rules.")
+                .add()
+                .property()
+                .name(SHARD_DOMAINS)
+                .type(ProviderConfigProperty.TEXT_TYPE)
+                .label("Shard Domains")
+                .helpText("Spread users evenly across these domains, one per line, chosen by consistent hashing of the user id "
+                        + "instead of the rules. Users found in the domain table or group domains keep that domain. Only add "
+                        + "domains at the end: a new domain takes its share of users from the others, all other users keep theirs.")
+                .add()
+                .property()
+                .name(MISSING_EMAIL_POLICY)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Missing Email Policy")
+                .helpText("What to do for users without email, e.g. service accounts: 'fail' the token or assertion, 'omit' the "
+                        + "claim, fall back to 'username' at the default domain of the rules, or use the 'attribute' below.")
+                .options(MissingEmailPolicy.FAIL.getValue(), MissingEmailPolicy.OMIT.getValue(),
+                        MissingEmailPolicy.USERNAME.getValue(), MissingEmailPolicy.ATTRIBUTE.getValue())
+                .defaultValue(MissingEmailPolicy.FAIL.getValue())
+                .add()
+                .property()
+                .name(MISSING_EMAIL_ATTRIBUTE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Missing Email Attribute")
+                .helpText("The user attribute to map if the user has no email and the missing email policy is 'attribute'. "
+                        + "Its value is mapped by the rules like an email, the claim is omitted if it is missing too.")
+                .add()
+                .property()
+                .name(COLLISION_POLICY)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Collision Policy")
+                .helpText("What users get whose mapped address another user of the realm maps to as well: 'ignore' the collision, "
+                        + "keep the 'original' address, or add the original domain as 'subaddress' (jdoe+corp-a.de@example.com). "
+                        + "Needs the reverse index of the 'custom-email-domain-mapper' event listener.")
+                .options(CollisionPolicy.IGNORE.getValue(), CollisionPolicy.ORIGINAL.getValue(), CollisionPolicy.SUBADDRESS.getValue())
+                .defaultValue(CollisionPolicy.IGNORE.getValue())
+                .add()
+                .property()
+                .name(PSEUDONYM_KEY)
+                .type(ProviderConfigProperty.PASSWORD)
+                .label("Pseudonym Key")
+                .helpText("Replace the local part by a pseudonym of the user id, keyed by this secret of at least "
+                        + Pseudonyms.MIN_KEY_LENGTH + " characters, e.g. 5n3kq...@example.com. Use a separate key per client, "
+                        + "so the pseudonyms of different clients can't be linked. Changing the key changes all pseudonyms. "
+                        + "Leave empty to keep the local part.")
+                .secret(true)
+                .add()
+                .build());
+    }
+
+    /*
+     * @throws IllegalArgumentException if the config is invalid
+     */
+    public static EmailDomainMapperConfig compile(final Map<String, String> config) {
+        return compile(config, ReloadingDomainTable::shared);
+    }
+
+    /*
+     * Compiles the given config with the domain table the given function returns for the path and
+     * transformation of the config, instead of the shared one.
+     */
+    static EmailDomainMapperConfig compile(final Map<String, String> config,
+                                           final BiFunction<String, EmailTransformation, ReloadingDomainTable> domainTables) {
+        return new EmailDomainMapperConfig(config == null ? Collections.emptyMap() : config, domainTables);
+    }
+
+    /*
+     * Returns true if this instance reflects the given raw config.
+     */
+    boolean isCompiledFrom(final Map<String, String> config) {
+        if (config == sourceReference) {
+            return true;
+        }
+        return config == null ? source.isEmpty() : source.equals(config);
+    }
+
+    public DomainRules getDomainRules() {
+        return domainRules;
+    }
+
+    public EmailTransformation getTransformation() {
+        return transformation;
+    }
+
+    /*
+     * Returns the given email address transformed and with the domain chosen by the rules. Addresses
+     * matching no rule keep their domain.
+     */
+    public String mapEmail(final String email) {
+        final int separatorIndex = EmailDomainRewriter.indexOfDomainSeparator(email);
+        return transformation.apply(email, separatorIndex, domainRules.targetFor(email, separatorIndex));
+    }
+
+    /*
+     * Same as mapEmail(String), preferring the domain the domain table has for the given user, then the
+     * domain of the groups of the user, then the shard domain of the user.
+     */
+    public String mapEmail(final RealmModel realm, final UserModel user, final String email) {
+        if (domainTable == null && (groupDomainRules == null || realm == null) && domainShards == null) {
+            return mapEmail(email);
+        }
+        final int separatorIndex = EmailDomainRewriter.indexOfDomainSeparator(email);
+        String domain = domainTable == null ? null : domainTable.get(domainTableKey.of(user, email));
+        if (domain == null && groupDomainRules != null && realm != null) {
+            domain = groupDomainRules.targetFor(realm, user);
+        }
+        if (domain == null && domainShards != null) {
+            domain = domainShards.targetFor(user.getId());
+        }
+        if (domain == null) {
+            domain = domainRules.targetFor(email, separatorIndex);
+        }
+        return transformation.apply(email, separatorIndex, domain);
+    }
+
+    /*
+     * Same as mapEmail(RealmModel, UserModel, String) for callers without a UserModel, e.g. a migration
+     * through the admin REST API: the domain table is looked up by the given id, username or email, group
+     * domains are not applied.
+     */
+    public String mapEmail(final String userId, final String username, final String email) {
+        if (domainTable == null && domainShards == null) {
+            return mapEmail(email);
+        }
+        final int separatorIndex = EmailDomainRewriter.indexOfDomainSeparator(email);
+        String domain = domainTable == null ? null : domainTable.get(domainTableKey.of(userId, username, email));
+        if (domain == null && domainShards != null) {
+            domain = domainShards.targetFor(userId);
+        }
+        if (domain == null) {
+            domain = domainRules.targetFor(email, separatorIndex);
+        }
+        return transformation.apply(email, separatorIndex, domain);
+    }
+
+    /*
+     * The group domain rules, or null if the config has none.
+     */
+    public GroupDomainRules getGroupDomainRules() {
+        return groupDomainRules;
+    }
+
+    /*
+     * The pool of shard domains, or null if the config has none.
+     */
+    public DomainShards getDomainShards() {
+        return domainShards;
+    }
+
+    /*
+     * The domain table, or null if the config has none.
+     */
+    public ReloadingDomainTable getDomainTable() {
+        return domainTable;
+    }
+
+    public String getSamlAttributeName() {
+        return samlAttributeName;
+    }
+
+    public String getSamlAttributeNameFormat() {
+        return samlAttributeNameFormat;
+    }
+
+    public SamlAttributeTemplate getSamlAttributeTemplate() {
+        return samlAttributeTemplate;
+    }
+
+    public boolean isCacheInUserSession() {
+        return cacheInUserSession;
+    }
+
+    /*
+     * A short hash of the raw config, equal configs have equal fingerprints. The pseudonym key enters
+     * only by its version.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /*
+     * The name of the user session note caching the mapped email address. It contains a fingerprint
+     * of the config, so a changed config doesn't pick up addresses mapped by its predecessor.
+     */
+    public String getUserSessionNote() {
+        return userSessionNote;
+    }
+
+    /*
+     * The user attribute holding the precomputed mapped email address, or null.
+     */
+    public String getPrecomputedAttribute() {
+        return precomputedAttribute;
+    }
+
+    /*
+     * Returns the mapped address the event listener precomputed for the given user, or null if there is
+     * none, if the listener used other rules than this config or if this config maps with more than rules.
+     */
+    public String readPrecomputed(final UserModel user) {
+        return precomputedRules == null ? null : PrecomputedEmail.read(user, precomputedAttribute, precomputedRules);
+    }
+
+    public MissingEmailPolicy getMissingEmailPolicy() {
+        return missingEmailPolicy;
+    }
+
+    /*
+     * The user attribute used by MissingEmailPolicy.ATTRIBUTE, or null.
+     */
+    public String getMissingEmailAttribute() {
+        return missingEmailAttribute;
+    }
+
+    public CollisionPolicy getCollisionPolicy() {
+        return collisionPolicy;
+    }
+
+    /*
+     * The pseudonyms replacing the local part, or null if the config keeps it.
+     */
+    public Pseudonyms getPseudonyms() {
+        return pseudonyms;
+    }
+
+    /*
+     * Returns the given mapped address with the pseudonym of the given user as local part, or the address
+     * itself if the config has no pseudonym key or the address is null.
+     */
+    public String pseudonymize(final String userId, final String mappedEmail) {
+        if (pseudonyms == null || mappedEmail == null) {
+            return mappedEmail;
+        }
+        return pseudonyms.apply(userId, mappedEmail);
+    }
+
+    /*
+     * Returns the address the given user gets for the given mapped address: its pseudonym if the config has
+     * a pseudonym key, otherwise the address the collision policy chooses if another user of the realm maps
+     * to it as well.
+     */
+    public String disambiguate(final RealmModel realm, final String userId, final String email, final String mappedEmail) {
+        if (pseudonyms != null) {
+            return pseudonymize(userId, mappedEmail);
+        }
+        return collisionPolicy.resolve(realm, this, userId, email, mappedEmail);
+    }
+
+    /*
+     * The domains to return the mapped address under as well, empty for a single valued claim or attribute.
+     */
+    public List<String> getAliasDomains() {
+        return aliasDomains;
+    }
+
+    public boolean hasAliasDomains() {
+        return !aliasDomains.isEmpty();
+    }
+
+    /*
+     * A copy of the mapper model marked multivalued, so keycloak's claim mapping keeps all values of the alias
+     * list instead of the first one. Null without alias domains.
+     */
+    public ProtocolMapperModel getAliasMappingModel() {
+        return aliasMappingModel;
+    }
+
+    /*
+     * Writes the OIDC claim, see ClaimPathWriter.
+     */
+    public ClaimPathWriter getClaimWriter() {
+        return claimWriter;
+    }
+
+    /*
+     * Writes the multi-valued OIDC claim of the alias addresses, to be used with getAliasMappingModel().
+     * Null without alias domains.
+     */
+    public ClaimPathWriter getAliasClaimWriter() {
+        return aliasClaimWriter;
+    }
+
+    private static List<String> parseAliasDomains(final String value, final EmailTransformation transformation) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> domains = new ArrayList<>();
+        for (String domain : value.trim().split("[,;\\s]+")) {
+            if (domain.indexOf('@') >= 0) {
+                throw new IllegalArgumentException("Invalid alias domain '" + domain + "'");
+            }
+            final String targetDomain = transformation.toTargetDomain(domain);
+            if (!domains.contains(targetDomain)) {
+                domains.add(targetDomain);
+            }
+        }
+        return Collections.unmodifiableList(domains);
+    }
+
+    private static ProtocolMapperModel multivaluedMappingModel(final Map<String, String> config) {
+        final Map<String, String> multivaluedConfig = new HashMap<>(config);
+        multivaluedConfig.put(ProtocolMapperUtils.MULTIVALUED, "true");
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setName("Custom Email Domain Mapper");
+        model.setConfig(multivaluedConfig);
+        return model;
+    }
+
+    private static String fingerprint(final Map<String, String> config, final Pseudonyms pseudonyms) {
+        final Map<String, String> sorted = new TreeMap<>(config);
+        sorted.remove(PSEUDONYM_KEY);
+        if (pseudonyms != null) {
+            // The fingerprint ends up in user session notes, a plain hash of the key would make guessing it cheap
+            sorted.put(PSEUDONYM_KEY, Long.toHexString(pseudonyms.getKeyVersion()));
+        }
+        return fingerprint(sorted.toString());
+    }
+
+    static String fingerprint(final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String valueOrDefault(final Map<String, String> config, final String key, final String defaultValue) {
+        final String value = config.get(key);
+        // Define the configured value or if empty a sane default
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+}
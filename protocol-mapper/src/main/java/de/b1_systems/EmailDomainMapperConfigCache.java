@@ -0,0 +1,111 @@
+// purpose: Bounded cache of compiled custom email domain mapper configurations.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEvent;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Holds one compiled EmailDomainMapperConfig per ProtocolMapperModel id.
+ *
+ * The version of an entry is the config map it was compiled from: Keycloak hands out the same
+ * ProtocolMapperModel instance from its realm cache until the mapper is changed, so a hit is a
+ * single map lookup plus a reference comparison. A changed mapper comes with a new config map and
+ * is recompiled. Admin updates on this node additionally invalidate the entry right away.
+ */
+public final class EmailDomainMapperConfigCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final EmailDomainMapperConfigCache SHARED = new EmailDomainMapperConfigCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+
+    private final Map<String, EmailDomainMapperConfig> entries = new ConcurrentHashMap<>();
+
+    EmailDomainMapperConfigCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /*
+     * The cache shared by the OIDC and SAML mapper. Protocol mapper ids are unique within a keycloak
+     * instance, so both mappers can use the same cache.
+     */
+    public static EmailDomainMapperConfigCache shared() {
+        return SHARED;
+    }
+
+    public EmailDomainMapperConfig get(final ProtocolMapperModel mappingModel) {
+        final String id = mappingModel.getId();
+        final Map<String, String> config = mappingModel.getConfig();
+        // Models which are not stored yet have no id, there is nothing to cache them by
+        if (id == null) {
+            return EmailDomainMapperConfig.compile(config);
+        }
+        EmailDomainMapperConfig compiled = entries.get(id);
+        if (compiled != null && compiled.isCompiledFrom(config)) {
+            return compiled;
+        }
+        compiled = EmailDomainMapperConfig.compile(config);
+        put(id, compiled);
+        return compiled;
+    }
+
+    public void invalidate(final String mapperId) {
+        if (mapperId != null) {
+            entries.remove(mapperId);
+        }
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /*
+     * Drops the entries of mappers which are removed together with their client, client scope or realm.
+     */
+    public void registerInvalidationListener(final KeycloakSessionFactory factory) {
+        factory.register(this::onEvent);
+    }
+
+    private void onEvent(final ProviderEvent event) {
+        if (event instanceof ClientModel.ClientRemovedEvent) {
+            ((ClientModel.ClientRemovedEvent) event).getClient().getProtocolMappersStream()
+                    .map(ProtocolMapperModel::getId)
+                    .forEach(this::invalidate);
+        } else if (event instanceof ClientScopeModel.ClientScopeRemovedEvent) {
+            ((ClientScopeModel.ClientScopeRemovedEvent) event).getClientScope().getProtocolMappersStream()
+                    .map(ProtocolMapperModel::getId)
+                    .forEach(this::invalidate);
+        } else if (event instanceof RealmModel.RealmRemovedEvent) {
+            invalidateAll();
+        }
+    }
+
+    private void put(final String id, final EmailDomainMapperConfig compiled) {
+        // Evict an arbitrary entry when full. Evicted mappers are simply compiled again on their next use.
+        if (entries.size() >= maxEntries && !entries.containsKey(id)) {
+            final Iterator<String> ids = entries.keySet().iterator();
+            if (ids.hasNext()) {
+                ids.next();
+                ids.remove();
+            }
+        }
+        entries.put(id, compiled);
+    }
+
+}
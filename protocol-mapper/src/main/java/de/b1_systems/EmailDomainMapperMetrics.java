@@ -0,0 +1,187 @@
+// purpose: Micrometer metrics of the OIDC and SAML custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Records how often and how long a custom email domain mapper runs, tagged by realm, client,
+ * protocol and outcome. The count of the timer is the number of invocations. Keycloak publishes the
+ * global registry on its /metrics endpoint if metrics are enabled (--metrics-enabled=true).
+ *
+ * A timer is registered when its realm, client and outcome first occur and then looked up through two
+ * map lookups and an array read, so recording an invocation doesn't allocate. Timers of removed clients
+ * and realms are removed from the registry, latency histograms are opt-in.
+ */
+public final class EmailDomainMapperMetrics {
+
+    public static final String METRIC_NAME = "keycloak.custom.email.domain.mapper";
+
+    /*
+     * SPI option of both mappers enabling latency histograms, see setPercentileHistogram.
+     */
+    public static final String CONFIG_METRICS_HISTOGRAM = "metricsHistogram";
+
+    public static final String PROTOCOL_OIDC = "oidc";
+    public static final String PROTOCOL_SAML = "saml";
+
+    static final String UNKNOWN = "unknown";
+
+    /*
+     * How an invocation of the mapper ended.
+     */
+    public enum Outcome {
+        MAPPED("mapped"),
+        MISSING_EMAIL("missing_email"),
+        OMITTED("missing_email_omitted"),
+        USERNAME_FALLBACK("missing_email_username"),
+        ATTRIBUTE_FALLBACK("missing_email_attribute"),
+        NO_FALLBACK("missing_email_no_fallback"),
+        ERROR("error");
+
+        private final String tag;
+
+        Outcome(final String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private static final int OUTCOME_COUNT = Outcome.values().length;
+
+    private final MeterRegistry registry;
+    private final String protocol;
+    private volatile boolean percentileHistogram;
+
+    /*
+     * realm name -> client id -> the timer of each outcome, registered when it first occurs
+     */
+    private final Map<String, Map<String, AtomicReferenceArray<Timer>>> timers = new ConcurrentHashMap<>();
+
+    public EmailDomainMapperMetrics(final MeterRegistry registry, final String protocol) {
+        this.registry = registry;
+        this.protocol = protocol;
+    }
+
+    /*
+     * The metrics of the given protocol, published through the global registry keycloak exposes.
+     */
+    public static EmailDomainMapperMetrics forProtocol(final String protocol) {
+        return new EmailDomainMapperMetrics(Metrics.globalRegistry, protocol);
+    }
+
+    /*
+     * Whether timers registered from now on publish a latency histogram. A histogram adds about 70 series
+     * per realm, client and outcome, so it is off unless enabled through the SPI option
+     * metrics-histogram of the mapper.
+     */
+    public void setPercentileHistogram(final boolean percentileHistogram) {
+        this.percentileHistogram = percentileHistogram;
+    }
+
+    public void record(final RealmModel realm, final ClientModel client, final Outcome outcome, final long durationNanos) {
+        final String realmName = realm == null ? UNKNOWN : realm.getName();
+        final String clientId = client == null ? UNKNOWN : client.getClientId();
+        timerOf(realmName == null ? UNKNOWN : realmName, clientId == null ? UNKNOWN : clientId, outcome)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timerOf(final String realmName, final String clientId, final Outcome outcome) {
+        Map<String, AtomicReferenceArray<Timer>> clients = timers.get(realmName);
+        if (clients == null) {
+            clients = timers.computeIfAbsent(realmName, name -> new ConcurrentHashMap<>());
+        }
+        AtomicReferenceArray<Timer> clientTimers = clients.get(clientId);
+        if (clientTimers == null) {
+            clientTimers = clients.computeIfAbsent(clientId, id -> new AtomicReferenceArray<>(OUTCOME_COUNT));
+        }
+        Timer timer = clientTimers.get(outcome.ordinal());
+        if (timer == null) {
+            // Racing threads get the same timer, the registry returns the one registered first
+            timer = register(realmName, clientId, outcome);
+            clientTimers.set(outcome.ordinal(), timer);
+        }
+        return timer;
+    }
+
+    private Timer register(final String realmName, final String clientId, final Outcome outcome) {
+        final Timer.Builder builder = Timer.builder(METRIC_NAME)
+                .description("Invocations and latency of the custom email domain mapper")
+                .tag("realm", realmName)
+                .tag("client", clientId)
+                .tag("protocol", protocol)
+                .tag("outcome", outcome.getTag());
+        if (percentileHistogram) {
+            builder.publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(500))
+                    .maximumExpectedValue(Duration.ofMillis(100));
+        }
+        return builder.register(registry);
+    }
+
+    /*
+     * Removes the timers of the given client of the given realm from the registry.
+     */
+    public void remove(final String realmName, final String clientId) {
+        final Map<String, AtomicReferenceArray<Timer>> clients = timers.get(realmName);
+        if (clients != null) {
+            remove(clients.remove(clientId));
+        }
+    }
+
+    /*
+     * Removes the timers of all clients of the given realm from the registry.
+     */
+    public void removeRealm(final String realmName) {
+        final Map<String, AtomicReferenceArray<Timer>> clients = timers.remove(realmName);
+        if (clients != null) {
+            clients.values().forEach(this::remove);
+        }
+    }
+
+    private void remove(final AtomicReferenceArray<Timer> clientTimers) {
+        if (clientTimers == null) {
+            return;
+        }
+        for (int i = 0; i < clientTimers.length(); i++) {
+            final Timer timer = clientTimers.get(i);
+            if (timer != null) {
+                registry.remove(timer);
+            }
+        }
+    }
+
+    /*
+     * Drops the timers of removed clients and realms, so their series don't live on until restart.
+     */
+    public void registerRemovalListener(final KeycloakSessionFactory factory) {
+        factory.register(this::onEvent);
+    }
+
+    private void onEvent(final ProviderEvent event) {
+        if (event instanceof ClientModel.ClientRemovedEvent) {
+            final ClientModel client = ((ClientModel.ClientRemovedEvent) event).getClient();
+            remove(client.getRealm().getName(), client.getClientId());
+        } else if (event instanceof RealmModel.RealmRemovedEvent) {
+            removeRealm(((RealmModel.RealmRemovedEvent) event).getRealm().getName());
+        }
+    }
+
+}
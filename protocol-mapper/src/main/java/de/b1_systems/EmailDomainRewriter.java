@@ -0,0 +1,63 @@
+// purpose: Shared email rewrite core of the OIDC and SAML custom email domain mappers.
+// Replaces the domain part of an email address with a custom domain.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+/*
+ * Replaces the domain part of an email address. This runs for every token and every assertion,
+ * so it scans the address once and allocates the resulting String plus a copy of the local part,
+ * or only the resulting String for a bare local part.
+ */
+public final class EmailDomainRewriter {
+
+    private EmailDomainRewriter() {
+    }
+
+    /*
+     * Returns the index of the '@' separating the local part from the domain, or -1 if there is none.
+     * The last '@' is used, because a quoted local part may contain '@' itself (RFC 5321).
+     */
+    public static int indexOfDomainSeparator(final String email) {
+        return email.lastIndexOf('@');
+    }
+
+    /*
+     * Returns the local part of the given email address with the given domain attached.
+     * An address without '@' is treated as a bare local part.
+     */
+    public static String rewrite(final String email, final String domain) {
+        return rewrite(email, indexOfDomainSeparator(email), domain);
+    }
+
+    /*
+     * Returns the given email address with the domain chosen by the given rules. Addresses matching
+     * no rule are returned as they are.
+     */
+    public static String rewrite(final String email, final DomainRules rules) {
+        final int separatorIndex = indexOfDomainSeparator(email);
+        final String domain = rules.targetFor(email, separatorIndex);
+        return domain == null ? email : rewrite(email, separatorIndex, domain);
+    }
+
+    /*
+     * Same as rewrite(String, String), for callers that already located the '@'.
+     */
+    public static String rewrite(final String email, final int separatorIndex, final String domain) {
+        final int domainLength = domain.length();
+        // The address already carries the target domain, nothing to build
+        if (separatorIndex >= 0
+                && email.length() - separatorIndex - 1 == domainLength
+                && email.regionMatches(separatorIndex + 1, domain, 0, domainLength)) {
+            return email;
+        }
+        if (separatorIndex < 0) {
+            // A single concatenation of whole strings allocates only the result
+            return email + '@' + domain;
+        }
+        // The local part with its '@' is the one copy besides the result
+        return email.substring(0, separatorIndex + 1).concat(domain);
+    }
+
+}
@@ -0,0 +1,311 @@
+// purpose: Compiled transformations of the local part and target domain of mapped email addresses.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+ * Transforms an email address while its domain is replaced. The stages are configured in the
+ * transformations property, one per line, and applied in order:
+ *
+ *   lowercase                              lowercases the local part
+ *   strip-subaddress [separator]           drops "+tag" from the local part, '+' unless another separator is given
+ *   remove-dots [domain ...]               drops the dots of the local part, only for addresses at the given
+ *                                          source domains (e.g. gmail.com) if there are any
+ *   replace <regex> -> <replacement>       replaces all matches of the regex in the local part, the replacement
+ *                                          may refer to groups like $1
+ *   punycode                               converts internationalized target domains to ASCII (xn--...)
+ *
+ * Everything is compiled once per config: consecutive lowercase, strip-subaddress and remove-dots stages
+ * are fused into a single pass over the local part, regexes are compiled here and target domains are
+ * converted to punycode when the rules are compiled, see toTargetDomain. With only fused stages the
+ * mapped address is built in a single exactly sized buffer.
+ */
+public final class EmailTransformation {
+
+    public static final String LOWERCASE = "lowercase";
+    public static final String STRIP_SUBADDRESS = "strip-subaddress";
+    public static final String REMOVE_DOTS = "remove-dots";
+    public static final String REPLACE = "replace";
+    public static final String PUNYCODE = "punycode";
+
+    public static final char DEFAULT_SUBADDRESS_SEPARATOR = '+';
+
+    /*
+     * No stages, addresses only get their domain replaced.
+     */
+    public static final EmailTransformation NONE = new EmailTransformation(new Stage[0], false);
+
+    private static final Pattern STAGE_SEPARATOR = Pattern.compile("\\r?\\n");
+    private static final Pattern ARGUMENT_SEPARATOR = Pattern.compile("[,;\\s]+");
+    private static final String REPLACEMENT_ARROW = " -> ";
+
+    private final Stage[] stages;
+    private final boolean punycode;
+
+    private EmailTransformation(final Stage[] stages, final boolean punycode) {
+        this.stages = stages;
+        this.punycode = punycode;
+    }
+
+    /*
+     * Compiles the stages of the transformations property, see the class comment for the syntax.
+     * Empty lines and lines starting with '#' are ignored.
+     *
+     * @throws IllegalArgumentException if a stage is unknown or malformed
+     */
+    public static EmailTransformation compile(final String transformations) {
+        if (transformations == null || transformations.trim().isEmpty()) {
+            return NONE;
+        }
+        final List<Stage> stages = new ArrayList<>();
+        boolean punycode = false;
+        CharacterStage characters = null;
+        for (String line : STAGE_SEPARATOR.split(transformations)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int space = line.indexOf(' ');
+            final String name = (space < 0 ? line : line.substring(0, space)).toLowerCase(Locale.ROOT);
+            final String arguments = space < 0 ? "" : line.substring(space + 1).trim();
+            if (PUNYCODE.equals(name)) {
+                requireNoArguments(line, arguments);
+                punycode = true;
+                continue;
+            }
+            if (REPLACE.equals(name)) {
+                stages.add(ReplaceStage.compile(line, arguments));
+                characters = null;
+                continue;
+            }
+            // Extend the current single pass stage, unless it already does the same with other arguments
+            if (characters == null || characters.has(name)) {
+                characters = new CharacterStage();
+                stages.add(characters);
+            }
+            switch (name) {
+                case LOWERCASE:
+                    requireNoArguments(line, arguments);
+                    characters.lowercase = true;
+                    break;
+                case STRIP_SUBADDRESS:
+                    characters.subaddressSeparator = subaddressSeparator(line, arguments);
+                    characters.dotsBeforeSubaddress = characters.removeDots;
+                    break;
+                case REMOVE_DOTS:
+                    characters.removeDots = true;
+                    characters.dotDomains = arguments.isEmpty() ? null : ARGUMENT_SEPARATOR.split(arguments.toLowerCase(Locale.ROOT));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown email transformation '" + line + "'");
+            }
+        }
+        return stages.isEmpty() && !punycode ? NONE : new EmailTransformation(stages.toArray(new Stage[0]), punycode);
+    }
+
+    public boolean isPunycode() {
+        return punycode;
+    }
+
+    /*
+     * Returns the given target domain as it should appear in mapped addresses. Called when the rules and
+     * alias domains are compiled, so IDN conversion never runs per token.
+     *
+     * @throws IllegalArgumentException if the domain can't be converted to punycode
+     */
+    public String toTargetDomain(final String domain) {
+        return punycode ? IDN.toASCII(domain) : domain;
+    }
+
+    /*
+     * Returns the given address with its local part transformed and its domain replaced by the given one,
+     * or kept if the domain is null. The separator index is the one of EmailDomainRewriter.
+     */
+    public String apply(final String email, final int separatorIndex, final String domain) {
+        if (stages.length == 0) {
+            return domain == null ? email : EmailDomainRewriter.rewrite(email, separatorIndex, domain);
+        }
+        CharSequence localPart = email;
+        int localPartLength = separatorIndex < 0 ? email.length() : separatorIndex;
+        for (int i = 0; i < stages.length - 1; i++) {
+            final StringBuilder transformed = new StringBuilder(localPartLength);
+            stages[i].appendTo(transformed, localPart, localPartLength, email, separatorIndex);
+            localPart = transformed;
+            localPartLength = transformed.length();
+        }
+        final int domainLength = domain != null ? domain.length() : separatorIndex < 0 ? -1 : email.length() - separatorIndex - 1;
+        final StringBuilder mapped = new StringBuilder(localPartLength + 1 + Math.max(domainLength, 0));
+        stages[stages.length - 1].appendTo(mapped, localPart, localPartLength, email, separatorIndex);
+        if (domain != null) {
+            mapped.append('@').append(domain);
+        } else if (separatorIndex >= 0) {
+            mapped.append(email, separatorIndex, email.length());
+        }
+        return mapped.toString();
+    }
+
+    private static void requireNoArguments(final String line, final String arguments) {
+        if (!arguments.isEmpty()) {
+            throw new IllegalArgumentException("Invalid email transformation '" + line + "'");
+        }
+    }
+
+    private static char subaddressSeparator(final String line, final String arguments) {
+        if (arguments.isEmpty()) {
+            return DEFAULT_SUBADDRESS_SEPARATOR;
+        }
+        final char separator = arguments.charAt(0);
+        // Letters and digits would be changed by other stages, '.' and '@' have a meaning of their own
+        if (arguments.length() != 1 || Character.isLetterOrDigit(separator) || separator == '.' || separator == '@') {
+            throw new IllegalArgumentException("Invalid email transformation '" + line + "'");
+        }
+        return separator;
+    }
+
+    private interface Stage {
+
+        /*
+         * Appends the transformation of the first length chars of the local part to the given buffer.
+         * The address is passed for stages depending on its source domain.
+         */
+        void appendTo(StringBuilder out, CharSequence localPart, int length, String email, int separatorIndex);
+
+    }
+
+    /*
+     * The fused lowercase, strip-subaddress and remove-dots stages, giving the same result as applying
+     * them one after the other in their configured order. Lowercase neither produces nor changes the
+     * chars the others look at. The order of the other two matters only for the tag-only rule of
+     * strip-subaddress: after remove-dots, ".+tag" is "+tag" and kept, before it "." and then "". So
+     * if the dots are removed first, a separator only starts a tag behind the first char that isn't a
+     * dot.
+     */
+    private static final class CharacterStage implements Stage {
+
+        private boolean lowercase;
+        private char subaddressSeparator;
+        private boolean removeDots;
+        private boolean dotsBeforeSubaddress;
+        private String[] dotDomains;
+
+        boolean has(final String name) {
+            switch (name) {
+                case LOWERCASE:
+                    return lowercase;
+                case STRIP_SUBADDRESS:
+                    return subaddressSeparator != 0;
+                case REMOVE_DOTS:
+                    return removeDots;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void appendTo(final StringBuilder out, final CharSequence localPart, final int length, final String email, final int separatorIndex) {
+            final boolean dots = removeDots && isDotDomain(email, separatorIndex);
+            int end = length;
+            if (subaddressSeparator != 0) {
+                // Keep a local part consisting of a tag only, counting from the first char the dots leave
+                int first = 0;
+                if (dots && dotsBeforeSubaddress) {
+                    while (first < length && localPart.charAt(first) == '.') {
+                        first++;
+                    }
+                }
+                for (int i = first + 1; i < length; i++) {
+                    if (localPart.charAt(i) == subaddressSeparator) {
+                        end = i;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < end; i++) {
+                final char c = localPart.charAt(i);
+                if (dots && c == '.') {
+                    continue;
+                }
+                out.append(lowercase ? Character.toLowerCase(c) : c);
+            }
+        }
+
+        private boolean isDotDomain(final String email, final int separatorIndex) {
+            if (dotDomains == null) {
+                return true;
+            }
+            if (separatorIndex < 0) {
+                return false;
+            }
+            final int domainLength = email.length() - separatorIndex - 1;
+            for (String dotDomain : dotDomains) {
+                if (dotDomain.length() == domainLength && email.regionMatches(true, separatorIndex + 1, dotDomain, 0, domainLength)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private static final class ReplaceStage implements Stage {
+
+        private final Pattern pattern;
+        private final String replacement;
+
+        private ReplaceStage(final Pattern pattern, final String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+
+        static ReplaceStage compile(final String line, final String arguments) {
+            final int arrow = arguments.lastIndexOf(REPLACEMENT_ARROW);
+            if (arrow <= 0) {
+                throw new IllegalArgumentException("Invalid email transformation '" + line + "'");
+            }
+            try {
+                final Pattern pattern = Pattern.compile(arguments.substring(0, arrow).trim());
+                final String replacement = arguments.substring(arrow + REPLACEMENT_ARROW.length()).trim();
+                requireKnownGroups(line, pattern, replacement);
+                return new ReplaceStage(pattern, replacement);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regex in email transformation '" + line + "'", e);
+            }
+        }
+
+        /*
+         * Fails on references to groups the regex doesn't have now instead of on the first token.
+         */
+        private static void requireKnownGroups(final String line, final Pattern pattern, final String replacement) {
+            final int groups = pattern.matcher("").groupCount();
+            for (int i = 0; i < replacement.length() - 1; i++) {
+                final char c = replacement.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '$' && Character.isDigit(replacement.charAt(i + 1))
+                        && Character.digit(replacement.charAt(i + 1), 10) > groups) {
+                    throw new IllegalArgumentException("Unknown group in email transformation '" + line + "'");
+                }
+            }
+        }
+
+        @Override
+        public void appendTo(final StringBuilder out, final CharSequence localPart, final int length, final String email, final int separatorIndex) {
+            final Matcher matcher = pattern.matcher(length == localPart.length() ? localPart : localPart.subSequence(0, length));
+            while (matcher.find()) {
+                matcher.appendReplacement(out, replacement);
+            }
+            matcher.appendTail(out);
+        }
+
+    }
+
+}
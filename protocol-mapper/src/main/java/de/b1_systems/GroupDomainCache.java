@@ -0,0 +1,103 @@
+// purpose: Cache of the group domain rules of the custom email domain mappers, resolved per realm.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEvent;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Holds the group id to rule maps of GroupDomainRules per realm and rules.
+ *
+ * Removed and moved or renamed groups invalidate the maps of their realm through keycloak's provider
+ * events, created and changed groups through the admin events the 'custom-email-domain-mapper' event
+ * listener receives, changed mappers through validateConfig. Provider events only reach the node the
+ * change happened on, so maps also expire after MAX_AGE_MILLIS to pick up changes made on other nodes
+ * of a cluster.
+ */
+public final class GroupDomainCache {
+
+    public static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final GroupDomainCache SHARED = new GroupDomainCache(MAX_AGE_MILLIS);
+
+    private final long maxAgeNanos;
+
+    /*
+     * Realm id => rules source => resolved map.
+     */
+    private final Map<String, Map<String, Entry>> realms = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final Map<String, Integer> ruleByGroupId;
+        final long resolvedAt;
+
+        Entry(final Map<String, Integer> ruleByGroupId, final long resolvedAt) {
+            this.ruleByGroupId = ruleByGroupId;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    GroupDomainCache(final long maxAgeMillis) {
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+    }
+
+    /*
+     * The cache shared by the OIDC and SAML mapper.
+     */
+    public static GroupDomainCache shared() {
+        return SHARED;
+    }
+
+    /*
+     * Returns the rule index of every group of the realm the given rules apply to, resolving them if needed.
+     */
+    public Map<String, Integer> get(final RealmModel realm, final GroupDomainRules rules) {
+        final Map<String, Entry> entries = realms.computeIfAbsent(realm.getId(), id -> new ConcurrentHashMap<>());
+        final long now = System.nanoTime();
+        final Entry entry = entries.get(rules.getSource());
+        if (entry != null && now - entry.resolvedAt < maxAgeNanos) {
+            return entry.ruleByGroupId;
+        }
+        // Resolve outside of the map, concurrent misses only resolve the same map twice
+        final Map<String, Integer> ruleByGroupId = Collections.unmodifiableMap(rules.resolve(realm));
+        entries.put(rules.getSource(), new Entry(ruleByGroupId, now));
+        return ruleByGroupId;
+    }
+
+    public void invalidate(final String realmId) {
+        if (realmId != null) {
+            realms.remove(realmId);
+        }
+    }
+
+    public void invalidateAll() {
+        realms.clear();
+    }
+
+    /*
+     * Drops the maps of realms whose group tree changes or which are removed.
+     */
+    public void registerInvalidationListener(final KeycloakSessionFactory factory) {
+        factory.register(this::onEvent);
+    }
+
+    private void onEvent(final ProviderEvent event) {
+        if (event instanceof GroupModel.GroupRemovedEvent) {
+            invalidate(((GroupModel.GroupRemovedEvent) event).getRealm().getId());
+        } else if (event instanceof GroupModel.GroupPathChangeEvent) {
+            invalidate(((GroupModel.GroupPathChangeEvent) event).getRealm().getId());
+        } else if (event instanceof RealmModel.RealmRemovedEvent) {
+            invalidate(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+// purpose: Compiled group-path-to-target-domain rules of the custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Decides the target domain by the groups of a user. The rules are configured in the groupDomains
+ * property, one per line:
+ *
+ *   /subsidiaries/acme -> acme.example     members of the group and of all its subgroups
+ *   /subsidiaries/acme/sales -> sales.acme.example
+ *
+ * A group gets the rule of its nearest ancestor with a rule, so the more specific rule wins within a
+ * tree. A user in groups of several rules gets the rule listed first.
+ *
+ * Walking the group tree per token would cost a lookup per parent, so the rules are resolved per realm
+ * into a map of group id to rule once, see GroupDomainCache. A token then only looks up the ids of the
+ * groups of the user in that map.
+ */
+public final class GroupDomainRules {
+
+    public static final String RULE_ARROW = "->";
+
+    private static final Pattern RULE_SEPARATOR = Pattern.compile("[\\r\\n]+");
+
+    /*
+     * The source of the rules, the cache key of their resolved tables.
+     */
+    private final String source;
+    private final List<String> paths;
+    private final String[] targets;
+
+    private GroupDomainRules(final String source, final List<String> paths, final String[] targets) {
+        this.source = source;
+        this.paths = paths;
+        this.targets = targets;
+    }
+
+    /*
+     * Compiles the rules of the groupDomains property, see the class comment for the syntax,
+     * converting every target domain once with the given function.
+     *
+     * @throws IllegalArgumentException if a rule is malformed or a group is configured twice
+     */
+    public static GroupDomainRules compile(final String rules, final UnaryOperator<String> targetConversion) {
+        final List<String> paths = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
+        for (String rule : RULE_SEPARATOR.split(rules)) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            final int arrow = rule.lastIndexOf(RULE_ARROW);
+            final String path = arrow < 0 ? "" : KeycloakModelUtils.normalizeGroupPath(rule.substring(0, arrow).trim());
+            final String target = arrow < 0 ? "" : rule.substring(arrow + RULE_ARROW.length()).trim();
+            if (path == null || path.length() < 2 || target.isEmpty() || target.contains("@")) {
+                throw new IllegalArgumentException("Invalid group domain rule '" + rule + "'");
+            }
+            if (paths.contains(path)) {
+                throw new IllegalArgumentException("Group " + path + " is mapped more than once");
+            }
+            paths.add(path);
+            targets.add(targetConversion.apply(target));
+        }
+        return new GroupDomainRules(rules, Collections.unmodifiableList(paths), targets.toArray(new String[0]));
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /*
+     * Returns the target domain for the groups of the given user, or null if no rule applies.
+     */
+    public String targetFor(final RealmModel realm, final UserModel user) {
+        final Map<String, Integer> ruleByGroupId = GroupDomainCache.shared().get(realm, this);
+        if (ruleByGroupId.isEmpty()) {
+            return null;
+        }
+        int rule = Integer.MAX_VALUE;
+        try (Stream<GroupModel> groups = user.getGroupsStream()) {
+            final Iterator<GroupModel> iterator = groups.iterator();
+            while (iterator.hasNext()) {
+                final Integer groupRule = ruleByGroupId.get(iterator.next().getId());
+                if (groupRule != null && groupRule < rule) {
+                    rule = groupRule;
+                }
+            }
+        }
+        return rule == Integer.MAX_VALUE ? null : targets[rule];
+    }
+
+    /*
+     * Resolves the rules against the groups of the given realm: returns the index of the rule of every
+     * group below a configured group. Groups which don't exist (yet) are skipped.
+     */
+    Map<String, Integer> resolve(final RealmModel realm) {
+        // Apply shallow rules first, so deeper ones overwrite them for their subtrees
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(depth(paths.get(a)), depth(paths.get(b))));
+        final Map<String, Integer> ruleByGroupId = new HashMap<>();
+        for (int rule : order) {
+            final GroupModel group = KeycloakModelUtils.findGroupByPath(realm, paths.get(rule));
+            if (group == null) {
+                continue;
+            }
+            final Deque<GroupModel> pending = new ArrayDeque<>();
+            pending.push(group);
+            while (!pending.isEmpty()) {
+                final GroupModel next = pending.pop();
+                ruleByGroupId.put(next.getId(), rule);
+                next.getSubGroupsStream().forEach(pending::push);
+            }
+        }
+        return ruleByGroupId;
+    }
+
+    private static int depth(final String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+}
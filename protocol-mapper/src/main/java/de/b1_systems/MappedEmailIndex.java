@@ -0,0 +1,592 @@
+// purpose: Reverse index from mapped email address to user id per realm and mapper config, to detect and resolve collisions.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * Knows which users of a realm map to an address, so the mappers can tell in constant time whether
+ * another user gets the same address as the user of a token, e.g. jdoe@corp-a.de and jdoe@corp-b.com
+ * both mapped to jdoe@example.com.
+ *
+ * A HashMap<String, String> would cost some 170 bytes per user. This index keeps a 64 bit hash of
+ * the mapped address and the user id, as two longs for the UUIDs keycloak generates, side by side
+ * in one array, and finds them through two open addressing tables, by address and by user: about
+ * 50 bytes per user. The address table carries the upper half of the hash next to the entry, so
+ * probing rarely touches other entries. Addresses are compared by their hash only, so two different
+ * addresses of a realm are taken as one with a probability of about n^2 / 2^65.
+ *
+ * Writes are serialized, reads run concurrently without locking and retry under a read lock if a
+ * write interfered.
+ *
+ * Each mapper config gets an index of its own, keyed by the fingerprint of the config and filled with
+ * the addresses the config maps the users to, table, groups and shards included. It is built in the
+ * background on first use and kept up to date by the user events of the event listener. Events only
+ * reach the node they happen on, and changing a domain table or group does not touch the users, so
+ * every index is rebuilt REBUILD_INTERVAL_MILLIS after it was completed, while the previous one keeps
+ * answering. Indexes of configs no mapper used for that long are dropped.
+ */
+public final class MappedEmailIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Longs per entry: address hash, upper and lower half of the user id
+    private static final int STRIDE = 3;
+    private static final long TAG_MASK = 0xffffffff00000000L;
+
+    public static final long REBUILD_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Logger LOG = Logger.getLogger(MappedEmailIndex.class);
+
+    /*
+     * Realm id => config fingerprint => index.
+     */
+    private static final Map<String, Map<String, MappedEmailIndex>> REALMS = new ConcurrentHashMap<>();
+
+    // Null until the event listener enables the indexes
+    private static volatile KeycloakSessionFactory sessionFactory;
+    private static volatile int batchSize = PrecomputedEmailBackfill.DEFAULT_BATCH_SIZE;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final EmailDomainMapperConfig config;
+
+    private long[] entries;
+    // Ids which are no UUIDs, e.g. of federated users, null for UUIDs
+    private String[] otherIds;
+    // Removed entries are chained through their address hash field
+    private int freeHead = -1;
+    private int usedEntries;
+    private int size;
+
+    // Upper half of the address hash | entry index + 1, 0 for empty slots
+    private long[] byAddress;
+    // Entry index + 1 by user id hash, 0 for empty slots
+    private int[] byUser;
+
+    // Users written or removed by events while the index is built, null once it is complete. Guarded by the write lock
+    private Set<String> written = new HashSet<>();
+
+    private volatile boolean complete;
+    private volatile long completedAt;
+    private volatile long usedAt = System.nanoTime();
+    // The index being built to replace this one, receives the same writes
+    private volatile MappedEmailIndex successor;
+
+    MappedEmailIndex() {
+        this(null);
+    }
+
+    MappedEmailIndex(final EmailDomainMapperConfig config) {
+        this.config = config;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /*
+     * Lets the mappers build indexes, in pages of the given size. Called by the event listener, which keeps them up to date.
+     */
+    public static void enable(final KeycloakSessionFactory factory, final int pageSize) {
+        batchSize = pageSize;
+        sessionFactory = factory;
+    }
+
+    /*
+     * Returns the index of the given config in the given realm, starting to build it if it has none yet
+     * or if it is due to be rebuilt. The index misses users until it is complete. Returns null if the
+     * event listener doesn't index.
+     */
+    public static MappedEmailIndex of(final String realmId, final EmailDomainMapperConfig config) {
+        final KeycloakSessionFactory factory = sessionFactory;
+        if (factory == null) {
+            return null;
+        }
+        final Map<String, MappedEmailIndex> indexes = REALMS.computeIfAbsent(realmId, id -> new ConcurrentHashMap<>());
+        final long now = System.nanoTime();
+        MappedEmailIndex index = indexes.get(config.getFingerprint());
+        if (index == null) {
+            final MappedEmailIndex created = new MappedEmailIndex(config);
+            index = indexes.putIfAbsent(config.getFingerprint(), created);
+            if (index == null) {
+                dropUnused(indexes, now);
+                build(factory, realmId, indexes, null, created);
+                return created;
+            }
+        }
+        if (now - index.usedAt > TimeUnit.SECONDS.toNanos(1)) {
+            index.usedAt = now;
+        }
+        if (index.complete && now - index.completedAt > TimeUnit.MILLISECONDS.toNanos(REBUILD_INTERVAL_MILLIS)) {
+            final MappedEmailIndex successor = index.startRebuild();
+            if (successor != null) {
+                dropUnused(indexes, now);
+                build(factory, realmId, indexes, index, successor);
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Returns the index of the config with the given fingerprint in the given realm, or null if it has none.
+     */
+    public static MappedEmailIndex get(final String realmId, final String fingerprint) {
+        final Map<String, MappedEmailIndex> indexes = REALMS.get(realmId);
+        return indexes == null ? null : indexes.get(fingerprint);
+    }
+
+    /*
+     * Indexes the current address of the given user in every index of the realm.
+     */
+    public static void update(final RealmModel realm, final UserModel user) {
+        final Map<String, MappedEmailIndex> indexes = REALMS.get(realm.getId());
+        if (indexes != null) {
+            for (MappedEmailIndex index : indexes.values()) {
+                index.put(user.getId(), index.mapEmail(realm, user));
+            }
+        }
+    }
+
+    /*
+     * Removes the given user from every index of the realm.
+     */
+    public static void removeUser(final String realmId, final String userId) {
+        final Map<String, MappedEmailIndex> indexes = REALMS.get(realmId);
+        if (indexes != null) {
+            for (MappedEmailIndex index : indexes.values()) {
+                index.remove(userId);
+            }
+        }
+    }
+
+    /*
+     * Drops the indexes of removed realms.
+     */
+    public static void registerInvalidationListener(final KeycloakSessionFactory factory) {
+        factory.register(MappedEmailIndex::onEvent);
+    }
+
+    private static void onEvent(final ProviderEvent event) {
+        if (event instanceof RealmModel.RealmRemovedEvent) {
+            REALMS.remove(((RealmModel.RealmRemovedEvent) event).getRealm().getId());
+        }
+    }
+
+    private static void build(final KeycloakSessionFactory factory, final String realmId, final Map<String, MappedEmailIndex> indexes,
+                              final MappedEmailIndex previous, final MappedEmailIndex index) {
+        final Thread builder = new Thread(() -> {
+            try {
+                new MappedEmailIndexBuilder(factory, batchSize).run(realmId, index);
+                if (previous != null) {
+                    indexes.replace(index.config.getFingerprint(), previous, index);
+                }
+            } catch (RuntimeException e) {
+                LOG.errorf(e, "Building the reverse index of realm %s failed", realmId);
+                if (previous != null) {
+                    // Try again on a later lookup
+                    previous.successor = null;
+                } else {
+                    indexes.remove(index.config.getFingerprint(), index);
+                }
+            }
+        }, "custom-email-domain-mapper-index");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private static void dropUnused(final Map<String, MappedEmailIndex> indexes, final long now) {
+        indexes.values().removeIf(index -> now - index.usedAt > TimeUnit.MILLISECONDS.toNanos(REBUILD_INTERVAL_MILLIS));
+    }
+
+    /*
+     * Returns the address the config of this index maps the given user to, or null for users without email.
+     */
+    String mapEmail(final RealmModel realm, final UserModel user) {
+        final String email = user.getEmail();
+        return email == null ? null : config.mapEmail(realm, user, email);
+    }
+
+    private synchronized MappedEmailIndex startRebuild() {
+        if (successor != null) {
+            return null;
+        }
+        successor = new MappedEmailIndex(config);
+        return successor;
+    }
+
+    /*
+     * True once all users existing at startup have been indexed. Before, the index misses users.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    void setComplete() {
+        final long stamp = lock.writeLock();
+        try {
+            written = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        completedAt = System.nanoTime();
+        complete = true;
+    }
+
+    public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * Sets the mapped address of the given user, replacing the previous one. A null address removes the user.
+     */
+    public void put(final String userId, final String mappedEmail) {
+        final UserKey user = UserKey.of(userId);
+        final long stamp = lock.writeLock();
+        try {
+            if (written != null) {
+                written.add(userId);
+            }
+            removeEntry(user);
+            if (mappedEmail != null) {
+                addEntry(user, DomainTable.hash(mappedEmail));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        final MappedEmailIndex next = successor;
+        if (next != null) {
+            next.put(userId, mappedEmail);
+        }
+    }
+
+    /*
+     * Sets the mapped address of the given user as read by the builder, unless an event wrote or removed
+     * the user since the build started: the event saw the newer state.
+     */
+    void putIfAbsent(final String userId, final String mappedEmail) {
+        final UserKey user = UserKey.of(userId);
+        final long stamp = lock.writeLock();
+        try {
+            if (written != null && written.contains(userId)) {
+                return;
+            }
+            removeEntry(user);
+            if (mappedEmail != null) {
+                addEntry(user, DomainTable.hash(mappedEmail));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(final String userId) {
+        final UserKey user = UserKey.of(userId);
+        final long stamp = lock.writeLock();
+        try {
+            if (written != null) {
+                written.add(userId);
+            }
+            removeEntry(user);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        final MappedEmailIndex next = successor;
+        if (next != null) {
+            next.remove(userId);
+        }
+    }
+
+    /*
+     * True if a user other than the given one maps to the given address. Ignores case like keycloak
+     * does for emails.
+     */
+    public boolean hasOtherUser(final CharSequence mappedEmail, final String userId) {
+        final long hash = DomainTable.hash(mappedEmail);
+        final UserKey user = UserKey.of(userId);
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final boolean found = findOther(hash, user);
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // A write replaced the arrays while reading them, read again under the lock
+            }
+        }
+        final long readStamp = lock.readLock();
+        try {
+            return findOther(hash, user);
+        } finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    /*
+     * Returns the ids of the users mapping to the given address.
+     */
+    public List<String> usersOf(final CharSequence mappedEmail) {
+        final long hash = DomainTable.hash(mappedEmail);
+        final long stamp = lock.readLock();
+        try {
+            final List<String> users = new ArrayList<>(1);
+            final int mask = byAddress.length - 1;
+            for (int slot = home(hash, mask); byAddress[slot] != 0; slot = (slot + 1) & mask) {
+                final int entry = (int) byAddress[slot] - 1;
+                if (entries[entry * STRIDE] == hash) {
+                    users.add(otherIds[entry] != null ? otherIds[entry]
+                            : new UUID(entries[entry * STRIDE + 1], entries[entry * STRIDE + 2]).toString());
+                }
+            }
+            return users;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean findOther(final long hash, final UserKey user) {
+        final long[] table = byAddress;
+        final long[] values = entries;
+        final String[] others = otherIds;
+        final long tag = hash & TAG_MASK;
+        final int mask = table.length - 1;
+        int slot = home(hash, mask);
+        // Bounded, a concurrent write may leave a table without empty slots to the reader
+        for (int probes = 0; probes < table.length; probes++, slot = (slot + 1) & mask) {
+            final long value = table[slot];
+            if (value == 0) {
+                return false;
+            }
+            if ((value & TAG_MASK) == tag) {
+                final int entry = (int) value - 1;
+                if (values[entry * STRIDE] == hash && !user.is(entry, values, others)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addEntry(final UserKey user, final long hash) {
+        if ((size + 1) * 2 > byAddress.length) {
+            allocate(byAddress.length * 2);
+        }
+        final int entry;
+        if (freeHead >= 0) {
+            entry = freeHead;
+            freeHead = (int) entries[entry * STRIDE];
+        } else {
+            entry = usedEntries++;
+        }
+        entries[entry * STRIDE] = hash;
+        entries[entry * STRIDE + 1] = user.high;
+        entries[entry * STRIDE + 2] = user.low;
+        otherIds[entry] = user.other;
+        insertByAddress(byAddress, hash, entry);
+        insertByUser(byUser, user.hash(), entry);
+        size++;
+    }
+
+    private void removeEntry(final UserKey user) {
+        final int userMask = byUser.length - 1;
+        int userSlot = home(user.hash(), userMask);
+        while (byUser[userSlot] != 0 && !user.is(byUser[userSlot] - 1, entries, otherIds)) {
+            userSlot = (userSlot + 1) & userMask;
+        }
+        if (byUser[userSlot] == 0) {
+            return;
+        }
+        final int entry = byUser[userSlot] - 1;
+        deleteByUser(userSlot);
+        final int addressMask = byAddress.length - 1;
+        int addressSlot = home(entries[entry * STRIDE], addressMask);
+        while ((int) byAddress[addressSlot] != entry + 1) {
+            addressSlot = (addressSlot + 1) & addressMask;
+        }
+        deleteByAddress(addressSlot);
+        otherIds[entry] = null;
+        entries[entry * STRIDE] = freeHead;
+        freeHead = entry;
+        size--;
+    }
+
+    private static void insertByAddress(final long[] table, final long hash, final int entry) {
+        final int mask = table.length - 1;
+        int slot = home(hash, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = (hash & TAG_MASK) | (entry + 1);
+    }
+
+    private static void insertByUser(final int[] table, final long hash, final int entry) {
+        final int mask = table.length - 1;
+        int slot = home(hash, mask);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    /*
+     * Removes the given slot of the linear probing table, moving later entries of the cluster back so
+     * lookups never stop at the hole before reaching them.
+     */
+    private void deleteByAddress(final int removed) {
+        final int mask = byAddress.length - 1;
+        int hole = removed;
+        int slot = removed;
+        while (byAddress[slot = (slot + 1) & mask] != 0) {
+            final int wanted = home(entries[((int) byAddress[slot] - 1) * STRIDE], mask);
+            if (!inCyclicRange(wanted, hole, slot)) {
+                byAddress[hole] = byAddress[slot];
+                hole = slot;
+            }
+        }
+        byAddress[hole] = 0;
+    }
+
+    /*
+     * Same as deleteByAddress for the user table.
+     */
+    private void deleteByUser(final int removed) {
+        final int mask = byUser.length - 1;
+        int hole = removed;
+        int slot = removed;
+        while (byUser[slot = (slot + 1) & mask] != 0) {
+            final int wanted = home(userHash(byUser[slot] - 1), mask);
+            if (!inCyclicRange(wanted, hole, slot)) {
+                byUser[hole] = byUser[slot];
+                hole = slot;
+            }
+        }
+        byUser[hole] = 0;
+    }
+
+    /*
+     * True if the home of an entry lies cyclically in (hole, slot], so it has to stay behind the hole.
+     */
+    private static boolean inCyclicRange(final int home, final int hole, final int slot) {
+        return hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+    }
+
+    private void allocate(final int capacity) {
+        final int entryCapacity = capacity / 2;
+        entries = entries == null ? new long[entryCapacity * STRIDE] : Arrays.copyOf(entries, entryCapacity * STRIDE);
+        otherIds = otherIds == null ? new String[entryCapacity] : Arrays.copyOf(otherIds, entryCapacity);
+        final long[] addressTable = new long[capacity];
+        final int[] userTable = new int[capacity];
+        if (byAddress != null) {
+            for (long value : byAddress) {
+                if (value != 0) {
+                    final int entry = (int) value - 1;
+                    insertByAddress(addressTable, entries[entry * STRIDE], entry);
+                    insertByUser(userTable, userHash(entry), entry);
+                }
+            }
+        }
+        byAddress = addressTable;
+        byUser = userTable;
+    }
+
+    private long userHash(final int entry) {
+        return UserKey.hash(entries[entry * STRIDE + 1], entries[entry * STRIDE + 2], otherIds[entry]);
+    }
+
+    private static int home(final long hash, final int mask) {
+        return (int) hash & mask;
+    }
+
+    /*
+     * A user id as stored in the entries: two longs for UUIDs, the id itself otherwise.
+     */
+    private static final class UserKey {
+        final long high;
+        final long low;
+        final String other;
+
+        private UserKey(final long high, final long low, final String other) {
+            this.high = high;
+            this.low = low;
+            this.other = other;
+        }
+
+        /*
+         * Parses the lowercase UUIDs keycloak generates in one pass with a lookup table, which avoids the
+         * branch per digit of validating and the exceptions of UUID.fromString for other ids.
+         */
+        static UserKey of(final String userId) {
+            if (userId.length() != 36 || userId.charAt(8) != '-' || userId.charAt(13) != '-' || userId.charAt(18) != '-'
+                    || userId.charAt(23) != '-') {
+                return new UserKey(0, 0, userId);
+            }
+            long high = 0;
+            long low = 0;
+            int invalid = 0;
+            for (int i = 0; i < 36; i++) {
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    continue;
+                }
+                final char c = userId.charAt(i);
+                final int digit = c < HEX_DIGITS.length ? HEX_DIGITS[c] : -1;
+                invalid |= digit;
+                if (i < 19) {
+                    high = (high << 4) | (digit & 0xf);
+                } else {
+                    low = (low << 4) | (digit & 0xf);
+                }
+            }
+            return invalid < 0 ? new UserKey(0, 0, userId) : new UserKey(high, low, null);
+        }
+
+        boolean is(final int entry, final long[] values, final String[] others) {
+            if (other != null) {
+                return other.equals(others[entry]);
+            }
+            final int base = entry * STRIDE;
+            return values[base + 1] == high && values[base + 2] == low && ((high | low) != 0 || others[entry] == null);
+        }
+
+        long hash() {
+            return hash(high, low, other);
+        }
+
+        static long hash(final long high, final long low, final String other) {
+            if (other != null) {
+                return DomainTable.hash(other);
+            }
+            final long hash = (high ^ Long.rotateLeft(low, 32)) * 0x9e3779b97f4a7c15L;
+            return hash ^ (hash >>> 29);
+        }
+    }
+
+    private static final byte[] HEX_DIGITS = new byte['g'];
+
+    static {
+        Arrays.fill(HEX_DIGITS, (byte) -1);
+        for (int digit = 0; digit < 16; digit++) {
+            HEX_DIGITS[Character.forDigit(digit, 16)] = (byte) digit;
+        }
+    }
+
+}
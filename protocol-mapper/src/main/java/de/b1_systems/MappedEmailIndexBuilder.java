@@ -0,0 +1,70 @@
+// purpose: Builds the reverse index of the mapped email addresses of all existing users of a realm.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*
+ * Fills a MappedEmailIndex with the existing users of its realm, mapped by the config of the index.
+ * Pages through the users like PrecomputedEmailBackfill, each page in its own transaction. Users
+ * changed or removed while the index is built are indexed by the event listener, and the pages leave
+ * them alone, as what a page read may be older than the event.
+ */
+public class MappedEmailIndexBuilder {
+
+    private static final int RETRY_ATTEMPTS = 3;
+    private static final int RETRY_INTERVAL_MILLIS = 100;
+
+    private static final Logger LOG = Logger.getLogger(MappedEmailIndexBuilder.class);
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final int batchSize;
+
+    public MappedEmailIndexBuilder(final KeycloakSessionFactory sessionFactory, final int batchSize) {
+        this.sessionFactory = sessionFactory;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * Indexes the users of the given realm into the given index and marks it complete.
+     */
+    public void run(final String realmId, final MappedEmailIndex index) {
+        final long start = System.nanoTime();
+        int first = 0;
+        while (true) {
+            final int offset = first;
+            final int users = KeycloakModelUtils.runJobInRetriableTransaction(sessionFactory, session -> {
+                final RealmModel realm = session.realms().getRealm(realmId);
+                if (realm == null) {
+                    return 0;
+                }
+                final List<UserModel> page = session.users()
+                        .searchForUserStream(realm, new HashMap<>(), offset, batchSize)
+                        .collect(Collectors.toList());
+                for (UserModel user : page) {
+                    index.putIfAbsent(user.getId(), index.mapEmail(realm, user));
+                }
+                return page.size();
+            }, RETRY_ATTEMPTS, RETRY_INTERVAL_MILLIS);
+            first += users;
+            if (users < batchSize) {
+                break;
+            }
+        }
+        index.setComplete();
+        LOG.infof("Indexed the mapped email addresses of %d users of realm %s in %d ms", index.size(), realmId,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+}
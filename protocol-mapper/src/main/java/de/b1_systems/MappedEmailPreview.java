@@ -0,0 +1,215 @@
+// purpose: Streams the mapped email address of every user of a realm for the preview endpoint.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+ * Writes userId, email and mappedEmail of all users of a realm as NDJSON or CSV, the way a mapper with
+ * the given config would map them right now. The precomputed attribute and the user session cache are
+ * ignored, so a draft config shows what it would change.
+ *
+ * Pages through the users like PrecomputedEmailBackfill, each page in its own transaction, and flushes
+ * after every page: only one page is held in memory and the client receives data from the first page
+ * on, however big the realm is.
+ *
+ * Draft configs come from anyone who may view users, so they can't name server-side resources: a domain
+ * table would let them probe the file system of the node, a pseudonym key is a secret of the client.
+ * Preview the configured mapper to see their effect.
+ */
+public class MappedEmailPreview implements StreamingOutput {
+
+    public static final int DEFAULT_PAGE_SIZE = PrecomputedEmailBackfill.DEFAULT_BATCH_SIZE;
+    public static final int MAX_PAGE_SIZE = 5000;
+
+    /*
+     * Properties a draft config must not set.
+     */
+    public static final List<String> NON_DRAFT_PROPERTIES = List.of(
+            EmailDomainMapperConfig.DOMAIN_TABLE,
+            EmailDomainMapperConfig.PSEUDONYM_KEY);
+
+    public enum Format {
+
+        NDJSON("ndjson", "application/x-ndjson"),
+        CSV("csv", "text/csv");
+
+        private final String value;
+        private final String mediaType;
+
+        Format(final String value, final String mediaType) {
+            this.value = value;
+            this.mediaType = mediaType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        /*
+         * @throws IllegalArgumentException for unknown values
+         */
+        public static Format of(final String value) {
+            for (Format format : values()) {
+                if (format.value.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown preview format '" + value + "'");
+        }
+    }
+
+    /*
+     * Compiles a draft config of the preview endpoint.
+     *
+     * @throws IllegalArgumentException if the draft sets one of NON_DRAFT_PROPERTIES or is invalid
+     */
+    public static EmailDomainMapperConfig compileDraft(final Map<String, String> config) {
+        for (String property : NON_DRAFT_PROPERTIES) {
+            final String value = config.get(property);
+            if (value != null && !value.isBlank()) {
+                throw new IllegalArgumentException("Draft configs can't set " + property + ", preview the configured mapper instead");
+            }
+        }
+        return EmailDomainMapperConfig.compile(config);
+    }
+
+    /*
+     * Loads the rows of the users [first, first + max) of the realm. Returns fewer than max rows on the last page.
+     */
+    interface PageSource {
+        List<String[]> page(int first, int max);
+    }
+
+    private static final int RETRY_ATTEMPTS = 3;
+    private static final int RETRY_INTERVAL_MILLIS = 100;
+
+    // One generator per row, writing to the shared writer without flushing or closing it
+    private static final JsonFactory JSON = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+    private final PageSource pages;
+    private final Format format;
+    private final int pageSize;
+
+    public MappedEmailPreview(final KeycloakSessionFactory sessionFactory, final String realmId,
+                              final EmailDomainMapperConfig config, final Format format, final int pageSize) {
+        this((first, max) -> KeycloakModelUtils.runJobInRetriableTransaction(sessionFactory, session -> {
+            final RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null) {
+                return Collections.<String[]>emptyList();
+            }
+            return session.users().searchForUserStream(realm, new HashMap<>(), first, max)
+                    .map(user -> row(config, realm, user))
+                    .collect(Collectors.toList());
+        }, RETRY_ATTEMPTS, RETRY_INTERVAL_MILLIS), format, pageSize);
+    }
+
+    MappedEmailPreview(final PageSource pages, final Format format, final int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("The page size has to be between 1 and " + MAX_PAGE_SIZE);
+        }
+        this.pages = pages;
+        this.format = format;
+        this.pageSize = pageSize;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /*
+     * Returns userId, email and mappedEmail of the given user. mappedEmail is null if the mapper would
+     * leave the claim out or fail, and pseudonymized or disambiguated by the collision policy as by the mapper.
+     */
+    static String[] row(final EmailDomainMapperConfig config, final RealmModel realm, final UserModel user) {
+        final String email = user.getEmail();
+        final String mappedEmail = email == null
+                ? config.getMissingEmailPolicy().fallback(config, user)
+                : config.disambiguate(realm, user.getId(), email, config.mapEmail(realm, user, email));
+        return new String[] { user.getId(), email, mappedEmail };
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (format == Format.CSV) {
+            writer.write("userId,email,mappedEmail\r\n");
+        }
+        int first = 0;
+        List<String[]> page;
+        do {
+            page = pages.page(first, pageSize);
+            for (String[] row : page) {
+                if (format == Format.CSV) {
+                    writeCsv(writer, row);
+                } else {
+                    writeJson(writer, row);
+                }
+            }
+            writer.flush();
+            first += page.size();
+        } while (page.size() >= pageSize);
+    }
+
+    private static void writeJson(final Writer writer, final String[] row) throws IOException {
+        try (JsonGenerator json = JSON.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeStringField("userId", row[0]);
+            json.writeStringField("email", row[1]);
+            json.writeStringField("mappedEmail", row[2]);
+            json.writeEndObject();
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsv(final Writer writer, final String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (row[i] != null) {
+                writer.write(csvField(row[i]));
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /*
+     * Quotes the field as RFC 4180 asks if it contains a separator, quote or line break.
+     */
+    static String csvField(final String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        return quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+
+}
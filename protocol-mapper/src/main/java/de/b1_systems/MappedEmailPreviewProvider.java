@@ -0,0 +1,191 @@
+// purpose: Admin endpoints previewing the mapped email addresses of a realm and resolving them back to users.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.managers.RealmManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/*
+ * Serves /realms/{realm}/custom-email-domain-mapper:
+ *
+ *   GET  preview?mapperId=<id>[&format=ndjson|csv][&pageSize=500]   previews a configured mapper of a client or client scope
+ *   POST preview?[format=ndjson|csv][&pageSize=500]                  previews the draft config in the JSON body, which
+ *                                                                    may not set a domain table or pseudonym key
+ *   GET  lookup?mapperId=<id>&email=<mapped address>                 returns the ids of the users the mapper maps to the address
+ *
+ * Needs an admin access token of a user allowed to view the users of the realm, from the realm itself
+ * or from the master realm, like the admin REST API.
+ */
+public class MappedEmailPreviewProvider implements RealmResourceProvider {
+
+    private final KeycloakSession session;
+
+    public MappedEmailPreviewProvider(final KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Path("preview")
+    public Response preview(@QueryParam("mapperId") final String mapperId,
+                            @QueryParam("format") @DefaultValue("ndjson") final String format,
+                            @QueryParam("pageSize") @DefaultValue("" + MappedEmailPreview.DEFAULT_PAGE_SIZE) final int pageSize) {
+        final RealmModel realm = authorize();
+        return stream(realm, configOf(realm, mapperId), format, pageSize);
+    }
+
+    @POST
+    @Path("preview")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response previewDraft(final Map<String, String> config,
+                                 @QueryParam("format") @DefaultValue("ndjson") final String format,
+                                 @QueryParam("pageSize") @DefaultValue("" + MappedEmailPreview.DEFAULT_PAGE_SIZE) final int pageSize) {
+        final RealmModel realm = authorize();
+        final EmailDomainMapperConfig draft;
+        try {
+            draft = MappedEmailPreview.compileDraft(config);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+        return stream(realm, draft, format, pageSize);
+    }
+
+    /*
+     * Resolves an address mapped by the given mapper to its users through the reverse index of its config.
+     */
+    @GET
+    @Path("lookup")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> lookup(@QueryParam("mapperId") final String mapperId, @QueryParam("email") final String email) {
+        final RealmModel realm = authorize();
+        if (email == null) {
+            throw new BadRequestException("Missing email");
+        }
+        final MappedEmailIndex index = MappedEmailIndex.of(realm.getId(), configOf(realm, mapperId));
+        if (index == null) {
+            throw new NotFoundException("No reverse index of realm " + realm.getName() + ", enable it on the event listener");
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("email", email);
+        result.put("userIds", index.usersOf(email));
+        result.put("complete", index.isComplete());
+        return result;
+    }
+
+    /*
+     * Returns the compiled config of the given custom email domain mapper of a client or client scope of the realm.
+     */
+    private EmailDomainMapperConfig configOf(final RealmModel realm, final String mapperId) {
+        if (mapperId == null) {
+            throw new BadRequestException("Missing mapperId");
+        }
+        final ProtocolMapperModel mapper = Stream.concat(
+                        realm.getClientsStream().map(client -> client.getProtocolMapperById(mapperId)),
+                        realm.getClientScopesStream().map(scope -> scope.getProtocolMapperById(mapperId)))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .filter(model -> OIDCCustomEmailDomainMapper.PROVIDER_ID.equals(model.getProtocolMapper())
+                        || SAMLCustomEmailDomainMapper.PROVIDER_ID.equals(model.getProtocolMapper()))
+                .orElseThrow(() -> new NotFoundException("No custom email domain mapper " + mapperId));
+        try {
+            return EmailDomainMapperConfigCache.shared().get(mapper);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    private Response stream(final RealmModel realm, final EmailDomainMapperConfig config, final String format, final int pageSize) {
+        final MappedEmailPreview preview;
+        try {
+            preview = new MappedEmailPreview(session.getKeycloakSessionFactory(), realm.getId(),
+                    config, MappedEmailPreview.Format.of(format), pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+        return Response.ok(preview, preview.getFormat().getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + realm.getName()
+                        + "-mapped-emails." + preview.getFormat().getValue() + "\"")
+                .build();
+    }
+
+    /*
+     * Authenticates the bearer token like AdminRoot does for the admin REST API and checks that its user
+     * may view the users of the realm of the request. Returns that realm.
+     */
+    private RealmModel authorize() {
+        final RealmModel realm = session.getContext().getRealm();
+        final HttpHeaders headers = session.getContext().getRequestHeaders();
+        final String tokenString = AppAuthManager.extractAuthorizationHeaderToken(headers);
+        if (tokenString == null) {
+            throw new NotAuthorizedException("Bearer");
+        }
+        final AccessToken token;
+        try {
+            token = new JWSInput(tokenString).readJsonContent(AccessToken.class);
+        } catch (JWSInputException e) {
+            throw new NotAuthorizedException("Bearer token format error");
+        }
+        final String issuer = token.getIssuer();
+        final RealmModel tokenRealm = issuer == null ? null
+                : new RealmManager(session).getRealmByName(issuer.substring(issuer.lastIndexOf('/') + 1));
+        if (tokenRealm == null) {
+            throw new NotAuthorizedException("Unknown realm in token");
+        }
+        session.getContext().setRealm(tokenRealm);
+        final AuthenticationManager.AuthResult auth;
+        try {
+            auth = new AppAuthManager.BearerTokenAuthenticator(session)
+                    .setRealm(tokenRealm)
+                    .setConnection(session.getContext().getConnection())
+                    .setHeaders(headers)
+                    .authenticate();
+        } finally {
+            session.getContext().setRealm(realm);
+        }
+        if (auth == null) {
+            throw new NotAuthorizedException("Bearer");
+        }
+        final AdminAuth adminAuth = new AdminAuth(tokenRealm, auth.getToken(), auth.getUser(), auth.getClient());
+        AdminPermissions.evaluator(session, realm, adminAuth).users().requireView();
+        return realm;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,42 @@
+// purpose: Factory of the admin endpoint previewing the mapped email addresses of a realm.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/*
+ * Registers the preview endpoint under /realms/{realm}/custom-email-domain-mapper.
+ */
+public class MappedEmailPreviewProviderFactory implements RealmResourceProviderFactory {
+
+    public static final String PROVIDER_ID = "custom-email-domain-mapper";
+
+    @Override
+    public RealmResourceProvider create(final KeycloakSession session) {
+        return new MappedEmailPreviewProvider(session);
+    }
+
+    @Override
+    public void init(final Config.Scope config) {
+    }
+
+    @Override
+    public void postInit(final KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+}
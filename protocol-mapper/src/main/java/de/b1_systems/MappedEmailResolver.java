@@ -0,0 +1,143 @@
+// purpose: Resolves the mapped email address of a user session for the OIDC and SAML custom email domain mappers.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Computes the mapped email address of the user of a session, the part both mappers share.
+ */
+public final class MappedEmailResolver {
+
+    private MappedEmailResolver() {
+    }
+
+    /*
+     * The value of the claim or attribute together with how it was obtained, for the metrics.
+     */
+    public static final class Resolution {
+
+        static final Resolution MISSING_EMAIL = new Resolution(null, EmailDomainMapperMetrics.Outcome.MISSING_EMAIL);
+        static final Resolution OMITTED = new Resolution(null, EmailDomainMapperMetrics.Outcome.OMITTED);
+        static final Resolution NO_FALLBACK = new Resolution(null, EmailDomainMapperMetrics.Outcome.NO_FALLBACK);
+
+        private final String value;
+        private final EmailDomainMapperMetrics.Outcome outcome;
+
+        Resolution(final String value, final EmailDomainMapperMetrics.Outcome outcome) {
+            this.value = value;
+            this.outcome = outcome;
+        }
+
+        /*
+         * The mapped address, or null if the claim or attribute is left out.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        public EmailDomainMapperMetrics.Outcome getOutcome() {
+            return outcome;
+        }
+
+        /*
+         * Whether the token or assertion fails, as the missing email policy FAIL demands.
+         */
+        public boolean isFailure() {
+            return outcome == EmailDomainMapperMetrics.Outcome.MISSING_EMAIL;
+        }
+    }
+
+    /*
+     * Same as resolve, applying the missing email policy of the config if the user has no email.
+     */
+    public static Resolution resolveOrFallBack(final EmailDomainMapperConfig config, final UserSessionModel userSession) {
+        final String mappedEmail = resolve(config, userSession);
+        if (mappedEmail != null) {
+            return new Resolution(mappedEmail, EmailDomainMapperMetrics.Outcome.MAPPED);
+        }
+        return config.getMissingEmailPolicy().apply(config, userSession.getUser());
+    }
+
+    /*
+     * Returns the mapped email address of the user of the given session, or null if the user has no email.
+     *
+     * If the config caches in the user session, an address mapped before in the same session is returned
+     * without loading the user. If it names a precomputed attribute, the attribute is preferred over mapping.
+     * If it has a pseudonym key, the local part is replaced by the pseudonym of the user, which can't collide,
+     * otherwise the collision policy applies to precomputed and mapped addresses alike.
+     */
+    public static String resolve(final EmailDomainMapperConfig config, final UserSessionModel userSession) {
+        if (config.isCacheInUserSession()) {
+            final String cached = userSession.getNote(config.getUserSessionNote());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Get User
+        UserModel user = userSession.getUser();
+        // Use the address the event listener precomputed, if there is one
+        final String precomputed = config.readPrecomputed(user);
+        if (precomputed != null) {
+            // Only the collision policy needs the original address
+            final String email = config.getPseudonyms() == null && config.getCollisionPolicy() != CollisionPolicy.IGNORE
+                    ? user.getEmail() : null;
+            return remember(config, userSession, config.disambiguate(userSession.getRealm(), user.getId(), email, precomputed));
+        }
+        // Get Email
+        String userEmail = user.getEmail();
+        if (userEmail == null) {
+            return null;
+        }
+        // Replace the domain part of the Email with the custom domain its table, groups or rules choose
+        final String mappedEmail = config.mapEmail(userSession.getRealm(), user, userEmail);
+        // Pseudonymize, or disambiguate if another user of the realm maps to the same address
+        return remember(config, userSession, config.disambiguate(userSession.getRealm(), user.getId(), userEmail, mappedEmail));
+    }
+
+    private static String remember(final EmailDomainMapperConfig config, final UserSessionModel userSession, final String mappedEmail) {
+        if (config.isCacheInUserSession()) {
+            userSession.setNote(config.getUserSessionNote(), mappedEmail);
+        }
+        return mappedEmail;
+    }
+
+    /*
+     * Returns the mapped address followed by its local part at each alias domain of the config, skipping
+     * aliases equal to the mapped address. The address is parsed once for all of them.
+     */
+    public static List<String> withAliases(final EmailDomainMapperConfig config, final String mappedEmail) {
+        final List<String> aliasDomains = config.getAliasDomains();
+        final List<String> addresses = new ArrayList<>(aliasDomains.size() + 1);
+        addresses.add(mappedEmail);
+        final int separatorIndex = EmailDomainRewriter.indexOfDomainSeparator(mappedEmail);
+        for (int i = 0; i < aliasDomains.size(); i++) {
+            final String alias = EmailDomainRewriter.rewrite(mappedEmail, separatorIndex, aliasDomains.get(i));
+            // The rewriter returns the same instance if the address already has the alias domain
+            if (alias != mappedEmail) {
+                addresses.add(alias);
+            }
+        }
+        return addresses;
+    }
+
+    /*
+     * Removes all mapped email addresses cached in the given session, e.g. because the email of its user changed.
+     */
+    public static void invalidate(final UserSessionModel userSession) {
+        final List<String> notes = new ArrayList<>();
+        for (String note : userSession.getNotes().keySet()) {
+            if (note.startsWith(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX)) {
+                notes.add(note);
+            }
+        }
+        notes.forEach(userSession::removeNote);
+    }
+
+}
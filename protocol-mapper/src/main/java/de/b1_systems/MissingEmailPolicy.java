@@ -0,0 +1,118 @@
+// purpose: What the OIDC and SAML custom email domain mappers do for users without email.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.UserModel;
+
+/*
+ * Service accounts and some federated users have no email. Only FAIL fails the token or assertion,
+ * the other policies never construct an exception.
+ */
+public enum MissingEmailPolicy {
+
+    /*
+     * Fail the token or assertion, as the mappers always did.
+     */
+    FAIL("fail", EmailDomainMapperMetrics.Outcome.MISSING_EMAIL),
+
+    /*
+     * Leave the claim or attribute out.
+     */
+    OMIT("omit", EmailDomainMapperMetrics.Outcome.OMITTED),
+
+    /*
+     * Use username@domain, the domain being the shard domain of the user or the default target of the rules.
+     * The username is transformed like the local part of an email.
+     */
+    USERNAME("username", EmailDomainMapperMetrics.Outcome.USERNAME_FALLBACK),
+
+    /*
+     * Use the value of a configured user attribute, mapped by the rules like an email.
+     */
+    ATTRIBUTE("attribute", EmailDomainMapperMetrics.Outcome.ATTRIBUTE_FALLBACK);
+
+    private final String value;
+    private final EmailDomainMapperMetrics.Outcome outcome;
+
+    MissingEmailPolicy(final String value, final EmailDomainMapperMetrics.Outcome outcome) {
+        this.value = value;
+        this.outcome = outcome;
+    }
+
+    /*
+     * The value of the policy in the mapper config.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /*
+     * The outcome recorded if the policy provides a value.
+     */
+    public EmailDomainMapperMetrics.Outcome getOutcome() {
+        return outcome;
+    }
+
+    /*
+     * Returns the value to map instead of the missing email, or null to omit the claim or attribute.
+     * Returns null for FAIL too, the caller fails. A pseudonym key of the config replaces the local part
+     * of the fallback as well.
+     */
+    public String fallback(final EmailDomainMapperConfig config, final UserModel user) {
+        switch (this) {
+            case USERNAME: {
+                final String username = user.getUsername();
+                final String domain = config.getDomainShards() != null
+                        ? config.getDomainShards().targetFor(user.getId())
+                        : config.getDomainRules().getDefaultTarget();
+                // Without a default target there is no domain to append
+                if (username == null || domain == null) {
+                    return null;
+                }
+                return config.pseudonymize(user.getId(), config.getTransformation().apply(username, -1, domain));
+            }
+            case ATTRIBUTE: {
+                if (config.getMissingEmailAttribute() == null) {
+                    return null;
+                }
+                final String value = user.getFirstAttribute(config.getMissingEmailAttribute());
+                return value == null ? null : config.pseudonymize(user.getId(), config.mapEmail(value));
+            }
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Applies the policy to the given user without email: the fallback value and its outcome, no value
+     * and MISSING_EMAIL for FAIL, no value and OMITTED for OMIT, and no value and NO_FALLBACK if the
+     * fallback has no value.
+     */
+    public MappedEmailResolver.Resolution apply(final EmailDomainMapperConfig config, final UserModel user) {
+        switch (this) {
+            case FAIL:
+                return MappedEmailResolver.Resolution.MISSING_EMAIL;
+            case OMIT:
+                return MappedEmailResolver.Resolution.OMITTED;
+            default: {
+                final String value = fallback(config, user);
+                return value == null ? MappedEmailResolver.Resolution.NO_FALLBACK : new MappedEmailResolver.Resolution(value, outcome);
+            }
+        }
+    }
+
+    /*
+     * @throws IllegalArgumentException for unknown values
+     */
+    public static MissingEmailPolicy of(final String value) {
+        for (MissingEmailPolicy policy : values()) {
+            if (policy.value.equals(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown missing email policy '" + value + "'");
+    }
+
+}
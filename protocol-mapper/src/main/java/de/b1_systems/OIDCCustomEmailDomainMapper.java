@@ -10,16 +10,21 @@
 
 package de.b1_systems;
 
+import org.keycloak.Config;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.ClientSessionContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperContainerModel;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.models.UserSessionModel;
-import org.keycloak.models.UserModel;
+import org.keycloak.models.RealmModel;
 import org.keycloak.protocol.oidc.mappers.AbstractOIDCProtocolMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCAccessTokenMapper;
 import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
 import org.keycloak.protocol.oidc.mappers.OIDCIDTokenMapper;
 import org.keycloak.protocol.oidc.mappers.UserInfoTokenMapper;
+import org.keycloak.protocol.ProtocolMapperConfigException;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.representations.IDToken;
@@ -43,17 +48,23 @@ public class OIDCCustomEmailDomainMapper extends AbstractOIDCProtocolMapper impl
      */
     public static final String PROVIDER_ID = "oidc-custom-email-domain-mapper";
 
-    public static final String EMAIL_DOMAIN = "emailDomain";
-    public static final String DEFAULT_EMAIL_DOMAIN = "example.com";
+    private static final EmailDomainMapperMetrics METRICS = EmailDomainMapperMetrics.forProtocol(EmailDomainMapperMetrics.PROTOCOL_OIDC);
+
+    public static final String EMAIL_DOMAIN = EmailDomainMapperConfig.EMAIL_DOMAIN;
+    public static final String DEFAULT_EMAIL_DOMAIN = EmailDomainMapperConfig.DEFAULT_EMAIL_DOMAIN;
 
     static {
 
         configProperties = ProviderConfigurationBuilder.create()
                 .property()
                 .name(EMAIL_DOMAIN)
-                .type(ProviderConfigProperty.STRING_TYPE)
+                .type(ProviderConfigProperty.TEXT_TYPE)
                 .label("Email Domain")
-                .helpText("Return an email address where the domain part is replaced with this custom domain.")
+                .helpText("Return an email address where the domain part is replaced with this custom domain. "
+                        + "Alternatively a list of rules, one per line: 'source.domain -> target.domain' for an exact match, "
+                        + "'*.source.domain -> target.domain' for all subdomains and a plain 'target.domain' as default. "
+                        + "Exact matches win over longer wildcards, longer wildcards over shorter ones. "
+                        + "Without a default, addresses matching no rule keep their domain.")
                 .defaultValue(DEFAULT_EMAIL_DOMAIN)
                 .add()
                 .build();
@@ -69,6 +80,8 @@ public class OIDCCustomEmailDomainMapper extends AbstractOIDCProtocolMapper impl
         // mapper should never be available for some sort of options, e.g. like the id token, just don't
         // implement the corresponding interface.
         OIDCAttributeMapperHelper.addIncludeInTokensConfig(configProperties, OIDCCustomEmailDomainMapper.class);
+        // The options both custom email domain mappers share
+        EmailDomainMapperConfig.addConfigProperties(configProperties);
     }
 
     @Override
@@ -96,28 +109,78 @@ public class OIDCCustomEmailDomainMapper extends AbstractOIDCProtocolMapper impl
         return PROVIDER_ID;
     }
 
+    @Override
+    public void init(final Config.Scope config) {
+        // --spi-protocol-mapper-oidc-custom-email-domain-mapper-metrics-histogram=true
+        METRICS.setPercentileHistogram(config.getBoolean(EmailDomainMapperMetrics.CONFIG_METRICS_HISTOGRAM, false));
+        // --spi-protocol-mapper-oidc-custom-email-domain-mapper-domain-table-directory=/opt/keycloak/domain-tables
+        final String domainTableDirectory = config.get(ReloadingDomainTable.CONFIG_DIRECTORY);
+        if (domainTableDirectory != null) {
+            ReloadingDomainTable.setDirectory(domainTableDirectory);
+        }
+    }
+
+    @Override
+    public void postInit(final KeycloakSessionFactory factory) {
+        EmailDomainMapperConfigCache.shared().registerInvalidationListener(factory);
+        GroupDomainCache.shared().registerInvalidationListener(factory);
+        METRICS.registerRemovalListener(factory);
+    }
+
+    @Override
+    public void validateConfig(final KeycloakSession session,
+                               final RealmModel realm,
+                               final ProtocolMapperContainerModel client,
+                               final ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
+        // Called whenever the mapper is created or updated, so drop what we compiled from the old config
+        EmailDomainMapperConfigCache.shared().invalidate(mapperModel.getId());
+        GroupDomainCache.shared().invalidate(realm.getId());
+        // Reject configs which would fail on every token
+        try {
+            EmailDomainMapperConfig.compile(mapperModel.getConfig());
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolMapperConfigException(e.getMessage(), e);
+        }
+    }
+
     @Override
     protected void setClaim(final IDToken token,
                             final ProtocolMapperModel mappingModel,
                             final UserSessionModel userSession,
                             final KeycloakSession keycloakSession,
                             final ClientSessionContext clientSessionCtx) {
-        // Get User
-        UserModel user = userSession.getUser();
-        // Get Email
-        String userEmail = user.getEmail();
-        // Check if Email is empty and throw exception
-        if (userEmail == null) {
-            throw new RuntimeException("User email is null");
+        final long start = System.nanoTime();
+        EmailDomainMapperMetrics.Outcome outcome = EmailDomainMapperMetrics.Outcome.ERROR;
+        try {
+            // Get the compiled mapper config
+            EmailDomainMapperConfig config = EmailDomainMapperConfigCache.shared().get(mappingModel);
+            // Get the Email with the custom domain its rules choose, or what the missing email policy falls back to
+            final MappedEmailResolver.Resolution resolution = MappedEmailResolver.resolveOrFallBack(config, userSession);
+            final String claimValue = resolution.getValue();
+            if (claimValue == null) {
+                outcome = resolution.getOutcome();
+                if (resolution.isFailure()) {
+                    throw new RuntimeException("User email is null");
+                }
+                return;
+            }
+            // Finally, do the mapping with our custom claim, along the claim path compiled with the config.
+            if (config.hasAliasDomains()) {
+                config.getAliasClaimWriter().write(token, config.getAliasMappingModel(), MappedEmailResolver.withAliases(config, claimValue));
+            } else {
+                config.getClaimWriter().write(token, mappingModel, claimValue);
+            }
+            outcome = resolution.getOutcome();
+        } finally {
+            METRICS.record(userSession.getRealm(), clientOf(clientSessionCtx), outcome, System.nanoTime() - start);
+        }
+    }
+
+    private static ClientModel clientOf(final ClientSessionContext clientSessionCtx) {
+        if (clientSessionCtx == null || clientSessionCtx.getClientSession() == null) {
+            return null;
         }
-        // Split Email
-        String emailAddrSpec = userEmail.split("@")[0];
-        // Define custome Email Domain or if empty a sane default
-        String emailDomain = mappingModel.getConfig().getOrDefault(EMAIL_DOMAIN, DEFAULT_EMAIL_DOMAIN);
-        // Concat Email AddressSpec with custom domain
-        String claimValue = emailAddrSpec + "@" + emailDomain;
-        // Finally, do the mapping with our custom claim.
-        OIDCAttributeMapperHelper.mapClaim(token, mappingModel, claimValue);
+        return clientSessionCtx.getClientSession().getClient();
     }
 
 }
\ No newline at end of file
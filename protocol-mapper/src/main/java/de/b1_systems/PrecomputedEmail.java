@@ -0,0 +1,87 @@
+// purpose: Writes the mapped email address of a user into a user attribute.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.models.UserModel;
+
+/*
+ * Precomputes the mapped email address of users into a user attribute, which the mappers can read
+ * instead of mapping the address on every token (see EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE).
+ *
+ * The value is prefixed with the fingerprint of the rules, "<fingerprint>:jdoe@group.example", and
+ * mappers only accept values of the rules they map by themselves, so a mapper with other rules, or
+ * with transformations, tables, groups or shards, keeps mapping. The fingerprint is no secret: users
+ * allowed to edit their attributes could forge a value, so the attribute has to be read-only for
+ * them in the user profile config.
+ */
+public class PrecomputedEmail {
+
+    public static final String DEFAULT_ATTRIBUTE = "mappedEmail";
+
+    static final char FINGERPRINT_SEPARATOR = ':';
+
+    private final DomainRules domainRules;
+    private final String attribute;
+
+    public PrecomputedEmail(final DomainRules domainRules, final String attribute) {
+        this.domainRules = domainRules;
+        this.attribute = attribute;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /*
+     * Returns the given email address with the domain chosen by the rules.
+     */
+    public String mapEmail(final String email) {
+        return EmailDomainRewriter.rewrite(email, domainRules);
+    }
+
+    /*
+     * Returns the attribute value of the given mapped address.
+     */
+    public String valueOf(final String mappedEmail) {
+        return domainRules.getFingerprint() + FINGERPRINT_SEPARATOR + mappedEmail;
+    }
+
+    /*
+     * Returns the mapped address in the given attribute of the user if it was precomputed by rules
+     * with the given fingerprint, else null.
+     */
+    public static String read(final UserModel user, final String attribute, final String rulesFingerprint) {
+        final String value = user.getFirstAttribute(attribute);
+        final int length = rulesFingerprint.length();
+        if (value == null || value.length() <= length + 1 || value.charAt(length) != FINGERPRINT_SEPARATOR
+                || !value.startsWith(rulesFingerprint)) {
+            return null;
+        }
+        return value.substring(length + 1);
+    }
+
+    /*
+     * Brings the attribute of the given user in line with the email of the user.
+     * Returns true if the attribute had to be changed.
+     */
+    public boolean update(final UserModel user) {
+        final String email = user.getEmail();
+        final String current = user.getFirstAttribute(attribute);
+        if (email == null) {
+            if (current == null) {
+                return false;
+            }
+            user.removeAttribute(attribute);
+            return true;
+        }
+        final String value = valueOf(mapEmail(email));
+        if (value.equals(current)) {
+            return false;
+        }
+        user.setSingleAttribute(attribute, value);
+        return true;
+    }
+
+}
@@ -0,0 +1,91 @@
+// purpose: Precomputes the mapped email address of all existing users of a realm.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * Writes the precomputed email attribute of the users which existed before the event listener was enabled.
+ * Pages through the users of a realm, each page in its own transaction, so neither the realm nor a
+ * single transaction has to hold all users.
+ */
+public class PrecomputedEmailBackfill {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final int RETRY_ATTEMPTS = 3;
+    private static final int RETRY_INTERVAL_MILLIS = 100;
+
+    private static final Logger LOG = Logger.getLogger(PrecomputedEmailBackfill.class);
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final PrecomputedEmail precomputedEmail;
+    private final int batchSize;
+
+    public PrecomputedEmailBackfill(final KeycloakSessionFactory sessionFactory, final PrecomputedEmail precomputedEmail, final int batchSize) {
+        this.sessionFactory = sessionFactory;
+        this.precomputedEmail = precomputedEmail;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * Back-fills all realms. Returns the number of updated users.
+     */
+    public int runForAllRealms() {
+        final List<String> realmIds = KeycloakModelUtils.runJobInRetriableTransaction(sessionFactory,
+                session -> session.realms().getRealmsStream().map(RealmModel::getId).collect(Collectors.toList()),
+                RETRY_ATTEMPTS, RETRY_INTERVAL_MILLIS);
+        int updated = 0;
+        for (String realmId : realmIds) {
+            updated += run(realmId);
+        }
+        return updated;
+    }
+
+    /*
+     * Back-fills the given realm. Returns the number of updated users.
+     */
+    public int run(final String realmId) {
+        int first = 0;
+        int updated = 0;
+        while (true) {
+            final int offset = first;
+            // Returns the number of users on the page and the number of changed users
+            final int[] page = KeycloakModelUtils.runJobInRetriableTransaction(sessionFactory, session -> {
+                final RealmModel realm = session.realms().getRealm(realmId);
+                if (realm == null) {
+                    return new int[] { 0, 0 };
+                }
+                final List<UserModel> users = session.users()
+                        .searchForUserStream(realm, new HashMap<>(), offset, batchSize)
+                        .collect(Collectors.toList());
+                int changed = 0;
+                for (UserModel user : users) {
+                    if (precomputedEmail.update(user)) {
+                        changed++;
+                    }
+                }
+                return new int[] { users.size(), changed };
+            }, RETRY_ATTEMPTS, RETRY_INTERVAL_MILLIS);
+            updated += page[1];
+            first += page[0];
+            if (page[0] < batchSize) {
+                break;
+            }
+        }
+        LOG.infof("Precomputed email attribute '%s' of %d users in realm %s, %d changed",
+                precomputedEmail.getAttribute(), first, realmId, updated);
+        return updated;
+    }
+
+}
@@ -0,0 +1,254 @@
+// purpose: Keyed pseudonyms replacing the local part of mapped email addresses, cached per user and key version.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Replaces the local part of a mapped address by HMAC-SHA256(key, user id), base32 encoded and truncated
+ * to 160 bits: jdoe@example.com becomes 32 characters like 5n3kq...@example.com. The pseudonym of a user
+ * is stable as long as the key is, and without the key it can't be linked to the user or to the
+ * pseudonyms of other keys. Each client gets its own key through the config of its mapper.
+ *
+ * Computed pseudonyms are kept in a bounded LRU cache shared by all mappers and keyed by user id and
+ * key version, derived from the key by salted PBKDF2, so the version, which ends up in the fingerprint
+ * of the config, doesn't make guessing the key cheap. A rotated key compiles a new config with another version, so from the
+ * first token issued with it no pseudonym of the old key is returned anymore, without a window in which
+ * old and new key mix. The entries of the old key age out of the cache.
+ *
+ * Instances are immutable apart from the cache and shared by all threads. Each thread has a single Mac
+ * for all instances, initialized again when the thread computes a pseudonym of another key, so rotated
+ * keys don't linger in threads. Re-initializing costs about as much as one pseudonym, and only cache
+ * misses need the Mac.
+ */
+public final class Pseudonyms {
+
+    public static final String ALGORITHM = "HmacSHA256";
+    public static final int MIN_KEY_LENGTH = 16;
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    static final int PSEUDONYM_BYTES = 20;
+    static final int VERSION_ITERATIONS = 100_000;
+
+    private static final byte[] VERSION_SALT = "custom-email-domain-mapper pseudonym key version".getBytes(StandardCharsets.UTF_8);
+
+    private static final char[] BASE32 = "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+    private static final Cache SHARED_CACHE = new Cache(DEFAULT_MAX_ENTRIES);
+
+    private static final ThreadLocal<ThreadMac> MACS = ThreadLocal.withInitial(ThreadMac::new);
+
+    private final SecretKeySpec key;
+    private final long keyVersion;
+    private final Cache cache;
+
+    Pseudonyms(final String key, final Cache cache) {
+        if (key.length() < MIN_KEY_LENGTH) {
+            throw new IllegalArgumentException("Pseudonym key needs at least " + MIN_KEY_LENGTH + " characters");
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.keyVersion = versionOf(key);
+        this.cache = cache;
+        // Fail compiling the config rather than the first token if the JVM lacks the algorithm or rejects the key
+        MACS.get().init(this.key, keyVersion);
+    }
+
+    /*
+     * @throws IllegalArgumentException if the key is too short
+     */
+    public static Pseudonyms compile(final String key) {
+        return new Pseudonyms(key, SHARED_CACHE);
+    }
+
+    /*
+     * Identifies the key without revealing it, equal keys have equal versions. Testing a guess of the key
+     * against the version costs as much as VERSION_ITERATIONS HMACs.
+     */
+    public long getKeyVersion() {
+        return keyVersion;
+    }
+
+    /*
+     * Returns the pseudonym of the given user.
+     */
+    public String of(final String userId) {
+        String pseudonym = cache.get(keyVersion, userId);
+        if (pseudonym == null) {
+            pseudonym = compute(userId);
+            cache.put(keyVersion, userId, pseudonym);
+        }
+        return pseudonym;
+    }
+
+    /*
+     * Returns the given mapped address with the pseudonym of the given user as local part. A bare local
+     * part is replaced as a whole.
+     */
+    public String apply(final String userId, final String mappedEmail) {
+        final int separatorIndex = EmailDomainRewriter.indexOfDomainSeparator(mappedEmail);
+        final String pseudonym = of(userId);
+        return separatorIndex < 0 ? pseudonym : pseudonym.concat(mappedEmail.substring(separatorIndex));
+    }
+
+    String compute(final String userId) {
+        final byte[] digest = MACS.get().init(key, keyVersion).doFinal(userId.getBytes(StandardCharsets.UTF_8));
+        // 20 bytes are 32 base32 characters of 5 bits each, without padding
+        final char[] chars = new char[PSEUDONYM_BYTES * 8 / 5];
+        int buffer = 0;
+        int bits = 0;
+        int next = 0;
+        for (int i = 0; i < PSEUDONYM_BYTES; i++) {
+            buffer = (buffer << 8) | (digest[i] & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                chars[next++] = BASE32[(buffer >>> bits) & 0x1f];
+            }
+        }
+        return new String(chars);
+    }
+
+    private static long versionOf(final String key) {
+        final PBEKeySpec spec = new PBEKeySpec(key.toCharArray(), VERSION_SALT, VERSION_ITERATIONS, Long.SIZE);
+        try {
+            final byte[] derived = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            long version = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                version = (version << 8) | (derived[i] & 0xff);
+            }
+            return version;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /*
+     * LRU of pseudonyms split into segments by user, so threads issuing tokens for different users rarely
+     * wait for each other. Each segment holds an equal share of the entries.
+     */
+    static final class Cache {
+
+        private static final int SEGMENTS = 16;
+
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        Cache(final int maxEntries) {
+            final int maxEntriesPerSegment = Math.max(1, maxEntries / SEGMENTS);
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment(maxEntriesPerSegment);
+            }
+        }
+
+        String get(final long keyVersion, final String userId) {
+            final Segment segment = segmentOf(userId);
+            synchronized (segment) {
+                return segment.get(new Key(keyVersion, userId));
+            }
+        }
+
+        void put(final long keyVersion, final String userId, final String pseudonym) {
+            final Segment segment = segmentOf(userId);
+            synchronized (segment) {
+                segment.put(new Key(keyVersion, userId), pseudonym);
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    size += segment.size();
+                }
+            }
+            return size;
+        }
+
+        private Segment segmentOf(final String userId) {
+            final int hash = userId.hashCode();
+            return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        }
+
+    }
+
+    private static final class Segment extends LinkedHashMap<Key, String> {
+
+        private final int maxEntries;
+
+        Segment(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, String> eldest) {
+            return size() > maxEntries;
+        }
+
+    }
+
+    /*
+     * The Mac of a thread and the version of the key it was last initialized with.
+     */
+    private static final class ThreadMac {
+
+        private Mac mac;
+        private long keyVersion;
+
+        Mac init(final SecretKeySpec key, final long version) {
+            try {
+                if (mac == null) {
+                    mac = Mac.getInstance(ALGORITHM);
+                } else if (keyVersion == version) {
+                    return mac;
+                }
+                mac.init(key);
+                keyVersion = version;
+                return mac;
+            } catch (GeneralSecurityException e) {
+                // Don't keep a Mac without key
+                mac = null;
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        }
+
+    }
+
+    private static final class Key {
+
+        private final long keyVersion;
+        private final String userId;
+
+        Key(final long keyVersion, final String userId) {
+            this.keyVersion = keyVersion;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return keyVersion == key.keyVersion && userId.equals(key.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(keyVersion) + userId.hashCode();
+        }
+
+    }
+
+}
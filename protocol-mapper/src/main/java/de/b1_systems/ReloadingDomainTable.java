@@ -0,0 +1,275 @@
+// purpose: Keeps a DomainTable in line with its CSV export, swapping in a new table when the file changes.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/*
+ * A DomainTable which follows changes of its export. A daemon thread watches the directory of the
+ * file and loads a changed file into a new table next to the current one. Lookups read the current
+ * table from a volatile field, so they never wait for a reload: calls in flight finish on the old
+ * table, later calls see the new one, and the old mapping is released once it is unreachable.
+ *
+ * Exports should be replaced by moving the new file over the old one. Files written in place are
+ * loaded once their size and modification time stayed the same for SETTLE_MILLIS.
+ *
+ * If a reload fails, e.g. because of a malformed line, the current table stays in use.
+ *
+ * Mapper configs can only name files in the directory set at SPI level, as their paths are edited by
+ * realm admins. Shared tables are only weakly referenced by their watcher threads: once no compiled
+ * config uses a table anymore, its mapping is released and its thread ends within POLL_INTERVAL_MILLIS.
+ */
+public final class ReloadingDomainTable {
+
+    /*
+     * How often the file is checked if the watch service misses changes, e.g. on network file systems.
+     */
+    public static final long POLL_INTERVAL_MILLIS = 30_000;
+    public static final long SETTLE_MILLIS = 1_000;
+
+    /*
+     * SPI option of the mappers naming the directory domain tables are read from. Without it domain
+     * tables are rejected.
+     */
+    public static final String CONFIG_DIRECTORY = "domainTableDirectory";
+
+    private static final Logger LOG = Logger.getLogger(ReloadingDomainTable.class);
+
+    private static final Map<String, WeakReference<ReloadingDomainTable>> SHARED = new HashMap<>();
+
+    private static volatile Path directory;
+
+    private final Path file;
+    private final UnaryOperator<String> targetConversion;
+
+    private volatile DomainTable current;
+    private volatile String loadedVersion;
+
+    ReloadingDomainTable(final Path file, final UnaryOperator<String> targetConversion) {
+        this.file = file;
+        this.targetConversion = targetConversion;
+        this.current = null;
+        reloadIfChanged();
+    }
+
+    public static void setDirectory(final String path) {
+        directory = path == null ? null : Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    /*
+     * Returns the table of the given file shared by all mapper configs using it with the same
+     * transformation of target domains, loading and watching it on first use. Relative paths are
+     * resolved against the domain table directory.
+     *
+     * @throws IllegalArgumentException if no directory is set or the file is outside of it
+     */
+    public static ReloadingDomainTable shared(final String file, final EmailTransformation transformation) {
+        final Path path = resolve(directory, file);
+        final String key = path + (transformation.isPunycode() ? "|punycode" : "");
+        final ReloadingDomainTable existing = sharedTable(key);
+        if (existing != null) {
+            return existing;
+        }
+        // Load outside the lock, a large export takes seconds. Configs compiled concurrently for the
+        // same file may load it twice, all but the first table are dropped.
+        final ReloadingDomainTable loaded = new ReloadingDomainTable(path, transformation::toTargetDomain);
+        final WeakReference<ReloadingDomainTable> reference = new WeakReference<>(loaded);
+        synchronized (SHARED) {
+            final ReloadingDomainTable raced = sharedTable(key);
+            if (raced != null) {
+                return raced;
+            }
+            SHARED.put(key, reference);
+        }
+        startWatching(key, reference, path);
+        return loaded;
+    }
+
+    /*
+     * Resolves the given path of a mapper config against the given directory.
+     *
+     * @throws IllegalArgumentException if the directory is null or the path leads outside of it,
+     *                                  also through symbolic links
+     */
+    static Path resolve(final Path directory, final String file) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Domain tables are disabled, set the SPI option " + CONFIG_DIRECTORY
+                    + " of the mappers to the directory holding them");
+        }
+        final Path path = directory.resolve(file).toAbsolutePath().normalize();
+        boolean inside = path.startsWith(directory) && !path.equals(directory);
+        if (inside && Files.exists(path)) {
+            try {
+                inside = path.toRealPath().startsWith(directory.toRealPath());
+            } catch (IOException e) {
+                inside = false;
+            }
+        }
+        if (!inside) {
+            throw new IllegalArgumentException("Domain table " + file + " is not in the domain table directory");
+        }
+        return path;
+    }
+
+    static int sharedCount() {
+        synchronized (SHARED) {
+            return SHARED.size();
+        }
+    }
+
+    private static ReloadingDomainTable sharedTable(final String key) {
+        synchronized (SHARED) {
+            final WeakReference<ReloadingDomainTable> reference = SHARED.get(key);
+            return reference == null ? null : reference.get();
+        }
+    }
+
+    private static void release(final String key, final WeakReference<ReloadingDomainTable> reference) {
+        synchronized (SHARED) {
+            SHARED.remove(key, reference);
+        }
+    }
+
+    /*
+     * Returns the target domain of the given key in the current table, or null.
+     */
+    public String get(final CharSequence key) {
+        final DomainTable table = current;
+        return table == null ? null : table.get(key);
+    }
+
+    /*
+     * The current table, null until the file could be loaded once.
+     */
+    public DomainTable getCurrent() {
+        return current;
+    }
+
+    /*
+     * Loads the file if it changed since the last load. Returns true if a new table was swapped in.
+     */
+    boolean reloadIfChanged() {
+        final String version = versionOf(file);
+        if (version == null || version.equals(loadedVersion)) {
+            return false;
+        }
+        try {
+            final long start = System.nanoTime();
+            final DomainTable table = DomainTable.load(file, targetConversion);
+            current = table;
+            loadedVersion = version;
+            LOG.infof("Loaded %d entries of domain table %s into %d mapped bytes in %d ms", table.size(), file,
+                    table.getMappedBytes(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Don't try the same broken file again, wait for the next change
+            loadedVersion = version;
+            LOG.errorf(e, "Loading domain table %s failed, keeping the previous table", file);
+            return false;
+        }
+    }
+
+    private static void startWatching(final String key, final WeakReference<ReloadingDomainTable> reference, final Path file) {
+        final Thread watcher = new Thread(() -> watch(key, reference, file), "custom-email-domain-table-" + file.getFileName());
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /*
+     * Runs on the watcher thread, which must not hold the table between polls, so it can be collected.
+     */
+    private static void watch(final String key, final WeakReference<ReloadingDomainTable> reference, final Path file) {
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf("Can't watch %s, polling it every %d ms instead: %s", file, POLL_INTERVAL_MILLIS, e.getMessage());
+        }
+        try {
+            while (!Thread.currentThread().isInterrupted() && reloadIfReachable(reference)) {
+                if (watchService == null) {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                } else {
+                    final WatchKey watchKey = watchService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (watchKey != null) {
+                        watchKey.pollEvents();
+                        watchKey.reset();
+                    }
+                }
+            }
+            LOG.debugf("Domain table %s is no longer used, stopped watching it", file);
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            release(key, reference);
+            close(watchService);
+        }
+    }
+
+    /*
+     * Reloads the table if a config still uses it. Returns false once the table was collected.
+     */
+    private static boolean reloadIfReachable(final WeakReference<ReloadingDomainTable> reference) throws InterruptedException {
+        final ReloadingDomainTable table = reference.get();
+        if (table == null) {
+            return false;
+        }
+        table.awaitSettled();
+        table.reloadIfChanged();
+        return true;
+    }
+
+    private static void close(final WatchService watchService) {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debugf("Closing the watch service failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Waits until a file being written stops changing.
+     */
+    private void awaitSettled() throws InterruptedException {
+        String version = versionOf(file);
+        while (version != null && !version.equals(loadedVersion)) {
+            Thread.sleep(SETTLE_MILLIS);
+            final String settled = versionOf(file);
+            if (version.equals(settled)) {
+                return;
+            }
+            version = settled;
+        }
+    }
+
+    private static String versionOf(final Path file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.lastModifiedTime() + "/" + attributes.size() + "/" + attributes.fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
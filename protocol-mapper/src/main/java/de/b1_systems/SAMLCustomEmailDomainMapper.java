@@ -10,17 +10,20 @@
 
 package de.b1_systems;
 
+import org.keycloak.Config;
 import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
-import org.keycloak.dom.saml.v2.assertion.AttributeType;
 import org.keycloak.models.AuthenticatedClientSessionModel;
 import org.keycloak.models.ClientSessionContext;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ProtocolMapperContainerModel;
 import org.keycloak.models.ProtocolMapperModel;
 import org.keycloak.models.UserSessionModel;
-import org.keycloak.models.UserModel;
+import org.keycloak.models.RealmModel;
 import org.keycloak.protocol.saml.mappers.AbstractSAMLProtocolMapper;
 import org.keycloak.protocol.saml.mappers.AttributeStatementHelper;
 import org.keycloak.protocol.saml.mappers.SAMLAttributeStatementMapper;
+import org.keycloak.protocol.ProtocolMapperConfigException;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.representations.IDToken;
@@ -44,20 +47,26 @@ public class SAMLCustomEmailDomainMapper extends AbstractSAMLProtocolMapper impl
      */
     public static final String PROVIDER_ID = "saml-custom-email-domain-mapper";
 
-    public static final String EMAIL_DOMAIN = "emailDomain";
-    public static final String DEFAULT_EMAIL_DOMAIN = "example.com";
-    public static final String SAML_ATTRIBUTE_NAME = "SAMLAttributeStatement";
-    public static final String DEFAULT_SAML_ATTRIBUTE_NAME = "http://schemas.xmlsoap.org/ws/2005/05/identity/claims/emailaddress";
-    public static final String SAML_ATTRIBUTE_NAMEFORMAT = "SAMLAttributeFormat";
+    private static final EmailDomainMapperMetrics METRICS = EmailDomainMapperMetrics.forProtocol(EmailDomainMapperMetrics.PROTOCOL_SAML);
+
+    public static final String EMAIL_DOMAIN = EmailDomainMapperConfig.EMAIL_DOMAIN;
+    public static final String DEFAULT_EMAIL_DOMAIN = EmailDomainMapperConfig.DEFAULT_EMAIL_DOMAIN;
+    public static final String SAML_ATTRIBUTE_NAME = EmailDomainMapperConfig.SAML_ATTRIBUTE_NAME;
+    public static final String DEFAULT_SAML_ATTRIBUTE_NAME = EmailDomainMapperConfig.DEFAULT_SAML_ATTRIBUTE_NAME;
+    public static final String SAML_ATTRIBUTE_NAMEFORMAT = EmailDomainMapperConfig.SAML_ATTRIBUTE_NAMEFORMAT;
 
     static {
 
         configProperties = ProviderConfigurationBuilder.create()
                 .property()
                 .name(EMAIL_DOMAIN)
-                .type(ProviderConfigProperty.STRING_TYPE)
+                .type(ProviderConfigProperty.TEXT_TYPE)
                 .label("Email Domain")
-                .helpText("Return an email address where the domain part is replaced with this custom domain.")
+                .helpText("Return an email address where the domain part is replaced with this custom domain. "
+                        + "Alternatively a list of rules, one per line: 'source.domain -> target.domain' for an exact match, "
+                        + "'*.source.domain -> target.domain' for all subdomains and a plain 'target.domain' as default. "
+                        + "Exact matches win over longer wildcards, longer wildcards over shorter ones. "
+                        + "Without a default, addresses matching no rule keep their domain.")
                 .defaultValue(DEFAULT_EMAIL_DOMAIN)
                 .add()
                 .property()
@@ -79,6 +88,8 @@ public class SAMLCustomEmailDomainMapper extends AbstractSAMLProtocolMapper impl
                 )
                 .add()
                 .build();
+        // The options both custom email domain mappers share
+        EmailDomainMapperConfig.addConfigProperties(configProperties);
     }
 
     @Override
@@ -106,37 +117,72 @@ public class SAMLCustomEmailDomainMapper extends AbstractSAMLProtocolMapper impl
         return PROVIDER_ID;
     }
 
+    @Override
+    public void init(final Config.Scope config) {
+        // --spi-protocol-mapper-saml-custom-email-domain-mapper-metrics-histogram=true
+        METRICS.setPercentileHistogram(config.getBoolean(EmailDomainMapperMetrics.CONFIG_METRICS_HISTOGRAM, false));
+        // --spi-protocol-mapper-saml-custom-email-domain-mapper-domain-table-directory=/opt/keycloak/domain-tables
+        final String domainTableDirectory = config.get(ReloadingDomainTable.CONFIG_DIRECTORY);
+        if (domainTableDirectory != null) {
+            ReloadingDomainTable.setDirectory(domainTableDirectory);
+        }
+    }
+
+    @Override
+    public void postInit(final KeycloakSessionFactory factory) {
+        EmailDomainMapperConfigCache.shared().registerInvalidationListener(factory);
+        GroupDomainCache.shared().registerInvalidationListener(factory);
+        METRICS.registerRemovalListener(factory);
+    }
+
+    @Override
+    public void validateConfig(final KeycloakSession session,
+                               final RealmModel realm,
+                               final ProtocolMapperContainerModel client,
+                               final ProtocolMapperModel mapperModel) throws ProtocolMapperConfigException {
+        // Called whenever the mapper is created or updated, so drop what we compiled from the old config
+        EmailDomainMapperConfigCache.shared().invalidate(mapperModel.getId());
+        GroupDomainCache.shared().invalidate(realm.getId());
+        // Reject configs which would fail on every token
+        try {
+            EmailDomainMapperConfig.compile(mapperModel.getConfig());
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolMapperConfigException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void transformAttributeStatement(AttributeStatementType attributeStatement,
                                             ProtocolMapperModel mappingModel,
                                             KeycloakSession session,
                                             UserSessionModel userSession,
                                             AuthenticatedClientSessionModel clientSession) {
-        // Get User
-        UserModel user = userSession.getUser();
-        // Get Email
-        String userEmail = user.getEmail();
-        // Check if Email is empty and throw exception
-        if (userEmail == null) {
-            throw new RuntimeException("User email is null");
+        final long start = System.nanoTime();
+        EmailDomainMapperMetrics.Outcome outcome = EmailDomainMapperMetrics.Outcome.ERROR;
+        try {
+            // Get the compiled mapper config
+            EmailDomainMapperConfig config = EmailDomainMapperConfigCache.shared().get(mappingModel);
+            // Get the Email with the custom domain its rules choose, or what the missing email policy falls back to
+            final MappedEmailResolver.Resolution resolution = MappedEmailResolver.resolveOrFallBack(config, userSession);
+            final String attributeValue = resolution.getValue();
+            if (attributeValue == null) {
+                outcome = resolution.getOutcome();
+                if (resolution.isFailure()) {
+                    throw new RuntimeException("User email is null");
+                }
+                return;
+            }
+            // Finally, do the mapping with our custom claim, only the value differs between assertions.
+            if (config.hasAliasDomains()) {
+                attributeStatement.addAttribute(config.getSamlAttributeTemplate().stamp(MappedEmailResolver.withAliases(config, attributeValue)));
+            } else {
+                attributeStatement.addAttribute(config.getSamlAttributeTemplate().stamp(attributeValue));
+            }
+            outcome = resolution.getOutcome();
+        } finally {
+            METRICS.record(userSession.getRealm(), clientSession == null ? null : clientSession.getClient(), outcome,
+                    System.nanoTime() - start);
         }
-        // Split Email
-        String emailAddrSpec = userEmail.split("@")[0];
-        // Define custome Email Domain or if empty a sane default
-        String emailDomain = mappingModel.getConfig().getOrDefault(EMAIL_DOMAIN, DEFAULT_EMAIL_DOMAIN);
-        // Set attribute name
-        String attributeName = mappingModel.getConfig().getOrDefault(SAML_ATTRIBUTE_NAME, DEFAULT_SAML_ATTRIBUTE_NAME);
-        // Set attribute format
-        String attributeFormat = mappingModel.getConfig().get(SAML_ATTRIBUTE_NAMEFORMAT);
-        // Concat Email AddressSpec with custom domain
-        String attributeValue = emailAddrSpec + "@" + emailDomain;
-        // Finally, do the mapping with our custom claim.
-        AttributeType attribute = new AttributeType("attribute");
-        attribute.setFriendlyName("Email from Custom Email Domain Mapper");
-        attribute.setNameFormat(attributeFormat);
-        attribute.setName(attributeName);
-        attribute.addAttributeValue(attributeValue);
-        attributeStatement.addAttribute(new AttributeStatementType.ASTChoiceType(attribute));
     }
 
 }
\ No newline at end of file
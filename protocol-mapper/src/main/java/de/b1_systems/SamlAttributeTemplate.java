@@ -0,0 +1,75 @@
+// purpose: Immutable template of the SAML attribute the SAML custom email domain mapper adds to assertions.
+// copyright: B1 Systems GmbH <info@b1-systems.de>, 2023.
+// license: Apacje License, Version 2.0, https://www.apache.org/licenses/LICENSE-2.0
+
+package de.b1_systems;
+
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.dom.saml.v2.assertion.AttributeType;
+
+import java.util.List;
+
+/*
+ * Name, name format and friendly name of the SAML attribute, fixed once per mapper config.
+ * Only the value changes from assertion to assertion, see stamp(String). The stamped attributes are
+ * ordinary, mutable AttributeTypes of their own, as later mappers and keycloak may change them, so
+ * stamping allocates as much as building the attribute by hand: the template only saves reading the
+ * config per assertion, not allocations.
+ */
+public final class SamlAttributeTemplate {
+
+    public static final String FRIENDLY_NAME = "Email from Custom Email Domain Mapper";
+
+    private final String name;
+    private final String nameFormat;
+    private final String friendlyName;
+
+    public SamlAttributeTemplate(final String name, final String nameFormat, final String friendlyName) {
+        this.name = name;
+        this.nameFormat = nameFormat;
+        this.friendlyName = friendlyName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getNameFormat() {
+        return nameFormat;
+    }
+
+    public String getFriendlyName() {
+        return friendlyName;
+    }
+
+    /*
+     * Returns the attribute with the given value, ready to be added to an attribute statement.
+     */
+    public AttributeStatementType.ASTChoiceType stamp(final String value) {
+        final AttributeType attribute = newAttribute();
+        attribute.addAttributeValue(value);
+        return new AttributeStatementType.ASTChoiceType(attribute);
+    }
+
+    /*
+     * Returns the multi-valued attribute with the given values.
+     */
+    public AttributeStatementType.ASTChoiceType stamp(final List<String> values) {
+        final AttributeType attribute = newAttribute();
+        for (int i = 0; i < values.size(); i++) {
+            attribute.addAttributeValue(values.get(i));
+        }
+        return new AttributeStatementType.ASTChoiceType(attribute);
+    }
+
+    /*
+     * A plain attribute per assertion, so later mappers and keycloak itself may still change it.
+     */
+    private AttributeType newAttribute() {
+        final AttributeType attribute = new AttributeType(name);
+        attribute.setNameFormat(nameFormat);
+        attribute.setFriendlyName(friendlyName);
+        return attribute;
+    }
+
+}
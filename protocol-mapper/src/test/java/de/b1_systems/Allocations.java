@@ -0,0 +1,49 @@
+package de.b1_systems;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.IntSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Measures the heap bytes a call allocates on the current thread, for tests guarding allocation-lean code paths.
+ */
+final class Allocations {
+
+    private static final int ITERATIONS = 100_000;
+
+    private Allocations() {
+    }
+
+    /*
+     * False on JVMs which can't count the bytes a thread allocates, tests should skip their checks then.
+     */
+    static boolean isSupported() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+    }
+
+    /*
+     * Returns the bytes one call of the given code allocates on average. The code returns something
+     * derived from its result, so the JIT can't drop the call.
+     */
+    static long bytesPerCall(final IntSupplier call) {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        int sink = 0;
+        // warm up, so the measured loop runs compiled code
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += call.getAsInt();
+        }
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += call.getAsInt();
+        }
+        final long after = threadMXBean.getThreadAllocatedBytes(threadId);
+        assertThat(sink).isPositive();
+        return (after - before) / ITERATIONS;
+    }
+
+}
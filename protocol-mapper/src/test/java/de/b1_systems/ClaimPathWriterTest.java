@@ -0,0 +1,108 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.protocol.ProtocolMapperUtils;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.representations.IDToken;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ClaimPathWriterTest {
+
+    private static final List<String> CLAIM_NAMES = Arrays.asList("email", "mail.custom", "a.b.c", "escaped\\.dot",
+            "a\\.b.c", "trailing.", "sub", "azp", "acr", "aud", "iss", "exp", "sub.nested", "", null);
+
+    private static final List<Object> VALUES = Arrays.asList("jdoe@example.com", List.of("jdoe@example.com"),
+            List.of("jdoe@example.com", "jdoe@group.example"), Collections.emptyList(), Arrays.asList("jdoe@example.com", null), null);
+
+    private static ProtocolMapperModel model(final String claimName, final boolean multivalued, final String jsonType) {
+        final Map<String, String> config = new HashMap<>();
+        if (claimName != null) {
+            config.put(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, claimName);
+        }
+        if (multivalued) {
+            config.put(ProtocolMapperUtils.MULTIVALUED, "true");
+        }
+        if (jsonType != null) {
+            config.put(OIDCAttributeMapperHelper.JSON_TYPE, jsonType);
+        }
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setName("test");
+        model.setConfig(config);
+        return model;
+    }
+
+    private static IDToken tokenWithClaims() {
+        final IDToken token = new IDToken();
+        final Map<String, Object> mail = new HashMap<>();
+        mail.put("other", "kept");
+        token.getOtherClaims().put("mail", mail);
+        return token;
+    }
+
+    /*
+     * The token as JSON, or the exception if the mapping failed.
+     */
+    private static String outcome(final Consumer<IDToken> mapping) throws IOException {
+        final IDToken token = tokenWithClaims();
+        try {
+            mapping.accept(token);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+        return JsonSerialization.writeValueAsString(token);
+    }
+
+    @Test
+    public void shouldWriteLikeMapClaim() throws IOException {
+        for (String claimName : CLAIM_NAMES) {
+            for (boolean multivalued : new boolean[] { false, true }) {
+                for (String jsonType : Arrays.asList(null, "String")) {
+                    final ProtocolMapperModel model = model(claimName, multivalued, jsonType);
+                    final ClaimPathWriter writer = ClaimPathWriter.compile(model.getConfig());
+                    for (Object value : VALUES) {
+                        final String expected = outcome(token -> OIDCAttributeMapperHelper.mapClaim(token, model, value));
+                        final String actual = outcome(token -> writer.write(token, model, value));
+
+                        assertThat(actual)
+                                .as("claim %s, multivalued %s, json type %s, value %s", claimName, multivalued, jsonType, value)
+                                .isEqualTo(expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteNestedClaim() {
+        final ClaimPathWriter writer = ClaimPathWriter.compile(model("mail.custom", false, null).getConfig());
+        final IDToken token = tokenWithClaims();
+
+        writer.write(token, model("mail.custom", false, null), "jdoe@example.com");
+
+        assertThat(token.getOtherClaims().get("mail")).isEqualTo(Map.of("other", "kept", "custom", "jdoe@example.com"));
+    }
+
+    @Test
+    public void shouldFailLikeMapClaimOnNonObjectParent() {
+        final ProtocolMapperModel model = model("mail.other.custom", false, null);
+        final ClaimPathWriter writer = ClaimPathWriter.compile(model.getConfig());
+
+        assertThatThrownBy(() -> OIDCAttributeMapperHelper.mapClaim(tokenWithClaims(), model, "jdoe@example.com"))
+                .isInstanceOf(ClassCastException.class);
+        assertThatThrownBy(() -> writer.write(tokenWithClaims(), model, "jdoe@example.com"))
+                .isInstanceOf(ClassCastException.class);
+    }
+
+}
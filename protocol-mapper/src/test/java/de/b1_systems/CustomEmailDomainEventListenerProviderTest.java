@@ -0,0 +1,59 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CustomEmailDomainEventListenerProviderTest {
+
+    @Test
+    public void shouldParseUserIdsOfResourcePaths() {
+        assertThat(CustomEmailDomainEventListenerProvider.userIdOf("users/id-1")).isEqualTo("id-1");
+        assertThat(CustomEmailDomainEventListenerProvider.userIdOf("users/id-1/groups/group-1")).isNull();
+        assertThat(CustomEmailDomainEventListenerProvider.memberIdOf("users/id-1/groups/group-1")).isEqualTo("id-1");
+        assertThat(CustomEmailDomainEventListenerProvider.memberIdOf("users/id-1")).isNull();
+        assertThat(CustomEmailDomainEventListenerProvider.memberIdOf("users//groups/group-1")).isNull();
+        assertThat(CustomEmailDomainEventListenerProvider.memberIdOf("groups/group-1/children")).isNull();
+    }
+
+    @Test
+    public void shouldForgetCachedAddressesWhenGroupMembershipChanges() {
+        final KeycloakSession session = Mockito.mock(KeycloakSession.class, Mockito.RETURNS_DEEP_STUBS);
+        final RealmModel realm = Mockito.mock(RealmModel.class);
+        final UserModel user = Mockito.mock(UserModel.class);
+        final UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        final Map<String, String> notes = new HashMap<>();
+        notes.put(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX + "abc", "jdoe@group.example");
+        when(realm.getId()).thenReturn("realm-1");
+        when(user.getId()).thenReturn("id-1");
+        when(userSession.getNotes()).thenReturn(notes);
+        when(session.realms().getRealm("realm-1")).thenReturn(realm);
+        when(session.users().getUserById(realm, "id-1")).thenReturn(user);
+        when(session.sessions().getUserSessionsStream(realm, user)).thenReturn(Stream.of(userSession));
+        when(session.sessions().getOfflineUserSessionsStream(realm, user)).thenReturn(Stream.empty());
+        final AdminEvent event = new AdminEvent();
+        event.setRealmId("realm-1");
+        event.setResourceType(ResourceType.GROUP_MEMBERSHIP);
+        event.setOperationType(OperationType.CREATE);
+        event.setResourcePath("users/id-1/groups/group-1");
+
+        new CustomEmailDomainEventListenerProvider(session, null).onEvent(event, false);
+
+        verify(userSession).removeNote(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX + "abc");
+    }
+
+}
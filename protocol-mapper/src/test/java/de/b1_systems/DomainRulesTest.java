@@ -0,0 +1,127 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DomainRulesTest {
+
+    @Test
+    public void shouldMapEverythingToSingleDomain() {
+        final DomainRules rules = DomainRules.compile("example.com");
+
+        assertThat(rules.targetFor("jdoe@corp-a.de")).isEqualTo("example.com");
+        assertThat(rules.targetFor("jdoe")).isEqualTo("example.com");
+    }
+
+    @Test
+    public void shouldApplyPrecedence() {
+        final DomainRules rules = DomainRules.compile(String.join("\n",
+                "*.corp-a.de -> group.example",
+                "*.sales.corp-a.de -> sales.example",
+                "board.sales.corp-a.de -> board.example",
+                "corp-b.com -> group.example",
+                "fallback.example"));
+
+        assertThat(rules.targetFor("jdoe@board.sales.corp-a.de")).isEqualTo("board.example");
+        assertThat(rules.targetFor("jdoe@eu.sales.corp-a.de")).isEqualTo("sales.example");
+        assertThat(rules.targetFor("jdoe@hr.corp-a.de")).isEqualTo("group.example");
+        assertThat(rules.targetFor("jdoe@corp-a.de")).isEqualTo("fallback.example");
+        assertThat(rules.targetFor("jdoe@corp-b.com")).isEqualTo("group.example");
+        assertThat(rules.targetFor("jdoe@eu.corp-b.com")).isEqualTo("fallback.example");
+    }
+
+    @Test
+    public void shouldKeepDomainWithoutDefault() {
+        final DomainRules rules = DomainRules.compile("corp-b.com -> group.example, *.corp-a.de -> group.example");
+
+        assertThat(rules.targetFor("jdoe@other.org")).isNull();
+        assertThat(EmailDomainRewriter.rewrite("jdoe@other.org", rules)).isEqualTo("jdoe@other.org");
+        assertThat(EmailDomainRewriter.rewrite("jdoe@corp-b.com", rules)).isEqualTo("jdoe@group.example");
+    }
+
+    @Test
+    public void shouldIgnoreCase() {
+        final DomainRules rules = DomainRules.compile("Corp-B.com -> group.example; *.CORP-A.de -> group.example");
+
+        assertThat(rules.targetFor("jdoe@CORP-B.COM")).isEqualTo("group.example");
+        assertThat(rules.targetFor("jdoe@Hr.Corp-A.DE")).isEqualTo("group.example");
+    }
+
+    @Test
+    public void shouldRejectInvalidRules() {
+        assertThatThrownBy(() -> DomainRules.compile("corp-b.com -> ")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DomainRules.compile("corp-*.com -> group.example")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DomainRules.compile("corp-b.com -> a.example\ncorp-b.com -> b.example"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DomainRules.compile("a.example, b.example")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldMatchNaiveLinearScan() {
+        final Random random = new Random(42);
+        final List<String[]> ruleList = new ArrayList<>();
+        final StringBuilder config = new StringBuilder();
+        final List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final String source = randomDomain(random);
+            if (sources.contains(source)) {
+                continue;
+            }
+            sources.add(source);
+            final String target = "target" + i + ".example";
+            ruleList.add(new String[] { source, target });
+            config.append(source).append(" -> ").append(target).append('\n');
+        }
+        config.append("fallback.example");
+        final DomainRules rules = DomainRules.compile(config.toString());
+
+        for (int i = 0; i < 20_000; i++) {
+            final String domain = i % 2 == 0 ? randomDomain(random).replace("*.", "x.") : randomDomain(random).replace("*.", "");
+            final String email = "jdoe@" + (random.nextBoolean() ? domain : domain.toUpperCase(Locale.ROOT));
+            assertThat(rules.targetFor(email)).as(email).isEqualTo(naiveTargetFor(ruleList, domain, "fallback.example"));
+        }
+    }
+
+    /*
+     * The reference implementation: scans all rules and keeps the best match.
+     */
+    private static String naiveTargetFor(final List<String[]> ruleList, final String domain, final String defaultTarget) {
+        String bestTarget = null;
+        int bestScore = -1;
+        for (String[] rule : ruleList) {
+            final String source = rule[0];
+            int score = -1;
+            if (source.equals(domain)) {
+                score = Integer.MAX_VALUE;
+            } else if (source.startsWith("*.") && domain.endsWith(source.substring(1))) {
+                score = source.length();
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestTarget = rule[1];
+            }
+        }
+        return bestTarget != null ? bestTarget : defaultTarget;
+    }
+
+    private static String randomDomain(final Random random) {
+        final String[] labels = { "corp", "eu", "us", "sales", "hr", "it", "a", "b", "c", "d" };
+        final String[] tlds = { "de", "com", "org" };
+        final StringBuilder domain = new StringBuilder();
+        if (random.nextInt(3) == 0) {
+            domain.append("*.");
+        }
+        final int depth = 1 + random.nextInt(3);
+        for (int i = 0; i < depth; i++) {
+            domain.append(labels[random.nextInt(labels.length)]).append('.');
+        }
+        return domain.append(tlds[random.nextInt(tlds.length)]).toString();
+    }
+}
@@ -0,0 +1,114 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+public class DomainShardsTest {
+
+    private static final int USERS = 100_000;
+
+    @Test
+    public void shouldSpreadUsersEvenly() {
+        final DomainShards shards = DomainShards.compile("mx1.example, mx2.example\nmx3.example mx4.example;mx5.example",
+                UnaryOperator.identity());
+        final Map<String, Integer> indexes = Map.of("mx1.example", 0, "mx2.example", 1, "mx3.example", 2, "mx4.example", 3,
+                "mx5.example", 4);
+        final int[] counts = new int[5];
+        for (String userId : userIds()) {
+            counts[indexes.get(shards.targetFor(userId))]++;
+        }
+
+        for (int count : counts) {
+            // Expected 20000 each, a binomial standard deviation is about 126
+            assertThat(count).isBetween(USERS / 5 - 1000, USERS / 5 + 1000);
+        }
+    }
+
+    @Test
+    public void shouldSpreadSequentialIdsEvenly() {
+        final int[] counts = new int[4];
+        for (int i = 0; i < USERS; i++) {
+            counts[DomainShards.jumpHash(DomainShards.hash("f:ldap:user" + i), counts.length)]++;
+        }
+
+        for (int count : counts) {
+            assertThat(count).isBetween(USERS / 4 - 1000, USERS / 4 + 1000);
+        }
+    }
+
+    @Test
+    public void shouldMoveOnlyUsersOfNewDomainWhenPoolGrows() {
+        final DomainShards before = DomainShards.compile("mx1.example mx2.example mx3.example mx4.example mx5.example",
+                UnaryOperator.identity());
+        final DomainShards after = DomainShards.compile("mx1.example mx2.example mx3.example mx4.example mx5.example mx6.example",
+                UnaryOperator.identity());
+        int moved = 0;
+        for (String userId : userIds()) {
+            final String domain = before.targetFor(userId);
+            final String newDomain = after.targetFor(userId);
+            if (!domain.equals(newDomain)) {
+                assertThat(newDomain).isEqualTo("mx6.example");
+                moved++;
+            }
+        }
+
+        // The new domain takes a sixth, about 16667 users
+        assertThat(moved).isBetween(USERS / 6 - 1000, USERS / 6 + 1000);
+    }
+
+    @Test
+    public void shouldNotAllocate() {
+        if (!Allocations.isSupported()) {
+            return;
+        }
+        final DomainShards shards = DomainShards.compile("mx1.example mx2.example mx3.example", UnaryOperator.identity());
+        final String userId = "2f1c4b0e-8d3a-4e57-9a61-0c5d7e9f1a23";
+
+        assertThat(Allocations.bytesPerCall(() -> shards.targetFor(userId).length())).isZero();
+    }
+
+    @Test
+    public void shouldMapToShardDomainOfUser() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.SHARD_DOMAINS, "mx1.example\nbücher.example",
+                EmailDomainMapperConfig.TRANSFORMATIONS, "punycode"));
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getId()).thenReturn("2f1c4b0e-8d3a-4e57-9a61-0c5d7e9f1a23");
+
+        final String mapped = config.mapEmail(null, user, "jdoe@corp-a.de");
+
+        assertThat(config.getDomainShards().getDomains()).containsExactly("mx1.example", "xn--bcher-kva.example");
+        assertThat(mapped).isIn("jdoe@mx1.example", "jdoe@xn--bcher-kva.example");
+        assertThat(config.mapEmail(user.getId(), "jdoe", "jdoe@corp-a.de")).isEqualTo(mapped);
+    }
+
+    @Test
+    public void shouldRejectInvalidPools() {
+        assertThatThrownBy(() -> DomainShards.compile("mx1.example mx1.example", UnaryOperator.identity()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DomainShards.compile("jdoe@mx1.example", UnaryOperator.identity()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DomainShards.compile(" ,; ", UnaryOperator.identity()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String[] userIds() {
+        final Random random = new Random(42);
+        final String[] userIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+        }
+        return userIds;
+    }
+
+}
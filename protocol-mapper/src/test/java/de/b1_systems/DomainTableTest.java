@@ -0,0 +1,87 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DomainTableTest {
+
+    @TempDir
+    Path directory;
+
+    private DomainTable load(final String... lines) throws IOException {
+        final Path csv = Files.write(directory.resolve("domains.csv"), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return DomainTable.load(csv, UnaryOperator.identity());
+    }
+
+    @Test
+    public void shouldLookUpIgnoringCase() throws IOException {
+        final DomainTable table = load("# email,domain", "jdoe@corp-a.de,group.example", "", "\"J.Roe@Corp-B.com\";\"sales.example\"",
+                "jöe@corp-a.de\tgroup.example");
+
+        assertThat(table.size()).isEqualTo(3);
+        assertThat(table.get("JDoe@Corp-A.de")).isEqualTo("group.example");
+        assertThat(table.get("j.roe@corp-b.com")).isEqualTo("sales.example");
+        assertThat(table.get("JÖE@corp-a.de")).isEqualTo("group.example");
+        assertThat(table.get("jdoe@corp-a.d")).isNull();
+        assertThat(table.get("jdoe@corp-a.dee")).isNull();
+        assertThat(table.get("jöe@corp-b.com")).isNull();
+        assertThat(table.get(null)).isNull();
+    }
+
+    @Test
+    public void shouldLetLastDuplicateWin() throws IOException {
+        final DomainTable table = load("jdoe@corp-a.de,group.example", "JDOE@corp-a.de,sales.example");
+
+        assertThat(table.size()).isEqualTo(1);
+        assertThat(table.get("jdoe@corp-a.de")).isEqualTo("sales.example");
+    }
+
+    @Test
+    public void shouldFindAllKeysOfLargeTable() throws IOException {
+        final String[] lines = new String[10_000];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "user-" + i + ",domain-" + (i % 7) + ".example";
+        }
+        final DomainTable table = load(lines);
+
+        assertThat(table.size()).isEqualTo(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertThat(table.get("user-" + i)).isEqualTo("domain-" + (i % 7) + ".example");
+        }
+        assertThat(table.get("user-" + lines.length)).isNull();
+    }
+
+    @Test
+    public void shouldHandleEmptyTable() throws IOException {
+        final DomainTable table = load("# nothing yet");
+
+        assertThat(table.size()).isZero();
+        assertThat(table.get("jdoe@corp-a.de")).isNull();
+    }
+
+    @Test
+    public void shouldConvertDomainsOnce() throws IOException {
+        final Path csv = Files.write(directory.resolve("domains.csv"),
+                "jdoe@corp-a.de,bücher.example\n".getBytes(StandardCharsets.UTF_8));
+
+        final DomainTable table = DomainTable.load(csv, EmailTransformation.compile("punycode")::toTargetDomain);
+
+        assertThat(table.get("jdoe@corp-a.de")).isEqualTo("xn--bcher-kva.example");
+    }
+
+    @Test
+    public void shouldRejectLinesWithoutDomain() {
+        assertThatThrownBy(() -> load("jdoe@corp-a.de")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> load("jdoe@corp-a.de,")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
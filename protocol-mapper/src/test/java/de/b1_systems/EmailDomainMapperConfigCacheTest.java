@@ -0,0 +1,81 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ProtocolMapperModel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmailDomainMapperConfigCacheTest {
+
+    @Test
+    public void shouldReuseCompiledConfigForUnchangedModel() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(16);
+        final ProtocolMapperModel model = givenMapper("mapper-1", "group.example");
+
+        final EmailDomainMapperConfig first = cache.get(model);
+
+        assertThat(cache.get(model)).isSameAs(first);
+        assertThat(first.getDomainRules().targetFor("jdoe@corp-a.de")).isEqualTo("group.example");
+    }
+
+    @Test
+    public void shouldReuseCompiledConfigForEqualConfigOfReloadedModel() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(16);
+
+        final EmailDomainMapperConfig first = cache.get(givenMapper("mapper-1", "group.example"));
+
+        assertThat(cache.get(givenMapper("mapper-1", "group.example"))).isSameAs(first);
+    }
+
+    @Test
+    public void shouldRecompileChangedConfig() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(16);
+        cache.get(givenMapper("mapper-1", "group.example"));
+
+        final EmailDomainMapperConfig changed = cache.get(givenMapper("mapper-1", "other.example"));
+
+        assertThat(changed.getDomainRules().targetFor("jdoe@corp-a.de")).isEqualTo("other.example");
+    }
+
+    @Test
+    public void shouldRecompileAfterInvalidation() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(16);
+        final ProtocolMapperModel model = givenMapper("mapper-1", "group.example");
+        final EmailDomainMapperConfig first = cache.get(model);
+
+        cache.invalidate("mapper-1");
+
+        assertThat(cache.get(model)).isNotSameAs(first);
+    }
+
+    @Test
+    public void shouldStayBounded() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(4);
+
+        for (int i = 0; i < 100; i++) {
+            cache.get(givenMapper("mapper-" + i, "group.example"));
+        }
+
+        assertThat(cache.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldUseDefaultsForBlankConfig() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(EmailDomainMapperConfig.EMAIL_DOMAIN, " "));
+
+        assertThat(config.getDomainRules().getDefaultTarget()).isEqualTo(EmailDomainMapperConfig.DEFAULT_EMAIL_DOMAIN);
+        assertThat(config.getSamlAttributeName()).isEqualTo(EmailDomainMapperConfig.DEFAULT_SAML_ATTRIBUTE_NAME);
+    }
+
+    private ProtocolMapperModel givenMapper(final String id, final String emailDomain) {
+        final ProtocolMapperModel model = new ProtocolMapperModel();
+        model.setId(id);
+        final Map<String, String> config = new HashMap<>();
+        config.put(EmailDomainMapperConfig.EMAIL_DOMAIN, emailDomain);
+        model.setConfig(config);
+        return model;
+    }
+}
@@ -0,0 +1,65 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmailDomainMapperConfigTest {
+
+    @TempDir
+    Path directory;
+
+    private EmailDomainMapperConfig compileWithTable(final Map<String, String> config) {
+        // A table of its own instead of the shared one, which would need the domain table directory and a watcher thread
+        return EmailDomainMapperConfig.compile(config,
+                (file, transformation) -> new ReloadingDomainTable(directory.resolve(file), transformation::toTargetDomain));
+    }
+
+    @Test
+    public void shouldFingerprintPseudonymKeyByVersionOnly() {
+        final Map<String, String> config = Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.PSEUDONYM_KEY, "0123456789abcdef");
+        final EmailDomainMapperConfig compiled = EmailDomainMapperConfig.compile(config);
+        final EmailDomainMapperConfig rotated = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.PSEUDONYM_KEY, "fedcba9876543210"));
+
+        assertThat(compiled.getFingerprint())
+                .isEqualTo(EmailDomainMapperConfig.compile(config).getFingerprint())
+                .isNotEqualTo(rotated.getFingerprint())
+                .isNotEqualTo(EmailDomainMapperConfig.fingerprint(new TreeMap<>(config).toString()));
+    }
+
+    @Test
+    public void shouldMapByTableKeyWithoutUserModel() throws IOException {
+        Files.write(directory.resolve("domains.csv"), "jdoe,sales.example\n".getBytes(StandardCharsets.UTF_8));
+        final EmailDomainMapperConfig config = compileWithTable(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example",
+                EmailDomainMapperConfig.DOMAIN_TABLE, "domains.csv",
+                EmailDomainMapperConfig.DOMAIN_TABLE_KEY, EmailDomainMapperConfig.DomainTableKey.USERNAME.getValue()));
+
+        assertThat(config.mapEmail("id-1", "jdoe", "jdoe@corp-a.de")).isEqualTo("jdoe@sales.example");
+        assertThat(config.mapEmail("id-2", "jroe", "jroe@hr.corp-a.de")).isEqualTo("jroe@group.example");
+    }
+
+    @Test
+    public void shouldConvertTableDomainsLikeTheRules() throws IOException {
+        Files.write(directory.resolve("domains.csv"), "jdoe@corp-a.de,bücher.example\n".getBytes(StandardCharsets.UTF_8));
+        final EmailDomainMapperConfig config = compileWithTable(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example",
+                EmailDomainMapperConfig.TRANSFORMATIONS, "punycode",
+                EmailDomainMapperConfig.DOMAIN_TABLE, "domains.csv"));
+
+        assertThat(config.mapEmail("id-1", "jdoe", "jdoe@corp-a.de")).isEqualTo("jdoe@xn--bcher-kva.example");
+    }
+
+}
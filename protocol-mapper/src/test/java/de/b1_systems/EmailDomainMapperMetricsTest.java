@@ -0,0 +1,120 @@
+package de.b1_systems;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.RealmModel;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class EmailDomainMapperMetricsTest {
+
+    @Test
+    public void shouldRecordInvocationsByRealmClientProtocolAndOutcome() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final EmailDomainMapperMetrics metrics = new EmailDomainMapperMetrics(registry, EmailDomainMapperMetrics.PROTOCOL_OIDC);
+        final RealmModel realm = givenRealm("example-realm");
+        final ClientModel client = givenClient("example-realm-client");
+
+        metrics.record(realm, client, EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+        metrics.record(realm, client, EmailDomainMapperMetrics.Outcome.MAPPED, 3_000);
+        metrics.record(realm, client, EmailDomainMapperMetrics.Outcome.MISSING_EMAIL, 2_000);
+
+        final Timer mapped = timer(registry, "example-realm", "example-realm-client", "mapped");
+        assertThat(mapped.count()).isEqualTo(2);
+        assertThat(mapped.totalTime(TimeUnit.NANOSECONDS)).isEqualTo(4_000);
+        assertThat(timer(registry, "example-realm", "example-realm-client", "missing_email").count()).isEqualTo(1);
+        // Outcomes which never occurred have no timer
+        assertThat(registry.find(EmailDomainMapperMetrics.METRIC_NAME).tag("outcome", "error").timer()).isNull();
+    }
+
+    @Test
+    public void shouldPublishHistogramOnlyIfEnabled() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // The simple registry doesn't keep histogram buckets, so look at the config the timers are registered with
+        final Map<String, Boolean> histogramByClient = new HashMap<>();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(final Meter.Id id, final DistributionStatisticConfig config) {
+                histogramByClient.put(id.getTag("client"), Boolean.TRUE.equals(config.isPercentileHistogram()));
+                return config;
+            }
+        });
+        final EmailDomainMapperMetrics metrics = new EmailDomainMapperMetrics(registry, EmailDomainMapperMetrics.PROTOCOL_OIDC);
+        final RealmModel realm = givenRealm("example-realm");
+
+        metrics.record(realm, givenClient("plain-client"), EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+        metrics.setPercentileHistogram(true);
+        metrics.record(realm, givenClient("histogram-client"), EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+
+        assertThat(histogramByClient).containsEntry("plain-client", false).containsEntry("histogram-client", true);
+    }
+
+    @Test
+    public void shouldRemoveTimersOfRemovedClientsAndRealms() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final EmailDomainMapperMetrics metrics = new EmailDomainMapperMetrics(registry, EmailDomainMapperMetrics.PROTOCOL_OIDC);
+        final RealmModel realm = givenRealm("example-realm");
+        metrics.record(realm, givenClient("client-a"), EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+        metrics.record(realm, givenClient("client-a"), EmailDomainMapperMetrics.Outcome.ERROR, 1_000);
+        metrics.record(realm, givenClient("client-b"), EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+        metrics.record(givenRealm("other-realm"), givenClient("client-a"), EmailDomainMapperMetrics.Outcome.MAPPED, 1_000);
+
+        metrics.remove("example-realm", "client-a");
+
+        assertThat(registry.find(EmailDomainMapperMetrics.METRIC_NAME).tag("realm", "example-realm").tag("client", "client-a")
+                .timers()).isEmpty();
+        assertThat(timer(registry, "example-realm", "client-b", "mapped").count()).isEqualTo(1);
+
+        metrics.removeRealm("example-realm");
+
+        assertThat(registry.find(EmailDomainMapperMetrics.METRIC_NAME).tag("realm", "example-realm").timers()).isEmpty();
+        assertThat(timer(registry, "other-realm", "client-a", "mapped").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTagUnknownRealmAndClient() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final EmailDomainMapperMetrics metrics = new EmailDomainMapperMetrics(registry, EmailDomainMapperMetrics.PROTOCOL_SAML);
+
+        metrics.record(null, null, EmailDomainMapperMetrics.Outcome.ERROR, 1_000);
+
+        assertThat(registry.get(EmailDomainMapperMetrics.METRIC_NAME)
+                .tag("realm", "unknown")
+                .tag("client", "unknown")
+                .tag("protocol", "saml")
+                .tag("outcome", "error")
+                .timer().count()).isEqualTo(1);
+    }
+
+    private static Timer timer(final SimpleMeterRegistry registry, final String realm, final String client, final String outcome) {
+        return registry.get(EmailDomainMapperMetrics.METRIC_NAME)
+                .tag("realm", realm)
+                .tag("client", client)
+                .tag("protocol", "oidc")
+                .tag("outcome", outcome)
+                .timer();
+    }
+
+    private static RealmModel givenRealm(final String name) {
+        final RealmModel realm = Mockito.mock(RealmModel.class);
+        when(realm.getName()).thenReturn(name);
+        return realm;
+    }
+
+    private static ClientModel givenClient(final String clientId) {
+        final ClientModel client = Mockito.mock(ClientModel.class);
+        when(client.getClientId()).thenReturn(clientId);
+        return client;
+    }
+}
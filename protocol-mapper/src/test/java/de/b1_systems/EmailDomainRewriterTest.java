@@ -0,0 +1,61 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmailDomainRewriterTest {
+
+    static final String DOMAIN = "example.com";
+
+    @Test
+    public void shouldReplaceDomain() {
+        assertThat(EmailDomainRewriter.rewrite("jdoe@corp-a.de", DOMAIN)).isEqualTo("jdoe@example.com");
+    }
+
+    @Test
+    public void shouldCutAtLastAt() {
+        assertThat(EmailDomainRewriter.rewrite("\"j@doe\"@corp-a.de", DOMAIN)).isEqualTo("\"j@doe\"@example.com");
+    }
+
+    @Test
+    public void shouldAppendDomainToBareLocalPart() {
+        assertThat(EmailDomainRewriter.rewrite("jdoe", DOMAIN)).isEqualTo("jdoe@example.com");
+        assertThat(EmailDomainRewriter.rewrite("", DOMAIN)).isEqualTo("@example.com");
+    }
+
+    @Test
+    public void shouldReturnSameInstanceIfDomainAlreadyMatches() {
+        final String email = "jdoe@example.com";
+        assertThat(EmailDomainRewriter.rewrite(email, DOMAIN)).isSameAs(email);
+    }
+
+    @Test
+    public void shouldAllocateLessThanSplitAndConcat() {
+        if (!Allocations.isSupported()) {
+            return;
+        }
+        final String email = "max.mustermann@subsidiary.corp-a.de";
+        final long legacy = Allocations.bytesPerCall(() -> (email.split("@")[0] + "@" + DOMAIN).length());
+        final long rewriter = Allocations.bytesPerCall(() -> EmailDomainRewriter.rewrite(email, DOMAIN).length());
+
+        assertThat(rewriter).isLessThan(legacy);
+    }
+
+    @Test
+    public void shouldAllocateLessThanExactlySizedBuilder() {
+        if (!Allocations.isSupported()) {
+            return;
+        }
+        final String email = "max.mustermann@subsidiary.corp-a.de";
+        final String bare = "max.mustermann";
+        final long builder = Allocations.bytesPerCall(() -> new StringBuilder(26).append(email, 0, 14).append('@').append(DOMAIN)
+                .toString().length());
+        final long rewriter = Allocations.bytesPerCall(() -> EmailDomainRewriter.rewrite(email, DOMAIN).length());
+        // A bare local part only allocates the result: on 64 bit JDKs 72 bytes, against 128 with the local part copy and 144 for the builder
+        final long result = Allocations.bytesPerCall(() -> EmailDomainRewriter.rewrite(bare, DOMAIN).length());
+
+        assertThat(rewriter).isLessThan(builder);
+        assertThat(result).isLessThan(rewriter);
+    }
+}
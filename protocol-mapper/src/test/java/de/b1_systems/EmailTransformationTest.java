@@ -0,0 +1,98 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EmailTransformationTest {
+
+    private static String apply(final EmailTransformation transformation, final String email, final String domain) {
+        return transformation.apply(email, EmailDomainRewriter.indexOfDomainSeparator(email), domain);
+    }
+
+    @Test
+    public void shouldOnlyReplaceDomainWithoutStages() {
+        final EmailTransformation transformation = EmailTransformation.compile(" \n ");
+
+        assertThat(transformation).isSameAs(EmailTransformation.NONE);
+        assertThat(apply(transformation, "J.Doe@corp-a.de", "example.com")).isEqualTo("J.Doe@example.com");
+        final String email = "jdoe@corp-a.de";
+        assertThat(apply(transformation, email, null)).isSameAs(email);
+    }
+
+    @Test
+    public void shouldApplyFusedStages() {
+        final EmailTransformation transformation = EmailTransformation.compile("lowercase\nstrip-subaddress\nremove-dots");
+
+        assertThat(apply(transformation, "J.Doe+News@corp-a.de", "example.com")).isEqualTo("jdoe@example.com");
+        assertThat(apply(transformation, "J.Doe+News@corp-a.de", null)).isEqualTo("jdoe@corp-a.de");
+        assertThat(apply(transformation, "+News@corp-a.de", "example.com")).isEqualTo("+news@example.com");
+        assertThat(apply(transformation, "J.Doe", "example.com")).isEqualTo("jdoe@example.com");
+    }
+
+    @Test
+    public void shouldFuseStagesLikeApplyingThemInOrder() {
+        final String[] emails = { ".+tag@corp-a.de", "..+tag@corp-a.de", ".a+tag@corp-a.de", "+.tag@corp-a.de", "j.doe+tag@corp-a.de" };
+        for (String order : new String[] { "remove-dots\nstrip-subaddress", "strip-subaddress\nremove-dots" }) {
+            final EmailTransformation fused = EmailTransformation.compile(order);
+            final String[] stages = order.split("\n");
+            for (String email : emails) {
+                final String sequential = apply(EmailTransformation.compile(stages[1]),
+                        apply(EmailTransformation.compile(stages[0]), email, null), "example.com");
+
+                assertThat(apply(fused, email, "example.com")).as(order + " of " + email).isEqualTo(sequential);
+            }
+        }
+        assertThat(apply(EmailTransformation.compile("remove-dots\nstrip-subaddress"), ".+tag@corp-a.de", "example.com"))
+                .isEqualTo("+tag@example.com");
+        assertThat(apply(EmailTransformation.compile("strip-subaddress\nremove-dots"), ".+tag@corp-a.de", "example.com"))
+                .isEqualTo("@example.com");
+    }
+
+    @Test
+    public void shouldRemoveDotsOnlyForListedDomains() {
+        final EmailTransformation transformation = EmailTransformation.compile("remove-dots gmail.com, googlemail.com");
+
+        assertThat(apply(transformation, "j.doe@GMail.com", "example.com")).isEqualTo("jdoe@example.com");
+        assertThat(apply(transformation, "j.doe@googlemail.com", null)).isEqualTo("jdoe@googlemail.com");
+        assertThat(apply(transformation, "j.doe@corp-a.de", "example.com")).isEqualTo("j.doe@example.com");
+        assertThat(apply(transformation, "j.doe", "example.com")).isEqualTo("j.doe@example.com");
+    }
+
+    @Test
+    public void shouldStripCustomSubaddressSeparator() {
+        final EmailTransformation transformation = EmailTransformation.compile("strip-subaddress -");
+
+        assertThat(apply(transformation, "jdoe-news+x@corp-a.de", "example.com")).isEqualTo("jdoe@example.com");
+    }
+
+    @Test
+    public void shouldApplyStagesInOrder() {
+        final EmailTransformation replaceFirst = EmailTransformation.compile("replace ^adm-(.*)$ -> $1-admin\nlowercase");
+        final EmailTransformation lowercaseFirst = EmailTransformation.compile("lowercase\nreplace ^adm-(.*)$ -> $1-admin");
+
+        assertThat(apply(replaceFirst, "ADM-JDoe@corp-a.de", "example.com")).isEqualTo("adm-jdoe@example.com");
+        assertThat(apply(lowercaseFirst, "ADM-JDoe@corp-a.de", "example.com")).isEqualTo("jdoe-admin@example.com");
+    }
+
+    @Test
+    public void shouldConvertTargetDomainsToPunycode() {
+        final EmailTransformation transformation = EmailTransformation.compile("punycode");
+        final DomainRules rules = DomainRules.compile("corp-a.de -> bücher.example", transformation::toTargetDomain);
+
+        assertThat(rules.targetFor("jdoe@corp-a.de")).isEqualTo("xn--bcher-kva.example");
+        assertThat(EmailTransformation.NONE.toTargetDomain("bücher.example")).isEqualTo("bücher.example");
+    }
+
+    @Test
+    public void shouldRejectInvalidStages() {
+        assertThatThrownBy(() -> EmailTransformation.compile("uppercase")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EmailTransformation.compile("lowercase all")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EmailTransformation.compile("strip-subaddress x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EmailTransformation.compile("replace ^(a")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EmailTransformation.compile("replace ^(a -> b")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EmailTransformation.compile("replace ^a -> $1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
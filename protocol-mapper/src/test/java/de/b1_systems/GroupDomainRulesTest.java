@@ -0,0 +1,112 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GroupDomainRulesTest {
+
+    private static final String RULES = String.join("\n",
+            "/subsidiaries/acme -> acme.example",
+            "/subsidiaries/acme/sales -> sales.acme.example",
+            "/staff -> staff.example",
+            "/missing -> missing.example");
+
+    private RealmModel realm;
+    private GroupModel acme;
+    private GroupModel sales;
+    private GroupModel beta;
+    private GroupModel staff;
+
+    @BeforeEach
+    public void givenGroupTree() {
+        sales = group("sales");
+        acme = group("acme", sales);
+        beta = group("beta");
+        final GroupModel subsidiaries = group("subsidiaries", acme, beta);
+        staff = group("staff");
+        realm = Mockito.mock(RealmModel.class);
+        when(realm.getId()).thenReturn(UUID.randomUUID().toString());
+        when(realm.getTopLevelGroupsStream()).thenAnswer(invocation -> Stream.of(subsidiaries, staff));
+    }
+
+    private static GroupModel group(final String name, final GroupModel... subGroups) {
+        final GroupModel group = Mockito.mock(GroupModel.class);
+        when(group.getId()).thenReturn(name + "-id");
+        when(group.getName()).thenReturn(name);
+        when(group.getSubGroupsStream()).thenAnswer(invocation -> Stream.of(subGroups));
+        return group;
+    }
+
+    private static UserModel member(final GroupModel... groups) {
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getGroupsStream()).thenAnswer(invocation -> Stream.of(groups));
+        return user;
+    }
+
+    @Test
+    public void shouldApplyRuleOfNearestGroup() {
+        final GroupDomainRules rules = GroupDomainRules.compile(RULES, UnaryOperator.identity());
+
+        assertThat(rules.targetFor(realm, member(acme))).isEqualTo("acme.example");
+        assertThat(rules.targetFor(realm, member(sales))).isEqualTo("sales.acme.example");
+        assertThat(rules.targetFor(realm, member(staff))).isEqualTo("staff.example");
+        assertThat(rules.targetFor(realm, member(beta))).isNull();
+        assertThat(rules.targetFor(realm, member())).isNull();
+    }
+
+    @Test
+    public void shouldPreferRuleListedFirst() {
+        final GroupDomainRules rules = GroupDomainRules.compile(RULES, UnaryOperator.identity());
+
+        assertThat(rules.targetFor(realm, member(staff, acme))).isEqualTo("acme.example");
+        assertThat(rules.targetFor(realm, member(staff, sales))).isEqualTo("sales.acme.example");
+    }
+
+    @Test
+    public void shouldResolveGroupTreeOncePerRealm() {
+        final GroupDomainRules rules = GroupDomainRules.compile(RULES, UnaryOperator.identity());
+
+        rules.targetFor(realm, member(acme));
+        rules.targetFor(realm, member(sales));
+
+        // One lookup of the top level groups per rule
+        verify(realm, times(4)).getTopLevelGroupsStream();
+
+        GroupDomainCache.shared().invalidate(realm.getId());
+        rules.targetFor(realm, member(acme));
+
+        verify(realm, times(8)).getTopLevelGroupsStream();
+    }
+
+    @Test
+    public void shouldConvertTargets() {
+        final GroupDomainRules rules = GroupDomainRules.compile("/staff -> bücher.example",
+                EmailTransformation.compile("punycode")::toTargetDomain);
+
+        assertThat(rules.targetFor(realm, member(staff))).isEqualTo("xn--bcher-kva.example");
+    }
+
+    @Test
+    public void shouldRejectInvalidRules() {
+        assertThatThrownBy(() -> GroupDomainRules.compile("/staff", UnaryOperator.identity())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> GroupDomainRules.compile("/staff -> ", UnaryOperator.identity())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> GroupDomainRules.compile("-> staff.example", UnaryOperator.identity())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> GroupDomainRules.compile("/staff -> a.example\nstaff -> b.example", UnaryOperator.identity()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
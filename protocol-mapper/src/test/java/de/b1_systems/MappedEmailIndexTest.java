@@ -0,0 +1,165 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+public class MappedEmailIndexTest {
+
+    private static final String JDOE_A = "2f1c4b0e-8d3a-4e57-9a61-0c5d7e9f1a23";
+    private static final String JDOE_B = "7b9e2d14-3c6f-4a80-b1d2-5e8f9a0b7c34";
+
+    @Test
+    public void shouldDetectOtherUserWithSameAddress() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        index.put(JDOE_A, "jdoe@example.com");
+
+        assertThat(index.hasOtherUser("jdoe@example.com", JDOE_A)).isFalse();
+        assertThat(index.hasOtherUser("jdoe@example.com", JDOE_B)).isTrue();
+
+        index.put(JDOE_B, "JDoe@Example.com");
+
+        assertThat(index.hasOtherUser("jdoe@example.com", JDOE_A)).isTrue();
+        assertThat(index.usersOf("jdoe@example.com")).containsExactlyInAnyOrder(JDOE_A, JDOE_B);
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveAddressOfUser() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        index.put(JDOE_A, "jdoe@example.com");
+        index.put(JDOE_B, "jdoe@example.com");
+
+        index.put(JDOE_B, "john.doe@example.com");
+
+        assertThat(index.hasOtherUser("jdoe@example.com", JDOE_A)).isFalse();
+        assertThat(index.usersOf("john.doe@example.com")).containsExactly(JDOE_B);
+
+        index.remove(JDOE_B);
+        index.put(JDOE_A, null);
+
+        assertThat(index.size()).isZero();
+        assertThat(index.usersOf("john.doe@example.com")).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepEventWritesWhileBuilding() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        index.put(JDOE_A, "john.doe@example.com");
+        index.remove(JDOE_B);
+
+        // The builder read both users before the events
+        index.putIfAbsent(JDOE_A, "jdoe@example.com");
+        index.putIfAbsent(JDOE_B, "jdoe@example.com");
+        index.putIfAbsent("f:ldap:jdoe", "jdoe@example.com");
+
+        assertThat(index.usersOf("john.doe@example.com")).containsExactly(JDOE_A);
+        assertThat(index.usersOf("jdoe@example.com")).containsExactly("f:ldap:jdoe");
+
+        index.setComplete();
+        index.put(JDOE_B, "jdoe@example.com");
+
+        assertThat(index.usersOf("jdoe@example.com")).containsExactlyInAnyOrder("f:ldap:jdoe", JDOE_B);
+    }
+
+    @Test
+    public void shouldIndexIdsOtherThanUuids() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        index.put("f:ldap:jdoe", "jdoe@example.com");
+        index.put(JDOE_A.toUpperCase(), "jdoe@example.com");
+
+        assertThat(index.usersOf("jdoe@example.com")).containsExactlyInAnyOrder("f:ldap:jdoe", JDOE_A.toUpperCase());
+        assertThat(index.hasOtherUser("jdoe@example.com", "f:ldap:jdoe")).isTrue();
+
+        index.remove(JDOE_A.toUpperCase());
+
+        assertThat(index.hasOtherUser("jdoe@example.com", "f:ldap:jdoe")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchMapThroughGrowthAndRemovals() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        final Map<String, String> expected = new HashMap<>();
+        final List<String> users = new ArrayList<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            users.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        for (int i = 0; i < 50_000; i++) {
+            final String user = users.get(random.nextInt(users.size()));
+            if (random.nextInt(4) == 0) {
+                index.remove(user);
+                expected.remove(user);
+            } else {
+                // Few addresses, so many users collide
+                final String email = "user" + random.nextInt(3000) + "@example.com";
+                index.put(user, email);
+                expected.put(user, email);
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(expected.size());
+        for (String user : users) {
+            final String email = expected.get(user);
+            if (email == null) {
+                continue;
+            }
+            final long others = expected.entrySet().stream()
+                    .filter(entry -> entry.getValue().equals(email) && !entry.getKey().equals(user))
+                    .count();
+            assertThat(index.hasOtherUser(email, user)).isEqualTo(others > 0);
+            assertThat(index.usersOf(email)).hasSize((int) others + 1).contains(user);
+        }
+    }
+
+    @Test
+    public void shouldDisambiguateCollidingUsers() {
+        final MappedEmailIndex index = new MappedEmailIndex();
+        index.put(JDOE_A, "jdoe@example.com");
+        index.put(JDOE_B, "jdoe@example.com");
+
+        assertThat(CollisionPolicy.IGNORE.resolve(index, JDOE_A, "jdoe@corp-a.de", "jdoe@example.com")).isEqualTo("jdoe@example.com");
+        assertThat(CollisionPolicy.ORIGINAL.resolve(index, JDOE_A, "jdoe@corp-a.de", "jdoe@example.com")).isEqualTo("jdoe@corp-a.de");
+        assertThat(CollisionPolicy.SUBADDRESS.resolve(index, JDOE_B, "jdoe@corp-b.com", "jdoe@example.com"))
+                .isEqualTo("jdoe+corp-b.com@example.com");
+        assertThat(CollisionPolicy.SUBADDRESS.resolve(index, JDOE_A, "jane@corp-a.de", "jane@example.com")).isEqualTo("jane@example.com");
+    }
+
+    @Test
+    public void shouldIndexAddressesOfItsConfig() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example",
+                EmailDomainMapperConfig.TRANSFORMATIONS, "lowercase\nstrip-subaddress",
+                EmailDomainMapperConfig.SHARD_DOMAINS, "mx1.example"));
+        final MappedEmailIndex index = new MappedEmailIndex(config);
+        final RealmModel realm = Mockito.mock(RealmModel.class);
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getId()).thenReturn(JDOE_A);
+        when(user.getEmail()).thenReturn("JDoe+news@hr.corp-a.de");
+
+        index.put(user.getId(), index.mapEmail(realm, user));
+
+        // The address the mapper computes, not the one of the event listener rules
+        assertThat(index.usersOf(config.mapEmail(realm, user, user.getEmail()))).containsExactly(JDOE_A);
+        assertThat(index.usersOf("jdoe@mx1.example")).containsExactly(JDOE_A);
+    }
+
+    @Test
+    public void shouldRejectUnknownCollisionPolicy() {
+        assertThatThrownBy(() -> EmailDomainMapperConfig.compile(Map.of(EmailDomainMapperConfig.COLLISION_POLICY, "rename")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(EmailDomainMapperConfig.compile(Map.of()).getCollisionPolicy()).isEqualTo(CollisionPolicy.IGNORE);
+    }
+
+}
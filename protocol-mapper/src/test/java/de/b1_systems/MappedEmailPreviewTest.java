@@ -0,0 +1,109 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+public class MappedEmailPreviewTest {
+
+    @Test
+    public void shouldStreamAllPagesAsNdjson() throws IOException {
+        final List<Integer> requested = new ArrayList<>();
+        final MappedEmailPreview preview = new MappedEmailPreview((first, max) -> {
+            requested.add(first);
+            final List<String[]> page = new ArrayList<>();
+            for (int i = first; i < Math.min(first + max, 5); i++) {
+                page.add(new String[] { "id-" + i, "user" + i + "@corp-a.de", "user" + i + "@group.example" });
+            }
+            return page;
+        }, MappedEmailPreview.Format.NDJSON, 2);
+
+        final String[] lines = write(preview).split("\n");
+
+        assertThat(requested).containsExactly(0, 2, 4);
+        assertThat(lines).hasSize(5);
+        assertThat(lines[4]).isEqualTo("{\"userId\":\"id-4\",\"email\":\"user4@corp-a.de\",\"mappedEmail\":\"user4@group.example\"}");
+    }
+
+    @Test
+    public void shouldStopAfterFullLastPage() throws IOException {
+        final List<Integer> requested = new ArrayList<>();
+        final MappedEmailPreview preview = new MappedEmailPreview((first, max) -> {
+            requested.add(first);
+            return first == 0 ? List.of(new String[] { "a", null, null }, new String[] { "b", null, null }) : List.of();
+        }, MappedEmailPreview.Format.NDJSON, 2);
+
+        assertThat(write(preview)).isEqualTo("{\"userId\":\"a\",\"email\":null,\"mappedEmail\":null}\n"
+                + "{\"userId\":\"b\",\"email\":null,\"mappedEmail\":null}\n");
+        assertThat(requested).containsExactly(0, 2);
+    }
+
+    @Test
+    public void shouldQuoteCsvFields() throws IOException {
+        final MappedEmailPreview preview = new MappedEmailPreview((first, max) -> List.of(
+                new String[] { "id-1", "\"a,b\"@corp-a.de", "\"a,b\"@group.example" },
+                new String[] { "id-2", null, null }), MappedEmailPreview.Format.CSV, 10);
+
+        assertThat(write(preview)).isEqualTo("userId,email,mappedEmail\r\n"
+                + "id-1,\"\"\"a,b\"\"@corp-a.de\",\"\"\"a,b\"\"@group.example\"\r\n"
+                + "id-2,,\r\n");
+    }
+
+    @Test
+    public void shouldMapUsersLikeTheMapper() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example\nexample.com",
+                EmailDomainMapperConfig.MISSING_EMAIL_POLICY, MissingEmailPolicy.USERNAME.getValue()));
+        final RealmModel realm = Mockito.mock(RealmModel.class);
+
+        assertThat(MappedEmailPreview.row(config, realm, givenUser("id-1", "jane", "jane@sales.corp-a.de")))
+                .containsExactly("id-1", "jane@sales.corp-a.de", "jane@group.example");
+        assertThat(MappedEmailPreview.row(config, realm, givenUser("id-2", "backend", null)))
+                .containsExactly("id-2", null, "backend@example.com");
+    }
+
+    @Test
+    public void shouldRejectUnknownFormatAndPageSize() {
+        assertThatThrownBy(() -> MappedEmailPreview.Format.of("xml")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new MappedEmailPreview((first, max) -> List.of(), MappedEmailPreview.Format.CSV, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(MappedEmailPreview.Format.of("CSV")).isEqualTo(MappedEmailPreview.Format.CSV);
+    }
+
+    private static String write(final MappedEmailPreview preview) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        preview.write(output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static UserModel givenUser(final String id, final String username, final String email) {
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getId()).thenReturn(id);
+        when(user.getUsername()).thenReturn(username);
+        when(user.getEmail()).thenReturn(email);
+        return user;
+    }
+
+    @Test
+    public void shouldRejectServerSideResourcesInDrafts() {
+        assertThatThrownBy(() -> MappedEmailPreview.compileDraft(Map.of(
+                EmailDomainMapperConfig.DOMAIN_TABLE, "../../etc/passwd"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MappedEmailPreview.compileDraft(Map.of(
+                EmailDomainMapperConfig.PSEUDONYM_KEY, "0123456789abcdef"))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(MappedEmailPreview.compileDraft(Map.of(EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example"))
+                .mapEmail("jdoe@hr.corp-a.de")).isEqualTo("jdoe@group.example");
+    }
+
+}
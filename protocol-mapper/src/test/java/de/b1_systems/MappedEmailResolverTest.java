@@ -0,0 +1,155 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MappedEmailResolverTest {
+
+    @Test
+    public void shouldMapEmailOfUser() {
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+
+        assertThat(MappedEmailResolver.resolve(givenConfig(false), userSession)).isEqualTo("jdoe@group.example");
+        verify(userSession, never()).setNote(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void shouldReturnNullWithoutEmail() {
+        assertThat(MappedEmailResolver.resolve(givenConfig(false), givenUserSession(null))).isNull();
+    }
+
+    @Test
+    public void shouldStoreMappedEmailInUserSession() {
+        final EmailDomainMapperConfig config = givenConfig(true);
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+
+        MappedEmailResolver.resolve(config, userSession);
+
+        verify(userSession).setNote(config.getUserSessionNote(), "jdoe@group.example");
+    }
+
+    @Test
+    public void shouldNotLoadUserIfUserSessionHoldsMappedEmail() {
+        final EmailDomainMapperConfig config = givenConfig(true);
+        final UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        when(userSession.getNote(config.getUserSessionNote())).thenReturn("jdoe@group.example");
+
+        assertThat(MappedEmailResolver.resolve(config, userSession)).isEqualTo("jdoe@group.example");
+        verify(userSession, never()).getUser();
+    }
+
+    @Test
+    public void shouldUseDifferentNotesForDifferentConfigs() {
+        final EmailDomainMapperConfig config = givenConfig(true);
+        final EmailDomainMapperConfig other = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "other.example",
+                EmailDomainMapperConfig.CACHE_IN_USER_SESSION, "true"));
+
+        assertThat(config.getUserSessionNote()).startsWith(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX);
+        assertThat(config.getUserSessionNote()).isNotEqualTo(other.getUserSessionNote());
+        assertThat(config.getUserSessionNote()).isEqualTo(givenConfig(true).getUserSessionNote());
+    }
+
+    @Test
+    public void shouldPreferPrecomputedAttribute() {
+        final EmailDomainMapperConfig config = givenPrecomputedConfig();
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+        when(userSession.getUser().getFirstAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE))
+                .thenReturn(precomputedEmail("group.example").valueOf("jdoe@precomputed.example"));
+
+        assertThat(MappedEmailResolver.resolve(config, userSession)).isEqualTo("jdoe@precomputed.example");
+        verify(userSession.getUser(), never()).getEmail();
+    }
+
+    @Test
+    public void shouldPassPrecomputedAttributeToCollisionPolicy() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE, PrecomputedEmail.DEFAULT_ATTRIBUTE,
+                EmailDomainMapperConfig.COLLISION_POLICY, CollisionPolicy.ORIGINAL.getValue()));
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+        when(userSession.getUser().getFirstAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE))
+                .thenReturn(precomputedEmail("group.example").valueOf("jdoe@precomputed.example"));
+
+        // Without an index nothing collides, but the policy gets the original address to fall back to
+        assertThat(MappedEmailResolver.resolve(config, userSession)).isEqualTo("jdoe@precomputed.example");
+        verify(userSession.getUser()).getEmail();
+    }
+
+    @Test
+    public void shouldIgnoreValuesPrecomputedByOtherRules() {
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+        when(userSession.getUser().getFirstAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE))
+                .thenReturn(precomputedEmail("other.example").valueOf("jdoe@other.example"));
+
+        assertThat(MappedEmailResolver.resolve(givenPrecomputedConfig(), userSession)).isEqualTo("jdoe@group.example");
+    }
+
+    @Test
+    public void shouldIgnorePrecomputedValuesIfMappingByMoreThanRules() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.TRANSFORMATIONS, "lowercase",
+                EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE, PrecomputedEmail.DEFAULT_ATTRIBUTE));
+        final UserSessionModel userSession = givenUserSession("JDoe@corp-a.de");
+        when(userSession.getUser().getFirstAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE))
+                .thenReturn(precomputedEmail("group.example").valueOf("JDoe@group.example"));
+
+        assertThat(MappedEmailResolver.resolve(config, userSession)).isEqualTo("jdoe@group.example");
+    }
+
+    @Test
+    public void shouldMapEmailWithoutPrecomputedAttribute() {
+        final UserSessionModel userSession = givenUserSession("jdoe@corp-a.de");
+
+        assertThat(MappedEmailResolver.resolve(givenPrecomputedConfig(), userSession)).isEqualTo("jdoe@group.example");
+    }
+
+    @Test
+    public void shouldInvalidateOnlyMappedEmails() {
+        final UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        final Map<String, String> notes = new HashMap<>();
+        notes.put(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX + "abc", "jdoe@group.example");
+        notes.put("AUTH_TIME", "1671133023");
+        when(userSession.getNotes()).thenReturn(notes);
+
+        MappedEmailResolver.invalidate(userSession);
+
+        verify(userSession).removeNote(EmailDomainMapperConfig.USER_SESSION_NOTE_PREFIX + "abc");
+        verify(userSession, never()).removeNote("AUTH_TIME");
+    }
+
+    private static EmailDomainMapperConfig givenConfig(final boolean cacheInUserSession) {
+        return EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.CACHE_IN_USER_SESSION, String.valueOf(cacheInUserSession)));
+    }
+
+    private static EmailDomainMapperConfig givenPrecomputedConfig() {
+        return EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "group.example",
+                EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE, PrecomputedEmail.DEFAULT_ATTRIBUTE));
+    }
+
+    private static PrecomputedEmail precomputedEmail(final String emailDomain) {
+        return new PrecomputedEmail(DomainRules.compile(emailDomain), PrecomputedEmail.DEFAULT_ATTRIBUTE);
+    }
+
+    private static UserSessionModel givenUserSession(final String email) {
+        final UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(userSession.getUser()).thenReturn(user);
+        when(user.getEmail()).thenReturn(email);
+        return userSession;
+    }
+}
@@ -0,0 +1,84 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+public class MissingEmailPolicyTest {
+
+    @Test
+    public void shouldDefaultToFail() {
+        assertThat(EmailDomainMapperConfig.compile(Map.of()).getMissingEmailPolicy()).isEqualTo(MissingEmailPolicy.FAIL);
+    }
+
+    @Test
+    public void shouldAppendDefaultTargetToUsername() {
+        final EmailDomainMapperConfig config = givenConfig("*.corp-a.de -> group.example\nexample.com", MissingEmailPolicy.USERNAME);
+
+        assertThat(MissingEmailPolicy.USERNAME.fallback(config, givenUser())).isEqualTo("service-account-backend@example.com");
+    }
+
+    @Test
+    public void shouldOmitUsernameWithoutDefaultTarget() {
+        final EmailDomainMapperConfig config = givenConfig("*.corp-a.de -> group.example", MissingEmailPolicy.USERNAME);
+
+        assertThat(MissingEmailPolicy.USERNAME.fallback(config, givenUser())).isNull();
+    }
+
+    @Test
+    public void shouldTellFailedFallbackFromOmission() {
+        final EmailDomainMapperConfig withDefault = givenConfig("example.com", MissingEmailPolicy.USERNAME);
+        final EmailDomainMapperConfig withoutDefault = givenConfig("*.corp-a.de -> group.example", MissingEmailPolicy.USERNAME);
+
+        final MappedEmailResolver.Resolution fallback = MissingEmailPolicy.USERNAME.apply(withDefault, givenUser());
+        assertThat(fallback.getValue()).isEqualTo("service-account-backend@example.com");
+        assertThat(fallback.getOutcome()).isEqualTo(EmailDomainMapperMetrics.Outcome.USERNAME_FALLBACK);
+        final MappedEmailResolver.Resolution noFallback = MissingEmailPolicy.USERNAME.apply(withoutDefault, givenUser());
+        assertThat(noFallback.getValue()).isNull();
+        assertThat(noFallback.getOutcome()).isEqualTo(EmailDomainMapperMetrics.Outcome.NO_FALLBACK);
+        assertThat(MissingEmailPolicy.OMIT.apply(withDefault, givenUser()).getOutcome()).isEqualTo(EmailDomainMapperMetrics.Outcome.OMITTED);
+        assertThat(MissingEmailPolicy.FAIL.apply(withDefault, givenUser()).isFailure()).isTrue();
+    }
+
+    @Test
+    public void shouldMapAttributeByRules() {
+        final EmailDomainMapperConfig config = EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, "*.corp-a.de -> group.example",
+                EmailDomainMapperConfig.MISSING_EMAIL_POLICY, MissingEmailPolicy.ATTRIBUTE.getValue(),
+                EmailDomainMapperConfig.MISSING_EMAIL_ATTRIBUTE, "contactEmail"));
+        final UserModel user = givenUser();
+        when(user.getFirstAttribute("contactEmail")).thenReturn("backend@ops.corp-a.de");
+
+        assertThat(MissingEmailPolicy.ATTRIBUTE.fallback(config, user)).isEqualTo("backend@group.example");
+        assertThat(MissingEmailPolicy.ATTRIBUTE.fallback(config, givenUser())).isNull();
+    }
+
+    @Test
+    public void shouldRejectAttributePolicyWithoutAttribute() {
+        assertThatThrownBy(() -> givenConfig("example.com", MissingEmailPolicy.ATTRIBUTE))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldRejectUnknownPolicy() {
+        assertThatThrownBy(() -> MissingEmailPolicy.of("ignore")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static EmailDomainMapperConfig givenConfig(final String emailDomain, final MissingEmailPolicy policy) {
+        return EmailDomainMapperConfig.compile(Map.of(
+                EmailDomainMapperConfig.EMAIL_DOMAIN, emailDomain,
+                EmailDomainMapperConfig.MISSING_EMAIL_POLICY, policy.getValue()));
+    }
+
+    private static UserModel givenUser() {
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getUsername()).thenReturn("service-account-backend");
+        return user;
+    }
+}
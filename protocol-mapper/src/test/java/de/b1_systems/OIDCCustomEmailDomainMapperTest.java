@@ -16,6 +16,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.when;
 
 public class OIDCCustomEmailDomainMapperTest {
@@ -48,7 +49,19 @@ public class OIDCCustomEmailDomainMapperTest {
         final List<String> configPropertyNames = new OIDCCustomEmailDomainMapper().getConfigProperties().stream()
                 .map(ProviderConfigProperty::getName)
                 .collect(Collectors.toList());
-        assertThat(configPropertyNames).containsExactly(OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, OIDCAttributeMapperHelper.INCLUDE_IN_ID_TOKEN, OIDCAttributeMapperHelper.INCLUDE_IN_ACCESS_TOKEN, OIDCAttributeMapperHelper.INCLUDE_IN_USERINFO);
+        assertThat(configPropertyNames).containsExactly(OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, OIDCAttributeMapperHelper.TOKEN_CLAIM_NAME, OIDCAttributeMapperHelper.INCLUDE_IN_ID_TOKEN, OIDCAttributeMapperHelper.INCLUDE_IN_ACCESS_TOKEN, OIDCAttributeMapperHelper.INCLUDE_IN_USERINFO,
+                EmailDomainMapperConfig.CACHE_IN_USER_SESSION,
+                EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE,
+                EmailDomainMapperConfig.ALIAS_DOMAINS,
+                EmailDomainMapperConfig.TRANSFORMATIONS,
+                EmailDomainMapperConfig.DOMAIN_TABLE,
+                EmailDomainMapperConfig.DOMAIN_TABLE_KEY,
+                EmailDomainMapperConfig.GROUP_DOMAINS,
+                EmailDomainMapperConfig.SHARD_DOMAINS,
+                EmailDomainMapperConfig.MISSING_EMAIL_POLICY,
+                EmailDomainMapperConfig.MISSING_EMAIL_ATTRIBUTE,
+                EmailDomainMapperConfig.COLLISION_POLICY,
+                EmailDomainMapperConfig.PSEUDONYM_KEY);
     }
 
     @Test
@@ -57,20 +70,103 @@ public class OIDCCustomEmailDomainMapperTest {
 
         final AccessToken accessToken = transformAccessToken(session);
 
-        assertThat(accessToken.getOtherClaims().get(CLAIM_NAME)).isEqualTo("hello world");
+        assertThat(accessToken.getOtherClaims().get(CLAIM_NAME)).isEqualTo("jdoe@" + OIDCCustomEmailDomainMapper.DEFAULT_EMAIL_DOMAIN);
+    }
+
+    @Test
+    public void shouldAddAliasesToClaim() {
+        final UserSessionModel session = givenUserSession();
+        final Map<String, String> config = createConfig();
+        config.put(EmailDomainMapperConfig.ALIAS_DOMAINS, "corp-a.de\ngroup.example");
+
+        final AccessToken accessToken = transformAccessToken(session, config);
+
+        assertThat(accessToken.getOtherClaims().get(CLAIM_NAME)).isEqualTo(List.of(
+                "jdoe@" + OIDCCustomEmailDomainMapper.DEFAULT_EMAIL_DOMAIN, "jdoe@corp-a.de", "jdoe@group.example"));
+    }
+
+    @Test
+    public void shouldTransformAddress() {
+        final UserSessionModel session = Mockito.mock(UserSessionModel.class);
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(session.getUser()).thenReturn(user);
+        when(user.getEmail()).thenReturn("J.Doe+Newsletter@corp-a.de");
+        final Map<String, String> config = createConfig();
+        config.put(OIDCCustomEmailDomainMapper.EMAIL_DOMAIN, "bücher.example");
+        config.put(EmailDomainMapperConfig.TRANSFORMATIONS, "lowercase\nstrip-subaddress\nremove-dots\npunycode");
+
+        final AccessToken accessToken = transformAccessToken(session, config);
+
+        assertThat(accessToken.getOtherClaims().get(CLAIM_NAME)).isEqualTo("jdoe@xn--bcher-kva.example");
+    }
+
+    @Test
+    public void shouldFailWithoutEmailByDefault() {
+        final UserSessionModel session = givenUserSessionWithoutEmail();
+
+        assertThatThrownBy(() -> transformAccessToken(session)).isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    public void shouldOmitClaimWithoutEmail() {
+        final UserSessionModel session = givenUserSessionWithoutEmail();
+        final Map<String, String> config = createConfig();
+        config.put(EmailDomainMapperConfig.MISSING_EMAIL_POLICY, MissingEmailPolicy.OMIT.getValue());
+
+        final AccessToken accessToken = transformAccessToken(session, config);
+
+        assertThat(accessToken.getOtherClaims()).doesNotContainKey(CLAIM_NAME);
+    }
+
+    @Test
+    public void shouldFallBackToUsernameWithoutEmail() {
+        final UserSessionModel session = givenUserSessionWithoutEmail();
+        final Map<String, String> config = createConfig();
+        config.put(EmailDomainMapperConfig.MISSING_EMAIL_POLICY, MissingEmailPolicy.USERNAME.getValue());
+
+        final AccessToken accessToken = transformAccessToken(session, config);
+
+        assertThat(accessToken.getOtherClaims().get(CLAIM_NAME)).isEqualTo("service-account-backend@" + OIDCCustomEmailDomainMapper.DEFAULT_EMAIL_DOMAIN);
+    }
+
+    @Test
+    public void shouldPseudonymizeLocalPart() {
+        final UserSessionModel session = givenUserSession();
+        when(session.getUser().getId()).thenReturn("2f1c4b0e-8d3a-4e57-9a61-0c5d7e9f1a23");
+        final Map<String, String> config = createConfig();
+        config.put(EmailDomainMapperConfig.PSEUDONYM_KEY, "client-a-0123456789");
+
+        final AccessToken accessToken = transformAccessToken(session, config);
+
+        assertThat((String) accessToken.getOtherClaims().get(CLAIM_NAME))
+                .matches("[a-z2-7]{32}@" + OIDCCustomEmailDomainMapper.DEFAULT_EMAIL_DOMAIN.replace(".", "\\."))
+                .doesNotStartWith("jdoe@");
+    }
+
+    private UserSessionModel givenUserSessionWithoutEmail() {
+        UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        UserModel user = Mockito.mock(UserModel.class);
+        when(userSession.getUser()).thenReturn(user);
+        when(user.getUsername()).thenReturn("service-account-backend");
+        return userSession;
     }
 
     private UserSessionModel givenUserSession() {
         UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
         UserModel user = Mockito.mock(UserModel.class);
         when(userSession.getUser()).thenReturn(user);
+        when(user.getEmail()).thenReturn("jdoe@corp-a.de");
         return userSession;
     }
 
 
     private AccessToken transformAccessToken(UserSessionModel userSessionModel) {
+        return transformAccessToken(userSessionModel, createConfig());
+    }
+
+    private AccessToken transformAccessToken(UserSessionModel userSessionModel, Map<String, String> config) {
         final ProtocolMapperModel mappingModel = new ProtocolMapperModel();
-        mappingModel.setConfig(createConfig());
+        mappingModel.setConfig(config);
         return new OIDCCustomEmailDomainMapper().transformAccessToken(new AccessToken(), mappingModel, null, userSessionModel, null);
     }
 
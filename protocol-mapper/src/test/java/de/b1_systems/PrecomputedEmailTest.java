@@ -0,0 +1,60 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrecomputedEmailTest {
+
+    private final PrecomputedEmail precomputedEmail = new PrecomputedEmail(
+            DomainRules.compile("*.corp-a.de -> group.example"), PrecomputedEmail.DEFAULT_ATTRIBUTE);
+
+    @Test
+    public void shouldWriteMappedEmail() {
+        final UserModel user = givenUser("jdoe@mail.corp-a.de", null);
+
+        assertThat(precomputedEmail.update(user)).isTrue();
+        verify(user).setSingleAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE, precomputedEmail.valueOf("jdoe@group.example"));
+    }
+
+    @Test
+    public void shouldNotWriteUnchangedEmail() {
+        final UserModel user = givenUser("jdoe@mail.corp-a.de", precomputedEmail.valueOf("jdoe@group.example"));
+
+        assertThat(precomputedEmail.update(user)).isFalse();
+        verify(user, never()).setSingleAttribute(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void shouldRemoveAttributeWithoutEmail() {
+        final UserModel user = givenUser(null, "jdoe@group.example");
+
+        assertThat(precomputedEmail.update(user)).isTrue();
+        verify(user).removeAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE);
+    }
+
+    @Test
+    public void shouldReadOnlyValuesOfSameRules() {
+        final String fingerprint = DomainRules.compile("*.corp-a.de -> group.example").getFingerprint();
+        final UserModel user = givenUser("jdoe@mail.corp-a.de", precomputedEmail.valueOf("jdoe@group.example"));
+
+        assertThat(PrecomputedEmail.read(user, PrecomputedEmail.DEFAULT_ATTRIBUTE, fingerprint)).isEqualTo("jdoe@group.example");
+        assertThat(PrecomputedEmail.read(user, PrecomputedEmail.DEFAULT_ATTRIBUTE,
+                DomainRules.compile("*.corp-a.de -> other.example").getFingerprint())).isNull();
+        assertThat(PrecomputedEmail.read(givenUser("jdoe@mail.corp-a.de", "ceo@group.example"), PrecomputedEmail.DEFAULT_ATTRIBUTE,
+                fingerprint)).isNull();
+        assertThat(DomainRules.compile(" *.corp-a.de->group.example ;").getFingerprint()).isEqualTo(fingerprint);
+    }
+
+    private static UserModel givenUser(final String email, final String precomputed) {
+        final UserModel user = Mockito.mock(UserModel.class);
+        when(user.getEmail()).thenReturn(email);
+        when(user.getFirstAttribute(PrecomputedEmail.DEFAULT_ATTRIBUTE)).thenReturn(precomputed);
+        return user;
+    }
+}
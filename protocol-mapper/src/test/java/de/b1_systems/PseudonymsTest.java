@@ -0,0 +1,102 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PseudonymsTest {
+
+    private static final String JDOE = "2f1c4b0e-8d3a-4e57-9a61-0c5d7e9f1a23";
+    private static final String JANE = "7b9e2d14-3c6f-4a80-b1d2-5e8f9a0b7c34";
+    private static final String KEY_A = "client-a-0123456789";
+    private static final String KEY_B = "client-b-0123456789";
+
+    @Test
+    public void shouldReplaceLocalPartByStablePseudonym() {
+        final Pseudonyms pseudonyms = new Pseudonyms(KEY_A, new Pseudonyms.Cache(100));
+
+        final String mapped = pseudonyms.apply(JDOE, "jdoe@example.com");
+
+        assertThat(mapped).matches("[a-z2-7]{32}@example\\.com");
+        assertThat(new Pseudonyms(KEY_A, new Pseudonyms.Cache(100)).apply(JDOE, "john.doe@example.com")).isEqualTo(mapped);
+        assertThat(pseudonyms.of(JANE)).isNotEqualTo(pseudonyms.of(JDOE));
+        assertThat(pseudonyms.apply(JDOE, "jdoe")).isEqualTo(pseudonyms.of(JDOE));
+    }
+
+    @Test
+    public void shouldEncodeTruncatedHmacAsBase32() throws Exception {
+        final Mac mac = Mac.getInstance(Pseudonyms.ALGORITHM);
+        mac.init(new SecretKeySpec(KEY_A.getBytes(StandardCharsets.UTF_8), Pseudonyms.ALGORITHM));
+        final byte[] digest = mac.doFinal(JDOE.getBytes(StandardCharsets.UTF_8));
+        final StringBuilder bits = new StringBuilder();
+        for (int i = 0; i < Pseudonyms.PSEUDONYM_BYTES; i++) {
+            bits.append(String.format("%8s", Integer.toBinaryString(digest[i] & 0xff)).replace(' ', '0'));
+        }
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < bits.length(); i += 5) {
+            expected.append("abcdefghijklmnopqrstuvwxyz234567".charAt(Integer.parseInt(bits.substring(i, i + 5), 2)));
+        }
+
+        assertThat(new Pseudonyms(KEY_A, new Pseudonyms.Cache(100)).of(JDOE)).isEqualTo(expected.toString());
+    }
+
+    @Test
+    public void shouldNotReturnPseudonymsOfRotatedKey() {
+        final Pseudonyms.Cache cache = new Pseudonyms.Cache(100);
+        final Pseudonyms before = new Pseudonyms(KEY_A, cache);
+        final String pseudonym = before.of(JDOE);
+
+        final Pseudonyms after = new Pseudonyms(KEY_B, cache);
+
+        assertThat(after.getKeyVersion()).isNotEqualTo(before.getKeyVersion());
+        assertThat(after.of(JDOE)).isNotEqualTo(pseudonym).isEqualTo(after.compute(JDOE));
+        assertThat(new Pseudonyms(KEY_A, cache).of(JDOE)).isSameAs(pseudonym);
+    }
+
+    @Test
+    public void shouldComputeWithKeyOfEachInstanceOnSameThread() throws Exception {
+        final Pseudonyms a = new Pseudonyms(KEY_A, new Pseudonyms.Cache(100));
+        final Pseudonyms b = new Pseudonyms(KEY_B, new Pseudonyms.Cache(100));
+        final String expectedA = a.compute(JDOE);
+        final String expectedB = b.compute(JDOE);
+
+        // The thread's Mac switches keys back and forth
+        for (int i = 0; i < 3; i++) {
+            assertThat(a.compute(JDOE)).isEqualTo(expectedA);
+            assertThat(b.compute(JDOE)).isEqualTo(expectedB);
+        }
+        assertThat(expectedA).isNotEqualTo(expectedB);
+        // Same as on a fresh thread
+        final String[] onOtherThread = new String[1];
+        final Thread thread = new Thread(() -> onOtherThread[0] = b.compute(JDOE));
+        thread.start();
+        thread.join();
+        assertThat(onOtherThread[0]).isEqualTo(expectedB);
+    }
+
+    @Test
+    public void shouldBoundCache() {
+        final Pseudonyms.Cache cache = new Pseudonyms.Cache(160);
+        final Pseudonyms pseudonyms = new Pseudonyms(KEY_A, cache);
+        for (int i = 0; i < 10_000; i++) {
+            pseudonyms.of("user-" + i);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(160);
+        assertThat(pseudonyms.of("user-9999")).isSameAs(pseudonyms.of("user-9999"));
+    }
+
+    @Test
+    public void shouldRejectShortKey() {
+        assertThatThrownBy(() -> EmailDomainMapperConfig.compile(Map.of(EmailDomainMapperConfig.PSEUDONYM_KEY, "secret")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(EmailDomainMapperConfig.compile(Map.of()).getPseudonyms()).isNull();
+    }
+
+}
@@ -0,0 +1,91 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReloadingDomainTableTest {
+
+    @TempDir
+    Path directory;
+
+    private void export(final Path csv, final String content) throws IOException {
+        // Replace the file like an export job should, by moving a complete file over it
+        final Path written = Files.write(directory.resolve("export.tmp"), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(written, csv, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void shouldSwapInChangedExport() throws IOException {
+        final Path csv = directory.resolve("domains.csv");
+        export(csv, "jdoe@corp-a.de,group.example\n");
+        final ReloadingDomainTable table = new ReloadingDomainTable(csv, UnaryOperator.identity());
+        final DomainTable first = table.getCurrent();
+
+        export(csv, "jdoe@corp-a.de,sales.example\njroe@corp-a.de,group.example\n");
+
+        assertThat(table.reloadIfChanged()).isTrue();
+        assertThat(table.get("jdoe@corp-a.de")).isEqualTo("sales.example");
+        assertThat(table.get("jroe@corp-a.de")).isEqualTo("group.example");
+        // Lookups still holding the previous table keep working on it
+        assertThat(first.get("jdoe@corp-a.de")).isEqualTo("group.example");
+        assertThat(table.reloadIfChanged()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepTableIfExportIsBroken() throws IOException {
+        final Path csv = directory.resolve("domains.csv");
+        export(csv, "jdoe@corp-a.de,group.example\n");
+        final ReloadingDomainTable table = new ReloadingDomainTable(csv, UnaryOperator.identity());
+
+        export(csv, "jdoe@corp-a.de\n");
+
+        assertThat(table.reloadIfChanged()).isFalse();
+        assertThat(table.get("jdoe@corp-a.de")).isEqualTo("group.example");
+    }
+
+    @Test
+    public void shouldWaitForMissingExport() throws IOException {
+        final Path csv = directory.resolve("domains.csv");
+        final ReloadingDomainTable table = new ReloadingDomainTable(csv, UnaryOperator.identity());
+
+        assertThat(table.get("jdoe@corp-a.de")).isNull();
+
+        export(csv, "jdoe@corp-a.de,group.example\n");
+
+        assertThat(table.reloadIfChanged()).isTrue();
+        assertThat(table.get("jdoe@corp-a.de")).isEqualTo("group.example");
+    }
+
+    @Test
+    public void shouldResolveTablesInDirectory() {
+        assertThat(ReloadingDomainTable.resolve(directory, "domains.csv")).isEqualTo(directory.resolve("domains.csv"));
+        assertThat(ReloadingDomainTable.resolve(directory, "hr/../domains.csv")).isEqualTo(directory.resolve("domains.csv"));
+        assertThat(ReloadingDomainTable.resolve(directory, directory.resolve("domains.csv").toString()))
+                .isEqualTo(directory.resolve("domains.csv"));
+    }
+
+    @Test
+    public void shouldRejectTablesOutsideDirectory() throws IOException {
+        final Path tables = Files.createDirectory(directory.resolve("tables"));
+        Files.write(directory.resolve("secret.csv"), "jdoe,group.example\n".getBytes(StandardCharsets.UTF_8));
+        Files.createSymbolicLink(tables.resolve("link.csv"), directory.resolve("secret.csv"));
+
+        assertThatThrownBy(() -> ReloadingDomainTable.resolve(tables, "../secret.csv")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReloadingDomainTable.resolve(tables, directory.resolve("secret.csv").toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReloadingDomainTable.resolve(tables, "link.csv")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReloadingDomainTable.resolve(tables, ".")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReloadingDomainTable.resolve(null, "domains.csv")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -1,14 +1,22 @@
 package de.b1_systems;
 
 import org.junit.jupiter.api.Test;
-import org.keycloak.protocol.saml.mappers.AttributeStatementHelper;
+import org.keycloak.dom.saml.v2.assertion.AttributeStatementType;
+import org.keycloak.dom.saml.v2.assertion.AttributeType;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
 import org.keycloak.protocol.saml.mappers.UserAttributeStatementMapper;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.mockito.Mockito;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
 
 public class SAMLCustomEmailDomainMapperTest {
 
@@ -42,9 +50,72 @@ public class SAMLCustomEmailDomainMapperTest {
         final List<String> configPropertyNames = new SAMLCustomEmailDomainMapper().getConfigProperties().stream()
                 .map(ProviderConfigProperty::getName)
                 .collect(Collectors.toList());
-        assertThat(configPropertyNames).containsExactly(AttributeStatementHelper.SAML_ATTRIBUTE_NAME, AttributeStatementHelper.SAML_ATTRIBUTE_NAMEFORMAT, AttributeStatementHelper.URI_REFERENCE);
+        assertThat(configPropertyNames).containsExactly(EMAIL_DOMAIN, SAML_ATTRIBUTE_NAME, SAML_ATTRIBUTE_NAMEFORMAT,
+                EmailDomainMapperConfig.CACHE_IN_USER_SESSION,
+                EmailDomainMapperConfig.PRECOMPUTED_ATTRIBUTE,
+                EmailDomainMapperConfig.ALIAS_DOMAINS,
+                EmailDomainMapperConfig.TRANSFORMATIONS,
+                EmailDomainMapperConfig.DOMAIN_TABLE,
+                EmailDomainMapperConfig.DOMAIN_TABLE_KEY,
+                EmailDomainMapperConfig.GROUP_DOMAINS,
+                EmailDomainMapperConfig.SHARD_DOMAINS,
+                EmailDomainMapperConfig.MISSING_EMAIL_POLICY,
+                EmailDomainMapperConfig.MISSING_EMAIL_ATTRIBUTE,
+                EmailDomainMapperConfig.COLLISION_POLICY,
+                EmailDomainMapperConfig.PSEUDONYM_KEY);
+    }
+
+    @Test
+    public void shouldAddAttribute() {
+        final UserSessionModel session = givenUserSession();
+
+        final AttributeStatementType attributeStatement = transformAttributeStatement(session);
+
+        assertThat(attributeStatement.getAttributes()).hasSize(1);
+        final AttributeType attribute = attributeStatement.getAttributes().get(0).getAttribute();
+        assertThat(attribute.getName()).isEqualTo(SAMLCustomEmailDomainMapper.DEFAULT_SAML_ATTRIBUTE_NAME);
+        assertThat(attribute.getAttributeValue()).containsExactly("jdoe@group.example");
+    }
+
+    @Test
+    public void shouldAddAliasesToAttribute() {
+        final Map<String, String> config = createConfig();
+        config.put(EmailDomainMapperConfig.ALIAS_DOMAINS, "corp-a.de, group.example");
+        final ProtocolMapperModel mappingModel = new ProtocolMapperModel();
+        mappingModel.setConfig(config);
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+
+        new SAMLCustomEmailDomainMapper().transformAttributeStatement(attributeStatement, mappingModel, null, givenUserSession(), null);
+
+        assertThat(attributeStatement.getAttributes()).hasSize(1);
+        // The alias equal to the mapped address is skipped
+        assertThat(attributeStatement.getAttributes().get(0).getAttribute().getAttributeValue())
+                .containsExactly("jdoe@group.example", "jdoe@corp-a.de");
     }
 
     // TODO: add more tests
 
+    private UserSessionModel givenUserSession() {
+        UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+        UserModel user = Mockito.mock(UserModel.class);
+        when(userSession.getUser()).thenReturn(user);
+        when(user.getEmail()).thenReturn("jdoe@corp-a.de");
+        return userSession;
+    }
+
+    private AttributeStatementType transformAttributeStatement(UserSessionModel userSessionModel) {
+        final ProtocolMapperModel mappingModel = new ProtocolMapperModel();
+        mappingModel.setConfig(createConfig());
+        final AttributeStatementType attributeStatement = new AttributeStatementType();
+        new SAMLCustomEmailDomainMapper().transformAttributeStatement(attributeStatement, mappingModel, null, userSessionModel, null);
+        return attributeStatement;
+    }
+
+    private Map<String, String> createConfig() {
+        final Map<String, String> result = new HashMap<>();
+        result.put(EMAIL_DOMAIN, "group.example");
+        result.put(SAML_ATTRIBUTE_NAMEFORMAT, "urn:oasis:names:tc:SAML:2.0:attrname-format:uri");
+        return result;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package de.b1_systems;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.dom.saml.v2.assertion.AttributeType;
+import org.keycloak.models.ProtocolMapperModel;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SamlAttributeTemplateTest {
+
+    static final String NAME_FORMAT = "urn:oasis:names:tc:SAML:2.0:attrname-format:uri";
+
+    private final SamlAttributeTemplate template = new SamlAttributeTemplate(
+            EmailDomainMapperConfig.DEFAULT_SAML_ATTRIBUTE_NAME, NAME_FORMAT, SamlAttributeTemplate.FRIENDLY_NAME);
+
+    @Test
+    public void shouldStampAttributeFromTemplate() {
+        final AttributeType attribute = template.stamp("jdoe@group.example").getAttribute();
+
+        assertThat(attribute.getName()).isEqualTo(EmailDomainMapperConfig.DEFAULT_SAML_ATTRIBUTE_NAME);
+        assertThat(attribute.getNameFormat()).isEqualTo(NAME_FORMAT);
+        assertThat(attribute.getFriendlyName()).isEqualTo(SamlAttributeTemplate.FRIENDLY_NAME);
+        assertThat(attribute.getAttributeValue()).containsExactly("jdoe@group.example");
+        assertThat(attribute.getOtherAttributes()).isEmpty();
+    }
+
+    @Test
+    public void shouldStampIndependentValues() {
+        final AttributeType first = template.stamp("jdoe@group.example").getAttribute();
+        final AttributeType second = template.stamp("mmuster@group.example").getAttribute();
+
+        assertThat(first.getAttributeValue()).containsExactly("jdoe@group.example");
+        assertThat(second.getAttributeValue()).containsExactly("mmuster@group.example");
+    }
+
+    @Test
+    public void shouldStampAttributesOthersCanChange() {
+        final AttributeType attribute = template.stamp("jdoe@group.example").getAttribute();
+        attribute.addAttributeValue("john.doe@group.example");
+        attribute.setFriendlyName("email");
+
+        final AttributeType next = template.stamp("jdoe@group.example").getAttribute();
+
+        assertThat(attribute.getAttributeValue()).containsExactly("jdoe@group.example", "john.doe@group.example");
+        assertThat(next.getAttributeValue()).containsExactly("jdoe@group.example");
+        assertThat(next.getFriendlyName()).isEqualTo(SamlAttributeTemplate.FRIENDLY_NAME);
+    }
+
+    @Test
+    public void shouldCompileTemplateOncePerConfig() {
+        final EmailDomainMapperConfigCache cache = new EmailDomainMapperConfigCache(16);
+        final ProtocolMapperModel mappingModel = new ProtocolMapperModel();
+        mappingModel.setId("saml-mapper");
+        mappingModel.setConfig(Map.of(EmailDomainMapperConfig.SAML_ATTRIBUTE_NAMEFORMAT, NAME_FORMAT));
+
+        final SamlAttributeTemplate first = cache.get(mappingModel).getSamlAttributeTemplate();
+        final SamlAttributeTemplate second = cache.get(mappingModel).getSamlAttributeTemplate();
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getNameFormat()).isEqualTo(NAME_FORMAT);
+    }
+}